@@ -6,10 +6,8 @@ import static edu.drexel.cs.jah473.args.Type.*;
 import edu.drexel.cs.jah473.args.Arg;
 import edu.drexel.cs.jah473.args.ArgParseParams;
 import edu.drexel.cs.jah473.args.Args;
-import edu.drexel.cs.jah473.datastructures.KDTree;
-import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.datastructures.GeoKDTree;
 import edu.drexel.cs.jah473.distance.KDPoint;
-import edu.drexel.cs.jah473.distance.LatLonDist;
 import edu.drexel.cs.jah473.us_cities.City;
 import edu.drexel.cs.jah473.us_cities.State;
 import edu.drexel.cs.jah473.us_cities.USCities;
@@ -51,8 +49,7 @@ public class WhereAmI {
     public static void main(String[] args) {
         Args.parse(args, params, WhereAmI.class);
         KDPoint unknownLoc = new KDPoint(lat, lon);
-        LatLonDist haversine = Distances.haversine();
-        KDTree<City> citiesInUS = new KDTree<>(USCities.allCities(), 2, haversine::distanceBetweenMI);
+        GeoKDTree<City> citiesInUS = new GeoKDTree<>(USCities.allCities());
         List<State> results = citiesInUS.kNNClassify(unknownLoc, numCities, City::getState);
         System.out.println();
         if (results.size() == 1) {
@@ -68,7 +65,7 @@ public class WhereAmI {
         }
         System.out.println("\nCities within " + radius + " miles of you are: ");
         i = 0;
-        for (City c : citiesInUS.radiusSearch(unknownLoc, radius)) {
+        for (City c : citiesInUS.radiusSearchMI(unknownLoc, radius)) {
             System.out.println(++i + ". " + c);
         }
         System.out.println();
@@ -0,0 +1,295 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * A {@link KDTree} in which every node caches an aggregate, as defined by an
+ * {@link Aggregator}, of the points in its subtree. The aggregates are kept up
+ * to date as points are added and removed, at the cost of one extra combine
+ * per node on the update path and one pass over a leaf's points. <br>
+ * <br>
+ * Regions can then be summarized without materializing the points inside
+ * them. {@link #aggregateInBox(double...)} and
+ * {@link #aggregateInRadius(KDPoint, double)} use the cached aggregate of any
+ * subtree lying entirely inside the region and only visit the points of leaves
+ * that straddle its boundary. For example, with
+ * {@link Aggregator#summing(java.util.function.ToDoubleFunction)} the sum of a
+ * value over a region is found in roughly the time it takes to count the
+ * region with {@link KDTree#countInBox(double...)}. <br>
+ * <br>
+ * This tree is serializable if its aggregator is; aggregates are recomputed
+ * when it is read.
+ * 
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the data stored in this KD tree, must be subclass of
+ *            {@link KDPoint}
+ * @param <A>
+ *            the type of the aggregate value
+ */
+public class AggregateKDTree<E extends KDPoint, A> extends KDTree<E> {
+
+    private static final long serialVersionUID = 4581902712043527398L;
+
+    protected Aggregator<? super E, A> aggregator;
+
+    /**
+     * Constructs a new aggregate KD tree.
+     * 
+     * @param data
+     *            a collection of data points
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param aggregator
+     *            the aggregate to maintain for each subtree
+     */
+    public AggregateKDTree(Collection<E> data, int k, DistanceFunction distanceFunction,
+            Aggregator<? super E, A> aggregator) {
+        this.aggregator = aggregator;
+        init(data, k, distanceFunction);
+    }
+
+    /**
+     * Constructs a new aggregate KD tree.
+     * 
+     * @param data
+     *            a collection of data points
+     * @param k
+     *            the number of dimensions
+     * @param pointsPerLeaf
+     *            maximum number of points per leaf node
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param aggregator
+     *            the aggregate to maintain for each subtree
+     */
+    public AggregateKDTree(Collection<E> data, int k, int pointsPerLeaf, DistanceFunction distanceFunction,
+            Aggregator<? super E, A> aggregator) {
+        if (pointsPerLeaf < 1) {
+            throw new IllegalArgumentException("Points per leaf must be greater than or equal to 1");
+        }
+        this.pointsPerLeaf = pointsPerLeaf;
+        this.aggregator = aggregator;
+        init(data, k, distanceFunction);
+    }
+
+    /**
+     * Returns the aggregate of all points in this tree.
+     * 
+     * @return the aggregate of all points in this tree
+     */
+    @SuppressWarnings("unchecked")
+    public A aggregate() {
+        return (A) root.aggregate;
+    }
+
+    /**
+     * Aggregates the points within the given bounding box. The number of
+     * parameters given for the bounding box must be twice the number of
+     * dimensions of this tree. The bounding box is inclusive.
+     * 
+     * @param box
+     *            the bounding box in the format minD0, maxD0, minD1, maxD1...
+     * @return the aggregate of all points in this tree within the given
+     *         bounding box
+     */
+    public A aggregateInBox(double... box) {
+        return aggregateInBoxAux(root, box, unboundedBox(box));
+    }
+
+    /*
+     * Recursive helper function for aggregateInBox. Restrictions are updated
+     * in place and restored on backtrack.
+     */
+    @SuppressWarnings("unchecked")
+    private A aggregateInBoxAux(Node<E> node, double[] box, double[] restrictions) {
+        final Overlap overlap = overlapType(box, restrictions);
+        if (overlap == Overlap.NONE) {
+            return aggregator.identity();
+        }
+        if (overlap == Overlap.COMPLETE) {
+            return (A) node.aggregate;
+        }
+        if (node.isLeaf()) {
+            A result = aggregator.identity();
+            for (E point : node.members) {
+                if (inBox(point, box)) {
+                    result = aggregator.combine(result, aggregator.lift(point));
+                }
+            }
+            return result;
+        }
+        final int dim = node.dim;
+        final double max = restrictions[dim * 2 + 1];
+        restrictions[dim * 2 + 1] = node.split;
+        final A left = aggregateInBoxAux(node.left, box, restrictions);
+        restrictions[dim * 2 + 1] = max;
+        final double min = restrictions[dim * 2];
+        restrictions[dim * 2] = node.split;
+        final A right = aggregateInBoxAux(node.right, box, restrictions);
+        restrictions[dim * 2] = min;
+        return aggregator.combine(left, right);
+    }
+
+    /**
+     * Aggregates the data points in this tree within a certain distance of the
+     * given center point. A subtree is taken whole if the farthest corner of
+     * its region is within the radius, which assumes that distance grows with
+     * the difference in each coordinate, as it does for all of the built-in
+     * distance functions.
+     * 
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @return the aggregate of all data points in this tree within the
+     *         specified distance from the center point
+     */
+    public A aggregateInRadius(KDPoint center, double radius) {
+        checkRadius(radius);
+        final double[] restrictions = new double[k * 2];
+        for (int i = 0; i < k; i++) {
+            restrictions[i * 2] = Double.NEGATIVE_INFINITY;
+            restrictions[i * 2 + 1] = Double.POSITIVE_INFINITY;
+        }
+        return aggregateInRadiusAux(center, radius, root, restrictions, new double[k]);
+    }
+
+    /*
+     * Recursive helper function for aggregateInRadius. Restrictions hold the
+     * region of the node in bounding box format and are updated in place and
+     * restored on backtrack.
+     */
+    @SuppressWarnings("unchecked")
+    private A aggregateInRadiusAux(KDPoint center, double radius, Node<E> node, double[] restrictions,
+            double[] scratch) {
+        for (int i = 0; i < k; i++) {
+            scratch[i] = Math.max(restrictions[i * 2], Math.min(center.getCoord(i), restrictions[i * 2 + 1]));
+        }
+        if (distFunc.distanceTo(center, scratch) > radius) {
+            return aggregator.identity();
+        }
+        for (int i = 0; i < k; i++) {
+            final double coord = center.getCoord(i);
+            final double min = restrictions[i * 2];
+            final double max = restrictions[i * 2 + 1];
+            scratch[i] = coord - min > max - coord ? min : max;
+        }
+        if (distFunc.distanceTo(center, scratch) <= radius) {
+            return (A) node.aggregate;
+        }
+        if (node.isLeaf()) {
+            A result = aggregator.identity();
+            for (E point : node.members) {
+                if (calcDistance(center, point) <= radius) {
+                    result = aggregator.combine(result, aggregator.lift(point));
+                }
+            }
+            return result;
+        }
+        final int dim = node.dim;
+        final double max = restrictions[dim * 2 + 1];
+        restrictions[dim * 2 + 1] = node.split;
+        final A left = aggregateInRadiusAux(center, radius, node.left, restrictions, scratch);
+        restrictions[dim * 2 + 1] = max;
+        final double min = restrictions[dim * 2];
+        restrictions[dim * 2] = node.split;
+        final A right = aggregateInRadiusAux(center, radius, node.right, restrictions, scratch);
+        restrictions[dim * 2] = min;
+        return aggregator.combine(left, right);
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given center point among the points
+     * accepted by a filter, skipping any subtree whose aggregate is rejected by
+     * a second filter. For example, if the aggregate is the set of categories
+     * in a subtree, subtrees holding none of the wanted categories are never
+     * searched.
+     * 
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @param filter
+     *            a {@link Predicate} that accepts the data points which may be
+     *            returned
+     * @param subtreeFilter
+     *            a {@link Predicate} that rejects only aggregates of subtrees
+     *            with no data points accepted by filter
+     * @return a list, sorted by distance, of the k accepted data points in
+     *         this tree closest to the center point, or of all accepted data
+     *         points if there are fewer than k
+     */
+    public List<E> kNN(KDPoint center, int k, Predicate<? super E> filter, Predicate<? super A> subtreeFilter) {
+        return kNN(center, k, new SearchFilter<>(filter, nodeFilter(subtreeFilter)));
+    }
+
+    /* Applies a filter of aggregates to nodes */
+    @SuppressWarnings("unchecked")
+    private Predicate<Node<E>> nodeFilter(Predicate<? super A> subtreeFilter) {
+        return node -> subtreeFilter.test((A) node.aggregate);
+    }
+
+    /**
+     * Finds all data points in this tree accepted by a filter within a certain
+     * distance of the given center point, skipping any subtree whose aggregate
+     * is rejected by a second filter.
+     * 
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @param filter
+     *            a {@link Predicate} that accepts the data points which may be
+     *            returned
+     * @param subtreeFilter
+     *            a {@link Predicate} that rejects only aggregates of subtrees
+     *            with no data points accepted by filter
+     * @return a list, sorted by distance, of all accepted data points in this
+     *         tree within the specified distance from the center point
+     */
+    public List<E> radiusSearch(KDPoint center, double radius, Predicate<? super E> filter,
+            Predicate<? super A> subtreeFilter) {
+        return radiusSearch(center, radius, new SearchFilter<>(filter, nodeFilter(subtreeFilter)));
+    }
+
+    /* Read from serialized form, recomputing the aggregates */
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        ois.defaultReadObject();
+        summarizeAll(root);
+    }
+
+    /* Recomputes the aggregate of a node from its members or children */
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void summarize(Node<E> node) {
+        if (node.isLeaf()) {
+            A result = aggregator.identity();
+            for (E point : node.members) {
+                result = aggregator.combine(result, aggregator.lift(point));
+            }
+            node.aggregate = result;
+        } else {
+            node.aggregate = aggregator.combine((A) node.left.aggregate, (A) node.right.aggregate);
+        }
+    }
+
+    /* Recomputes the aggregates of a whole subtree */
+    private void summarizeAll(Node<E> node) {
+        if (!node.isLeaf()) {
+            summarizeAll(node.left);
+            summarizeAll(node.right);
+        }
+        summarize(node);
+    }
+}
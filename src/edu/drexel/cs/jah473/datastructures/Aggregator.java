@@ -0,0 +1,100 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A summary of a group of data points that can be computed by combining the
+ * summaries of smaller groups, such as a count, sum, minimum, or maximum. An
+ * {@link AggregateKDTree} caches the aggregate of every subtree so that
+ * regions of the tree can be summarized without visiting each point. <br>
+ * <br>
+ * Implementations must form a monoid: {@link #combine(Object, Object)} must
+ * be associative, and combining any value with {@link #identity()} must yield
+ * that value.
+ * 
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the data points
+ * @param <A>
+ *            the type of the aggregate value
+ */
+public interface Aggregator<E, A> {
+
+    /**
+     * Creates an aggregator from its parts.
+     * 
+     * @param identity
+     *            the aggregate of no points
+     * @param lift
+     *            function giving the aggregate of a single point
+     * @param combine
+     *            associative function combining two aggregates
+     * @param <E>
+     *            the type of the data points
+     * @param <A>
+     *            the type of the aggregate value
+     * @return a new aggregator
+     */
+    public static <E, A> Aggregator<E, A> of(A identity, Function<? super E, ? extends A> lift,
+            BinaryOperator<A> combine) {
+        return new Aggregator<E, A>() {
+            @Override
+            public A identity() {
+                return identity;
+            }
+
+            @Override
+            public A lift(E point) {
+                return lift.apply(point);
+            }
+
+            @Override
+            public A combine(A left, A right) {
+                return combine.apply(left, right);
+            }
+        };
+    }
+
+    /**
+     * Creates an aggregator that sums a numeric value of each point.
+     * 
+     * @param mapper
+     *            function mapping a data point to the value to sum
+     * @param <E>
+     *            the type of the data points
+     * @return a new summing aggregator
+     */
+    public static <E> Aggregator<E, Double> summing(ToDoubleFunction<? super E> mapper) {
+        return of(0.0, p -> mapper.applyAsDouble(p), Double::sum);
+    }
+
+    /**
+     * Combines two aggregates.
+     * 
+     * @param left
+     *            the first aggregate
+     * @param right
+     *            the second aggregate
+     * @return the aggregate of the points in both groups
+     */
+    A combine(A left, A right);
+
+    /**
+     * Returns the aggregate of no points.
+     * 
+     * @return the identity aggregate
+     */
+    A identity();
+
+    /**
+     * Returns the aggregate of a single point.
+     * 
+     * @param point
+     *            the data point
+     * @return the aggregate of the point
+     */
+    A lift(E point);
+}
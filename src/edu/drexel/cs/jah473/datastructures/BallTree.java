@@ -0,0 +1,574 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import edu.drexel.cs.jah473.datastructures.KDTree.Neighbor;
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.KDPoint;
+import edu.drexel.cs.jah473.util.ToNumberFunction;
+
+/**
+ * Class to represent a ball tree, a metric tree supporting k-nearest neighbor
+ * and radius searches as well as machine learning classification and
+ * regression of data points. <br>
+ * <br>
+ * Unlike a {@link KDTree}, which splits space along coordinate axes, a ball
+ * tree groups nearby points into nested balls, each described by a center
+ * point and the distance from it to the farthest point inside. Searches prune
+ * a ball using nothing but distances and the triangle inequality, so the tree
+ * works equally well for any distance function that is a true metric,
+ * including custom metrics that weight or mix coordinates and data in high
+ * dimension, where a KD tree degrades to scanning nearly every point. The
+ * coordinates of the points are never examined directly. Note that squared
+ * distances, such as
+ * {@link edu.drexel.cs.jah473.distance.Distances#sqEuclidean(int)}, do not
+ * satisfy the triangle inequality, and searches using them may miss points.
+ * <br>
+ * <br>
+ * The tree is built top-down in O(n log n) time. Each ball is split by picking
+ * two far-apart points and dividing the ball at the median of the difference
+ * of each point's distances to the two, so the tree is balanced when built.
+ * Points are added to the leaf with the nearest center, growing the balls on
+ * the way down, and removed from their leaves without shrinking the balls.
+ * The whole tree is rebuilt once its size has doubled or halved since it was
+ * last built, keeping the amortized cost of an update logarithmic. <br>
+ * <br>
+ * All data points are stored in leaf nodes. The default maximum number of data
+ * points per node is 5, but this can be overridden using the alternate
+ * constructor. The maximum may be violated only if the node contains duplicate
+ * points. This class implements the {@link Collection} interface.
+ *
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the data stored in this ball tree, must be subclass
+ *            of {@link KDPoint}
+ */
+public class BallTree<E extends KDPoint> extends AbstractCollection<E> implements Serializable {
+
+    /* Represents a ball in the tree */
+    protected static class Node<E extends KDPoint> implements Serializable {
+
+        private static final long serialVersionUID = -1939312660209131877L;
+
+        KDPoint center;
+        Node<E> left;
+        List<E> members;
+        double radius;
+        Node<E> right;
+
+        boolean isLeaf() {
+            return left == null;
+        }
+    }
+
+    private static final long serialVersionUID = 5012938409712446873L;
+
+    /* Collects the data points of a subtree */
+    protected static <E extends KDPoint> void express(Node<E> node, List<E> collector) {
+        if (node.isLeaf()) {
+            collector.addAll(node.members);
+            return;
+        }
+        express(node.left, collector);
+        express(node.right, collector);
+    }
+
+    /*
+     * Rearranges keys[lo, hi), and points along with them, so that the value of
+     * rank target is in place with smaller values before it and larger values
+     * after it
+     */
+    private static void select(double[] keys, KDPoint[] points, int lo, int hi, int target) {
+        final ThreadLocalRandom rand = ThreadLocalRandom.current();
+        while (hi - lo > 1) {
+            final double pivot = keys[rand.nextInt(lo, hi)];
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i < gt) {
+                if (keys[i] < pivot) {
+                    swap(keys, points, lt++, i++);
+                } else if (keys[i] > pivot) {
+                    swap(keys, points, i, --gt);
+                } else {
+                    i++;
+                }
+            }
+            if (target < lt) {
+                hi = lt;
+            } else if (target >= gt) {
+                lo = gt;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(double[] keys, KDPoint[] points, int i, int j) {
+        final double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        final KDPoint point = points[i];
+        points[i] = points[j];
+        points[j] = point;
+    }
+
+    /* Size of the tree when it was last built */
+    protected int builtSize;
+    protected DistanceFunction distFunc;
+    protected int pointsPerLeaf = 5;
+    protected Node<E> root;
+    protected int size;
+
+    /**
+     * Constructs a new ball tree.
+     *
+     * @param data
+     *            a collection of data points
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points,
+     *            which must satisfy the triangle inequality
+     */
+    public BallTree(Collection<E> data, DistanceFunction distanceFunction) {
+        this.distFunc = distanceFunction;
+        build(data);
+    }
+
+    /**
+     * Constructs a new ball tree.
+     *
+     * @param data
+     *            a collection of data points
+     * @param pointsPerLeaf
+     *            maximum number of points per leaf node
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points,
+     *            which must satisfy the triangle inequality
+     */
+    public BallTree(Collection<E> data, int pointsPerLeaf, DistanceFunction distanceFunction) {
+        if (pointsPerLeaf < 1) {
+            throw new IllegalArgumentException("Points per leaf must be greater than or equal to 1");
+        }
+        this.pointsPerLeaf = pointsPerLeaf;
+        this.distFunc = distanceFunction;
+        build(data);
+    }
+
+    /**
+     * Adds a data point to this tree. The tree supports storage of duplicate
+     * points.
+     *
+     * @param point
+     *            the point to add
+     * @return {@code true} (as specified by Collection.add(E))
+     */
+    @Override
+    public boolean add(E point) {
+        size++;
+        if (size == 1 || size > 2 * Math.max(builtSize, pointsPerLeaf)) {
+            List<E> data = toList();
+            data.add(point);
+            build(data);
+            return true;
+        }
+        Node<E> node = root;
+        double dist = calcDistance(node.center, point);
+        while (true) {
+            node.radius = Math.max(node.radius, dist);
+            if (node.isLeaf()) {
+                break;
+            }
+            final double leftDist = calcDistance(node.left.center, point);
+            final double rightDist = calcDistance(node.right.center, point);
+            if (leftDist <= rightDist) {
+                node = node.left;
+                dist = leftDist;
+            } else {
+                node = node.right;
+                dist = rightDist;
+            }
+        }
+        node.members.add(point);
+        if (node.members.size() > pointsPerLeaf) {
+            KDPoint[] points = node.members.toArray(new KDPoint[0]);
+            build(node, points, new double[points.length], 0, points.length);
+        }
+        return true;
+    }
+
+    /* Builds the whole tree from the given data */
+    protected void build(Collection<E> data) {
+        KDPoint[] points = data.toArray(new KDPoint[0]);
+        root = new Node<>();
+        size = points.length;
+        builtSize = size;
+        if (size == 0) {
+            root.members = new ArrayList<>();
+            return;
+        }
+        build(root, points, new double[points.length], 0, points.length);
+    }
+
+    /*
+     * Builds the subtree rooted at node over points[lo, hi), using keys[lo, hi)
+     * as scratch space
+     */
+    @SuppressWarnings("unchecked")
+    protected void build(Node<E> node, KDPoint[] points, double[] keys, int lo, int hi) {
+        node.center = points[lo];
+        node.radius = 0;
+        KDPoint far1 = points[lo];
+        for (int i = lo; i < hi; i++) {
+            keys[i] = calcDistance(node.center, points[i]);
+            if (keys[i] > node.radius) {
+                node.radius = keys[i];
+                far1 = points[i];
+            }
+        }
+        if (hi - lo > pointsPerLeaf && node.radius > 0) {
+            KDPoint far2 = far1;
+            double max = 0;
+            for (int i = lo; i < hi; i++) {
+                keys[i] = calcDistance(far1, points[i]);
+                if (keys[i] > max) {
+                    max = keys[i];
+                    far2 = points[i];
+                }
+            }
+            for (int i = lo; i < hi; i++) {
+                keys[i] -= calcDistance(far2, points[i]);
+            }
+            final int mid = (lo + hi) >>> 1;
+            select(keys, points, lo, hi, mid);
+            node.members = null;
+            node.left = new Node<>();
+            node.right = new Node<>();
+            build(node.left, points, keys, lo, mid);
+            build(node.right, points, keys, mid, hi);
+            return;
+        }
+        node.left = null;
+        node.right = null;
+        List<E> members = new ArrayList<>(Math.max(hi - lo, pointsPerLeaf + 1));
+        for (int i = lo; i < hi; i++) {
+            members.add((E) points[i]);
+        }
+        node.members = members;
+    }
+
+    /**
+     * Calculates the distance between two points, using this tree's distance
+     * function.
+     *
+     * @param point1
+     *            the first point
+     * @param point2
+     *            the second point
+     * @return the distance between point1 and point2
+     */
+    public double calcDistance(KDPoint point1, KDPoint point2) {
+        return distFunc.distanceBetween(point1, point2);
+    }
+
+    /**
+     * Clears all data from this tree.
+     */
+    @Override
+    public void clear() {
+        build(Collections.emptyList());
+    }
+
+    /**
+     * Returns true if this tree contains the specified element.
+     *
+     * @param o
+     *            the element in question
+     * @return {@code true} if this tree contains the specified element
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof KDPoint) || size == 0) {
+            return false;
+        }
+        return containsAux(root, (KDPoint) o);
+    }
+
+    /* Recursive helper function for contains */
+    private boolean containsAux(Node<E> node, KDPoint point) {
+        if (calcDistance(node.center, point) > node.radius) {
+            return false;
+        }
+        if (node.isLeaf()) {
+            return node.members.contains(point);
+        }
+        return containsAux(node.left, point) || containsAux(node.right, point);
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the points in this tree. Removing
+     * points through the iterator is not supported.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return Collections.unmodifiableList(toList()).iterator();
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given center point.
+     *
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @return a list, sorted by distance, of the k data points in this tree
+     *         closest to the center point
+     */
+    public List<E> kNN(KDPoint center, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        if (k > size) {
+            throw new IllegalArgumentException("k is greater than the number of points in this tree");
+        }
+        if (k == 0) {
+            return new ArrayList<>();
+        }
+        Queue<Neighbor<E>> neighbors = new PriorityQueue<>(k, Collections.reverseOrder());
+        kNNAux(center, k, root, calcDistance(center, root.center), neighbors);
+        return neighbors.stream().sorted().map(n -> n.data).collect(Collectors.toList());
+    }
+
+    /*
+     * Recursive helper function for kNN search. dist is the distance from the
+     * search center to the center of node. Children are searched nearest ball
+     * first, and a ball is skipped if no point inside it can be closer than
+     * the current kth nearest neighbor.
+     */
+    private void kNNAux(KDPoint center, int k, Node<E> node, double dist, Queue<Neighbor<E>> neighbors) {
+        if (neighbors.size() == k && dist - node.radius >= neighbors.peek().dist) {
+            return;
+        }
+        if (node.isLeaf()) {
+            for (E point : node.members) {
+                final double pointDist = calcDistance(center, point);
+                if (neighbors.size() < k) {
+                    neighbors.add(new Neighbor<>(point, pointDist));
+                } else if (pointDist < neighbors.peek().dist) {
+                    Neighbor<E> evicted = neighbors.remove();
+                    evicted.data = point;
+                    evicted.dist = pointDist;
+                    neighbors.add(evicted);
+                }
+            }
+            return;
+        }
+        final double leftDist = calcDistance(center, node.left.center);
+        final double rightDist = calcDistance(center, node.right.center);
+        if (leftDist - node.left.radius <= rightDist - node.right.radius) {
+            kNNAux(center, k, node.left, leftDist, neighbors);
+            kNNAux(center, k, node.right, rightDist, neighbors);
+        } else {
+            kNNAux(center, k, node.right, rightDist, neighbors);
+            kNNAux(center, k, node.left, leftDist, neighbors);
+        }
+    }
+
+    /**
+     * Performs a majority vote classification for the given point based on its
+     * k-nearest neighbors in this tree.
+     *
+     * @param point
+     *            the point in question
+     * @param k
+     *            the number of neighbors
+     * @param mapper
+     *            a {@link Function} of type (? super E {@literal ->} T) mapping
+     *            a data point to any type
+     * @param <T>
+     *            the result type of the mapping function
+     * @return a list containing the majority vote winning T value(s)
+     */
+    public <T> List<T> kNNClassify(KDPoint point, int k, Function<? super E, T> mapper) {
+        TallyMap<T> counter = new TallyMap<>();
+        kNN(point, k).stream().map(mapper).forEach(t -> counter.increment(t));
+        return counter.getMaxKeys();
+    }
+
+    /**
+     * Performs a mean regression for the given point based on its k-nearest
+     * neighbors in this tree.
+     *
+     * @param point
+     *            the point in question
+     * @param k
+     *            the number of neighbors
+     * @param mapper
+     *            a {@link ToNumberFunction} of type (? super E {@literal ->}
+     *            Number) mapping a data point to a numeric value
+     * @return the average of the mapped values of the k-nearest neighbors, or
+     *         {@link Double#NaN} if there was no average to compute
+     */
+    public double kNNRegression(KDPoint point, int k, ToNumberFunction<? super E, ?> mapper) {
+        return kNN(point, k).stream().mapToDouble(p -> mapper.apply(p).doubleValue()).average().orElse(Double.NaN);
+    }
+
+    /* Recursive helper function for radius search */
+    private void radiusAux(KDPoint center, double radius, Node<E> node, List<Neighbor<E>> pointsWithin) {
+        if (calcDistance(center, node.center) - node.radius > radius) {
+            return;
+        }
+        if (node.isLeaf()) {
+            for (E point : node.members) {
+                final double dist = calcDistance(center, point);
+                if (dist <= radius) {
+                    pointsWithin.add(new Neighbor<>(point, dist));
+                }
+            }
+            return;
+        }
+        radiusAux(center, radius, node.left, pointsWithin);
+        radiusAux(center, radius, node.right, pointsWithin);
+    }
+
+    /**
+     * Performs a majority vote classification for the given point based on the
+     * points in this tree within the given radius from the point in question.
+     *
+     * @param point
+     *            the point in question
+     * @param radius
+     *            the radius
+     * @param mapper
+     *            a {@link Function} of type (? super E {@literal ->} T) mapping
+     *            a data point to any type
+     * @param <T>
+     *            the result type of the mapping function
+     * @return a list containing the majority vote winning T value(s)
+     */
+    public <T> List<T> radiusClassify(KDPoint point, double radius, Function<? super E, T> mapper) {
+        TallyMap<T> counter = new TallyMap<>();
+        radiusSearch(point, radius).stream().map(mapper).forEach(t -> counter.increment(t));
+        return counter.getMaxKeys();
+    }
+
+    /**
+     * Performs a mean regression for the given point based on the points in
+     * this tree within the given radius from the point in question.
+     *
+     * @param point
+     *            the point in question
+     * @param radius
+     *            the radius
+     * @param mapper
+     *            a {@link ToNumberFunction} of type (? super E {@literal ->}
+     *            Number) mapping a data point to a numeric value
+     * @return the average of the mapped values of the points within the
+     *         radius, or {@link Double#NaN} if there was no average to compute
+     */
+    public double radiusRegression(KDPoint point, double radius, ToNumberFunction<? super E, ?> mapper) {
+        return radiusSearch(point, radius).stream().mapToDouble(p -> mapper.apply(p).doubleValue()).average()
+                .orElse(Double.NaN);
+    }
+
+    /**
+     * Finds all data points in this tree within a certain distance of the given
+     * center point.
+     *
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @return a list, sorted by distance, of all data points in this tree
+     *         within the specified distance from the center point
+     */
+    public List<E> radiusSearch(KDPoint center, double radius) {
+        KDTree.checkRadius(radius);
+        List<Neighbor<E>> pointsWithin = new ArrayList<>();
+        if (size > 0) {
+            radiusAux(center, radius, root, pointsWithin);
+        }
+        return pointsWithin.stream().sorted().map(n -> n.data).collect(Collectors.toList());
+    }
+
+    /**
+     * Removes one occurrence of the specified element from this tree, if it is
+     * present.
+     *
+     * @param o
+     *            the element to remove
+     * @return {@code true} if this tree was changed as a result of this call
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof KDPoint) || size == 0 || !removeAux(root, (KDPoint) o)) {
+            return false;
+        }
+        size--;
+        if (size < builtSize / 2) {
+            build(toList());
+        }
+        return true;
+    }
+
+    /*
+     * Recursive helper function for remove. A node whose child was emptied is
+     * replaced by the other child.
+     */
+    private boolean removeAux(Node<E> node, KDPoint point) {
+        if (calcDistance(node.center, point) > node.radius) {
+            return false;
+        }
+        if (node.isLeaf()) {
+            return node.members.remove(point);
+        }
+        final Node<E> child;
+        if (removeAux(node.left, point)) {
+            child = node.left;
+        } else if (removeAux(node.right, point)) {
+            child = node.right;
+        } else {
+            return false;
+        }
+        if (child.isLeaf() && child.members.isEmpty()) {
+            final Node<E> sibling = child == node.left ? node.right : node.left;
+            node.left = sibling.left;
+            node.right = sibling.right;
+            node.members = sibling.members;
+            node.center = sibling.center;
+            node.radius = sibling.radius;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of data points in this tree.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the data in this tree. Changes to the list returned will not affect
+     * this tree. The list returned is not in any particular order.
+     *
+     * @return a list of points in this tree
+     */
+    public List<E> toList() {
+        List<E> data = new ArrayList<>(size);
+        express(root, data);
+        return data;
+    }
+}
@@ -0,0 +1,82 @@
+package edu.drexel.cs.jah473.datastructures;
+
+/**
+ * The cluster ordering of a list of points produced by OPTICS. Points are
+ * identified by their index in the list that was ordered. Each point's
+ * reachability distance is the smallest radius at which it is density
+ * reachable from a point earlier in the ordering, so valleys in the
+ * reachability plot, taken in the order given, are clusters. This class is
+ * utilized as the return type for
+ * {@link DensityClustering#optics(java.util.List, int, edu.drexel.cs.jah473.distance.DistanceFunction, double, int)}.
+ *
+ * @author Justin Horvitz
+ *
+ */
+public class ClusterOrdering {
+    /**
+     * The indices of the points in cluster order.
+     */
+    public final int[] order;
+
+    /**
+     * The reachability distance of each point, by index in the list that was
+     * ordered, or {@link Double#POSITIVE_INFINITY} if a point is not reachable
+     * within the maximum radius from any point before it in the ordering.
+     */
+    public final double[] reachability;
+
+    /**
+     * The core distance of each point, by index in the list that was ordered:
+     * the smallest radius at which it would be a core point, or
+     * {@link Double#POSITIVE_INFINITY} if that radius exceeds the maximum.
+     */
+    public final double[] coreDistance;
+
+    /* Package constructor */
+    ClusterOrdering(int[] order, double[] reachability, double[] coreDistance) {
+        this.order = order;
+        this.reachability = reachability;
+        this.coreDistance = coreDistance;
+    }
+
+    /**
+     * Extracts the clustering DBSCAN would find with the given radius and the
+     * same minimum number of points. Core points are clustered exactly as
+     * DBSCAN would cluster them; a point on the border of more than one
+     * cluster may be assigned to a different one of them. Clusters are
+     * numbered from 0 in cluster order.
+     *
+     * @param radius
+     *            the radius of the neighborhood of a point, no greater than
+     *            the maximum radius used to build this ordering
+     * @return an array of cluster labels aligned to the list that was ordered,
+     *         with {@link DensityClustering#NOISE} for noise
+     */
+    public int[] extractDBSCAN(double radius) {
+        final int[] labels = new int[order.length];
+        int cluster = DensityClustering.NOISE;
+        int numClusters = 0;
+        for (int index : order) {
+            if (reachability[index] > radius) {
+                if (coreDistance[index] <= radius) {
+                    cluster = numClusters++;
+                    labels[index] = cluster;
+                } else {
+                    labels[index] = DensityClustering.NOISE;
+                }
+            } else {
+                labels[index] = cluster;
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Returns a string representation of this ordering.
+     */
+    @Override
+    public String toString() {
+        return "ClusterOrdering [points=" + order.length + "]";
+    }
+
+}
@@ -0,0 +1,629 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import edu.drexel.cs.jah473.datastructures.KDTree.Node;
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.KDPoint;
+import edu.drexel.cs.jah473.util.ToNumberFunction;
+
+/**
+ * A thread-safe variant of {@link KDTree} in which reads never block. The tree
+ * is held as an immutable snapshot. Writers are serialized with each other and
+ * publish a new snapshot after every update, copying only the nodes on the
+ * path from the root to the affected leaf and sharing the rest of the
+ * structure with the previous snapshot. Readers simply take the current
+ * snapshot, so any number of threads may search the tree without locking
+ * while a writer applies updates. Each search sees the tree as it was when
+ * the search began. <br>
+ * <br>
+ * Insertion and removal copy O(log n) nodes plus one leaf's member list, so
+ * they are somewhat slower than on a plain {@link KDTree}. Unlike
+ * {@link KDTree}, updates do not rebalance the tree. Iteration traverses
+ * a snapshot and never throws
+ * {@link java.util.ConcurrentModificationException}. <br>
+ * <br>
+ * This class implements the {@link Collection} interface.
+ * 
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the data stored in this KD tree, must be subclass of
+ *            {@link KDPoint}
+ */
+public class ConcurrentKDTree<E extends KDPoint> extends AbstractCollection<E> implements Serializable {
+
+    private static final long serialVersionUID = -3365618095233744178L;
+
+    /* The current snapshot, never modified once published */
+    protected volatile KDTree<E> snapshot;
+
+    /**
+     * Constructs a new concurrent KD tree.
+     * 
+     * @param data
+     *            a collection of data points
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     */
+    public ConcurrentKDTree(Collection<E> data, int k, DistanceFunction distanceFunction) {
+        snapshot = new KDTree<>(data, k, distanceFunction);
+    }
+
+    /**
+     * Constructs a new concurrent KD tree with the given number of data points
+     * per leaf node.
+     * 
+     * @param data
+     *            a collection of data points
+     * @param k
+     *            the number of dimensions
+     * @param pointsPerLeaf
+     *            the maximum number of data points to store per leaf node
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     */
+    public ConcurrentKDTree(Collection<E> data, int k, int pointsPerLeaf, DistanceFunction distanceFunction) {
+        snapshot = new KDTree<>(data, k, pointsPerLeaf, distanceFunction);
+    }
+
+    /* Returns a copy of the subtree with point added, copying only its path */
+    private static <E extends KDPoint> Node<E> copyAdd(KDTree<E> tree, Node<E> node, E point) {
+        Node<E> copy = new Node<>();
+        copy.dim = node.dim;
+        copy.count = node.count + 1;
+        if (node.isLeaf()) {
+            copy.members = new ArrayList<>(node.members.size() + 1);
+            copy.members.addAll(node.members);
+            copy.members.add(point);
+            if (copy.members.size() > tree.pointsPerLeaf) {
+                tree.splitNode(copy);
+            }
+            return copy;
+        }
+        copy.split = node.split;
+        if (point.getCoord(node.dim) <= node.split) {
+            copy.left = copyAdd(tree, node.left, point);
+            copy.right = node.right;
+        } else {
+            copy.left = node.left;
+            copy.right = copyAdd(tree, node.right, point);
+        }
+        return copy;
+    }
+
+    /*
+     * Returns a copy of the subtree with one occurrence of point removed,
+     * copying only its path, or null if the subtree does not contain point
+     */
+    private static <E extends KDPoint> Node<E> copyRemove(Node<E> node, Object point) {
+        Node<E> copy = new Node<>();
+        copy.dim = node.dim;
+        copy.count = node.count - 1;
+        if (node.isLeaf()) {
+            int index = node.members.indexOf(point);
+            if (index < 0) {
+                return null;
+            }
+            copy.members = new ArrayList<>(node.members);
+            copy.members.remove(index);
+            return copy;
+        }
+        copy.split = node.split;
+        if (((KDPoint) point).getCoord(node.dim) <= node.split) {
+            copy.left = copyRemove(node.left, point);
+            if (copy.left == null) {
+                return null;
+            }
+            copy.right = node.right;
+        } else {
+            copy.right = copyRemove(node.right, point);
+            if (copy.right == null) {
+                return null;
+            }
+            copy.left = node.left;
+        }
+        return copy;
+    }
+
+    /*
+     * Returns a copy of the subtree with one occurrence of oldPoint replaced by
+     * newPoint, or null if the subtree does not contain oldPoint
+     */
+    private static <E extends KDPoint> Node<E> copyUpdate(KDTree<E> tree, Node<E> node, E oldPoint, E newPoint) {
+        if (newPoint.getK() < tree.k) {
+            throw new IllegalArgumentException("KDPoint " + newPoint + " has fewer than " + tree.k + " dimensions");
+        }
+        if (oldPoint.getK() < tree.k) {
+            return null;
+        }
+        Node<E> removed = copyRemove(node, oldPoint);
+        return removed == null ? null : copyAdd(tree, removed, newPoint);
+    }
+
+    /**
+     * Adds a data point to this tree. The tree supports storage of duplicate
+     * points.
+     * 
+     * @param point
+     *            the point to add
+     * @return {@code true} (as specified by Collection.add(E))
+     */
+    @Override
+    public synchronized boolean add(E point) {
+        KDTree<E> current = snapshot;
+        if (point.getK() < current.k) {
+            throw new IllegalArgumentException("KDPoint " + point + " has fewer than " + current.k + " dimensions");
+        }
+        snapshot = new KDTree<>(current, copyAdd(current, current.root, point), current.size + 1);
+        return true;
+    }
+
+    /**
+     * Finds approximate k nearest neighbors to the given center point. See
+     * {@link KDTree#approximateKNN(KDPoint, int, double, int)}.
+     * 
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @param epsilon
+     *            the allowed relative error, 0 for an exact search
+     * @param maxLeaves
+     *            the maximum number of leaf nodes to visit
+     * @return the k neighbors found, sorted by distance, and whether they are
+     *         guaranteed to be exact
+     */
+    public KNNResult<E> approximateKNN(KDPoint center, int k, double epsilon, int maxLeaves) {
+        return snapshot.approximateKNN(center, k, epsilon, maxLeaves);
+    }
+
+    /**
+     * Calculates the distance between two points, using this tree's distance
+     * function.
+     * 
+     * @param point1
+     *            the first point
+     * @param point2
+     *            the second point
+     * @return the distance between point1 and point2
+     */
+    public double calcDistance(KDPoint point1, KDPoint point2) {
+        return snapshot.calcDistance(point1, point2);
+    }
+
+    /**
+     * Clears all data from this tree.
+     */
+    @Override
+    public synchronized void clear() {
+        KDTree<E> current = snapshot;
+        Node<E> root = new Node<>();
+        root.members = new ArrayList<>();
+        snapshot = new KDTree<>(current, root, 0);
+    }
+
+    /**
+     * Returns true if this tree contains the specified element.
+     * 
+     * @param o
+     *            the element in question
+     * @return {@code true} if this tree contains the specified element
+     */
+    @Override
+    public boolean contains(Object o) {
+        return snapshot.contains(o);
+    }
+
+    /**
+     * Gets the number of dimensions in this tree.
+     * 
+     * @return the number of dimensions in this tree
+     */
+    public int getK() {
+        return snapshot.getK();
+    }
+
+    /**
+     * Returns an iterator over a snapshot of this tree. Updates made after
+     * this call are not reflected by the iterator. The iterator reads the
+     * snapshot in place and does not support removal.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return snapshot.iterator();
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given center point.
+     * 
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @return a list, sorted by distance, of the k data points in this tree
+     *         closest to the center point
+     */
+    public List<E> kNN(KDPoint center, int k) {
+        return snapshot.kNN(center, k);
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given center point among the points
+     * accepted by a filter. See {@link KDTree#kNN(KDPoint, int, Predicate)}.
+     * 
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @param filter
+     *            a {@link Predicate} that accepts the data points which may be
+     *            returned
+     * @return a list, sorted by distance, of the k accepted data points in
+     *         this tree closest to the center point, or of all accepted data
+     *         points if there are fewer than k
+     */
+    public List<E> kNN(KDPoint center, int k, Predicate<? super E> filter) {
+        return snapshot.kNN(center, k, filter);
+    }
+
+    /**
+     * Finds the k nearest neighbors to each of the given center points, using
+     * the given fork-join pool. All searches run against the same snapshot.
+     * 
+     * @param centers
+     *            the center points
+     * @param k
+     *            how many neighbors to find for each center point
+     * @param pool
+     *            the pool in which to run the searches
+     * @return a list with one entry per center point, in iteration order of
+     *         the given collection, each entry being a list, sorted by
+     *         distance, of the k data points in this tree closest to that
+     *         center point
+     */
+    public List<List<E>> kNNAll(Collection<? extends KDPoint> centers, int k, ForkJoinPool pool) {
+        return snapshot.kNNAll(centers, k, pool);
+    }
+
+    /**
+     * Performs a majority vote classification for the given point based on its
+     * k-nearest neighbors in this tree.
+     * 
+     * @param point
+     *            the point in question
+     * @param k
+     *            the number of neighbors
+     * @param mapper
+     *            a {@link Function} of type (? super E {@literal ->} T) mapping
+     *            a data point to any type
+     * @param <T>
+     *            the result type of the mapping function
+     * @return a list containing the majority vote winning T value(s)
+     */
+    public <T> List<T> kNNClassify(KDPoint point, int k, Function<? super E, T> mapper) {
+        return snapshot.kNNClassify(point, k, mapper);
+    }
+
+    /**
+     * Performs a mean regression for the given point based on its k-nearest
+     * neighbors in this tree.
+     * 
+     * @param point
+     *            the point in question
+     * @param k
+     *            the number of neighbors
+     * @param mapper
+     *            a {@link ToNumberFunction} of type (? super E {@literal ->}
+     *            Number) mapping a data point to a numeric value
+     * @return the average of the mapped values of the k-nearest neighbors, or
+     *         {@link Double#NaN} if there was no average to compute
+     */
+    public double kNNRegression(KDPoint point, int k, ToNumberFunction<? super E, ?> mapper) {
+        return snapshot.kNNRegression(point, k, mapper);
+    }
+
+    /**
+     * Returns a lazy stream of the points in a snapshot of this tree in
+     * increasing order of distance from the given center point.
+     * 
+     * @param center
+     *            the center point
+     * @return a stream of all points in this tree, sorted by distance from the
+     *         center point
+     */
+    public Stream<E> nearestStream(KDPoint center) {
+        return snapshot.nearestStream(center);
+    }
+
+    /**
+     * Finds all points within the given bounding box. See
+     * {@link KDTree#pointsInBox(double...)}.
+     * 
+     * @param box
+     *            the bounding box in the format minD0, maxD0, minD1, maxD1...
+     * @return a list of all points in this tree within the given bounding box
+     */
+    public List<E> pointsInBox(double... box) {
+        return snapshot.pointsInBox(box);
+    }
+
+    /**
+     * Finds all points within the given range with respect to the given
+     * dimension. The range is inclusive.
+     * 
+     * @param dimension
+     *            the dimension number, between 0 (inclusive) and k (exclusive)
+     * @param min
+     *            the minimum value of the range (inclusive)
+     * @param max
+     *            the maximum value of the range (inclusive)
+     * @return a list of all points in this tree within the given range for the
+     *         given dimension
+     */
+    public List<E> pointsInRange(int dimension, double min, double max) {
+        return snapshot.pointsInRange(dimension, min, max);
+    }
+
+    /**
+     * Performs a majority vote classification for the given point based on the
+     * points in this tree within the given radius from the point in question.
+     * 
+     * @param point
+     *            the point in question
+     * @param radius
+     *            the radius
+     * @param mapper
+     *            a {@link Function} of type (? super E {@literal ->} T) mapping
+     *            a data point to any type
+     * @param <T>
+     *            the result type of the mapping function
+     * @return a list containing the majority vote winning T value(s)
+     */
+    public <T> List<T> radiusClassify(KDPoint point, double radius, Function<? super E, T> mapper) {
+        return snapshot.radiusClassify(point, radius, mapper);
+    }
+
+    /**
+     * Performs a mean regression for the given point based on the points in
+     * this tree within the given radius from the point in question.
+     * 
+     * @param point
+     *            the point in question
+     * @param radius
+     *            the radius
+     * @param mapper
+     *            a {@link ToNumberFunction} of type (? super E {@literal ->}
+     *            Number) mapping a data point to a numeric value
+     * @return the average of the mapped values of the points within the
+     *         radius, or {@link Double#NaN} if there was no average to compute
+     */
+    public double radiusRegression(KDPoint point, double radius, ToNumberFunction<? super E, ?> mapper) {
+        return snapshot.radiusRegression(point, radius, mapper);
+    }
+
+    /**
+     * Finds all data points in this tree within a certain distance of the given
+     * center point.
+     * 
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @return a list, sorted by distance, of all data points in this tree
+     *         within the specified distance from the center point
+     */
+    public List<E> radiusSearch(KDPoint center, double radius) {
+        return snapshot.radiusSearch(center, radius);
+    }
+
+    /**
+     * Finds all data points in this tree accepted by a filter within a certain
+     * distance of the given center point.
+     * 
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @param filter
+     *            a {@link Predicate} that accepts the data points which may be
+     *            returned
+     * @return a list, sorted by distance, of all accepted data points in this
+     *         tree within the specified distance from the center point
+     */
+    public List<E> radiusSearch(KDPoint center, double radius, Predicate<? super E> filter) {
+        return snapshot.radiusSearch(center, radius, filter);
+    }
+
+    /**
+     * Finds, for each of the given center points, all data points in this
+     * tree within a certain distance of it, using the given fork-join pool.
+     * All searches run against the same snapshot.
+     * 
+     * @param centers
+     *            the center points
+     * @param radius
+     *            the radius from each center point
+     * @param pool
+     *            the pool in which to run the searches
+     * @return a list with one entry per center point, in iteration order of
+     *         the given collection, each entry being a list, sorted by
+     *         distance, of all data points in this tree within the specified
+     *         distance from that center point
+     */
+    public List<List<E>> radiusSearchAll(Collection<? extends KDPoint> centers, double radius, ForkJoinPool pool) {
+        return snapshot.radiusSearchAll(centers, radius, pool);
+    }
+
+    /**
+     * Removes one occurrence of the specified element from this tree, if it is
+     * present.
+     * 
+     * @param o
+     *            the element to remove
+     * @return {@code true} if this tree was changed as a result of this call
+     */
+    @Override
+    public synchronized boolean remove(Object o) {
+        if (!(o instanceof KDPoint) || ((KDPoint) o).getK() < snapshot.k) {
+            return false;
+        }
+        KDTree<E> current = snapshot;
+        Node<E> root = copyRemove(current.root, o);
+        if (root == null) {
+            return false;
+        }
+        snapshot = new KDTree<>(current, root, current.size - 1);
+        return true;
+    }
+
+    /**
+     * Returns the number of data points in this tree.
+     */
+    @Override
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * Returns a spliterator over a snapshot of this tree. See
+     * {@link KDTree#spliterator()}. Updates made after this call are not
+     * reflected by the spliterator.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return snapshot.spliterator();
+    }
+
+    /**
+     * Gets the data in a snapshot of this tree. Changes to the list returned
+     * will not affect this tree. The list returned is not in any particular
+     * order.
+     * 
+     * @return a list of points in this tree
+     */
+    public List<E> toList() {
+        KDTree<E> current = snapshot;
+        List<E> data = new ArrayList<>(current.size);
+        KDTree.express(current.root, data);
+        return data;
+    }
+
+    /**
+     * Moves one occurrence of a data point in this tree to a new position.
+     * Both changes are published in a single snapshot, so readers see the
+     * point at either its old or its new position, never at both or neither.
+     * 
+     * @param oldPoint
+     *            the point to move
+     * @param newPoint
+     *            the point at its new position
+     * @return {@code true} if oldPoint was found and replaced
+     */
+    public synchronized boolean update(E oldPoint, E newPoint) {
+        KDTree<E> current = snapshot;
+        Node<E> root = copyUpdate(current, current.root, oldPoint, newPoint);
+        if (root == null) {
+            return false;
+        }
+        snapshot = new KDTree<>(current, root, current.size);
+        return true;
+    }
+
+    /**
+     * Moves many data points in this tree to new positions, publishing all of
+     * the moves in a single snapshot. See {@link #update(KDPoint, KDPoint)}.
+     * 
+     * @param oldPoints
+     *            the points to move
+     * @param newPoints
+     *            the points at their new positions, aligned to oldPoints
+     * @return the number of old points found and replaced
+     * @throws IllegalArgumentException
+     *             if the lists are not the same size
+     */
+    public synchronized int updateAll(List<? extends E> oldPoints, List<? extends E> newPoints) {
+        if (oldPoints.size() != newPoints.size()) {
+            throw new IllegalArgumentException("old and new point lists must be the same size");
+        }
+        KDTree<E> current = snapshot;
+        Node<E> root = current.root;
+        int moved = 0;
+        for (int i = 0; i < oldPoints.size(); i++) {
+            Node<E> updated = copyUpdate(current, root, oldPoints.get(i), newPoints.get(i));
+            if (updated != null) {
+                root = updated;
+                moved++;
+            }
+        }
+        if (moved > 0) {
+            snapshot = new KDTree<>(current, root, current.size);
+        }
+        return moved;
+    }
+
+    /**
+     * Passes each point within the given bounding box to the visitor until the
+     * visitor stops the search. See {@link KDTree#visitPointsInBox}.
+     * 
+     * @param visitor
+     *            the visitor, which returns {@code false} to stop the search
+     * @param box
+     *            the bounding box in the format minD0, maxD0, minD1, maxD1...
+     * @return {@code true} if every point in the box was visited,
+     *         {@code false} if the visitor stopped the search
+     */
+    public boolean visitPointsInBox(PointVisitor<? super E> visitor, double... box) {
+        return snapshot.visitPointsInBox(visitor, box);
+    }
+
+    /**
+     * Passes each point within the given distance of the center point to the
+     * visitor until the visitor stops the search. See
+     * {@link KDTree#visitPointsInRadius}.
+     * 
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @param visitor
+     *            the visitor, which returns {@code false} to stop the search
+     * @return {@code true} if every point within the radius was visited,
+     *         {@code false} if the visitor stopped the search
+     */
+    public boolean visitPointsInRadius(KDPoint center, double radius, PointVisitor<? super E> visitor) {
+        return snapshot.visitPointsInRadius(center, radius, visitor);
+    }
+
+    /**
+     * Passes each point within the given range with respect to the given
+     * dimension to the visitor until the visitor stops the search. See
+     * {@link KDTree#visitPointsInRange}.
+     * 
+     * @param dimension
+     *            the dimension number, between 0 (inclusive) and k (exclusive)
+     * @param min
+     *            the minimum value of the range (inclusive)
+     * @param max
+     *            the maximum value of the range (inclusive)
+     * @param visitor
+     *            the visitor, which returns {@code false} to stop the search
+     * @return {@code true} if every point in the range was visited,
+     *         {@code false} if the visitor stopped the search
+     */
+    public boolean visitPointsInRange(int dimension, double min, double max, PointVisitor<? super E> visitor) {
+        return snapshot.visitPointsInRange(dimension, min, max, visitor);
+    }
+}
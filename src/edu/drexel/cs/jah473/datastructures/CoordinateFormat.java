@@ -0,0 +1,40 @@
+package edu.drexel.cs.jah473.datastructures;
+
+/**
+ * Formats in which a {@link FrozenKDTree} can store the coordinates it scans,
+ * chosen with {@link KDTree#freeze(CoordinateFormat)}. The narrower formats
+ * fit more points in each cache line at the cost of precision; searches still
+ * return exact results, because the frozen tree widens its search by the
+ * largest rounding error in the tree and then checks the candidates found
+ * against the exact coordinates of the points themselves.
+ *
+ * @author Justin Horvitz
+ *
+ */
+public enum CoordinateFormat {
+
+    /**
+     * 64-bit floating point, the precision of the points themselves. No
+     * candidates need checking.
+     */
+    DOUBLE,
+
+    /**
+     * 32-bit floating point, which keeps about 7 significant digits.
+     */
+    FLOAT,
+
+    /**
+     * 16-bit integers, each coordinate rounded to the nearest of 65,535 evenly
+     * spaced values spanning its dimension's range in the tree.
+     */
+    INT16,
+
+    /**
+     * 8-bit integers, each coordinate rounded to the nearest of 255 evenly
+     * spaced values spanning its dimension's range in the tree. Suited to data
+     * whose neighbors are far apart compared to that range, since every point
+     * within the rounding error of the k-th nearest becomes a candidate.
+     */
+    INT8
+}
@@ -0,0 +1,310 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * Contains methods to cluster points by density with the DBSCAN and OPTICS
+ * algorithms, using a {@link KDTree} for every neighborhood query. <br>
+ * <br>
+ * A point is a core point if at least a minimum number of points, counting
+ * itself, lie within a given radius of it. Core points within the radius of
+ * each other belong to the same cluster, and every other point within the
+ * radius of a core point joins a cluster of one such core point. All remaining
+ * points are noise. Radii are measured with the given distance function, so
+ * with a squared distance function such as
+ * {@link edu.drexel.cs.jah473.distance.Distances#sqEuclidean(int)} the radius
+ * is squared as well. Distances are computed from the coordinates of the
+ * points alone.
+ *
+ * @author Justin Horvitz
+ *
+ */
+public final class DensityClustering {
+
+    /* A point waiting to be ordered by OPTICS, keyed by reachability */
+    private static final class Seed implements Comparable<Seed> {
+        final int index;
+        final double reachability;
+
+        Seed(int index, double reachability) {
+            this.index = index;
+            this.reachability = reachability;
+        }
+
+        @Override
+        public int compareTo(Seed other) {
+            return Double.compare(reachability, other.reachability);
+        }
+    }
+
+    /**
+     * The label given to points that belong to no cluster.
+     */
+    public static final int NOISE = -1;
+
+    /* Private constructor to prevent instantiation. */
+    private DensityClustering() {
+
+    }
+
+    /* Validates the clustering parameters */
+    private static void checkParams(double radius, int minPoints) {
+        KDTree.checkRadius(radius);
+        if (minPoints < 1) {
+            throw new IllegalArgumentException("Minimum points must be greater than or equal to 1");
+        }
+    }
+
+    /**
+     * Clusters points with DBSCAN, using the common fork-join pool. See
+     * {@link #dbscan(List, int, DistanceFunction, double, int, ForkJoinPool)}.
+     *
+     * @param points
+     *            the points to cluster
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param radius
+     *            the radius of the neighborhood of a point
+     * @param minPoints
+     *            the number of points, including itself, that must lie within
+     *            the radius of a point for it to be a core point
+     * @return an array of cluster labels aligned to the list of points
+     */
+    public static int[] dbscan(List<? extends KDPoint> points, int k, DistanceFunction distanceFunction,
+            double radius, int minPoints) {
+        return dbscan(points, k, distanceFunction, radius, minPoints, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Clusters points with DBSCAN, using the given fork-join pool. The points
+     * are indexed in a {@link KDTree}, which is built in parallel. Core points
+     * are then found in parallel by counting neighbors only until the minimum
+     * is reached. Clusters are formed by merging each core point with the
+     * core points in its neighborhood in a concurrent union-find structure,
+     * also in parallel, and finally each other point joins the cluster of the
+     * first core point found in its neighborhood, or is labeled noise. <br>
+     * <br>
+     * Clusters are numbered from 0 in the order their first points appear in
+     * the list; noise is labeled {@link #NOISE}. The result does not depend on
+     * the pool used.
+     *
+     * @param points
+     *            the points to cluster
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param radius
+     *            the radius of the neighborhood of a point
+     * @param minPoints
+     *            the number of points, including itself, that must lie within
+     *            the radius of a point for it to be a core point
+     * @param pool
+     *            the pool in which to run the clustering
+     * @return an array of cluster labels aligned to the list of points
+     * @throws IllegalArgumentException
+     *             if the radius is negative or minPoints is less than 1
+     */
+    public static int[] dbscan(List<? extends KDPoint> points, int k, DistanceFunction distanceFunction,
+            double radius, int minPoints, ForkJoinPool pool) {
+        checkParams(radius, minPoints);
+        final List<IndexedPoint> indexed = IndexedPoint.index(points);
+        final KDTree<IndexedPoint> tree = new KDTree<>(indexed, k, distanceFunction, pool);
+        final boolean[] core = new boolean[indexed.size()];
+        tree.batch(indexed, pool, () -> center -> {
+            final int[] count = { 0 };
+            final boolean stopped = !tree.visitPointsInRadius(center, radius, p -> ++count[0] < minPoints);
+            core[((IndexedPoint) center).index] = stopped;
+            return null;
+        });
+        final AtomicIntegerArray parent = new AtomicIntegerArray(indexed.size());
+        for (int i = 0; i < indexed.size(); i++) {
+            parent.set(i, i);
+        }
+        tree.batch(indexed, pool, () -> center -> {
+            final int index = ((IndexedPoint) center).index;
+            if (core[index]) {
+                tree.visitPointsInRadius(center, radius, p -> {
+                    if (core[p.index]) {
+                        union(parent, index, p.index);
+                    }
+                    return true;
+                });
+            }
+            return null;
+        });
+        tree.batch(indexed, pool, () -> center -> {
+            final int index = ((IndexedPoint) center).index;
+            if (!core[index]) {
+                tree.visitPointsInRadius(center, radius, p -> {
+                    if (core[p.index]) {
+                        parent.set(index, find(parent, p.index));
+                        return false;
+                    }
+                    return true;
+                });
+            }
+            return null;
+        });
+        final int[] labels = new int[indexed.size()];
+        final int[] clusters = new int[indexed.size()];
+        Arrays.fill(clusters, NOISE);
+        int numClusters = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (parent.get(i) == i && !core[i]) {
+                labels[i] = NOISE;
+                continue;
+            }
+            final int root = find(parent, i);
+            if (clusters[root] == NOISE) {
+                clusters[root] = numClusters++;
+            }
+            labels[i] = clusters[root];
+        }
+        return labels;
+    }
+
+    /* Finds the representative of a set, halving the path along the way */
+    private static int find(AtomicIntegerArray parent, int x) {
+        while (true) {
+            final int p = parent.get(x);
+            if (p == x) {
+                return x;
+            }
+            final int grandparent = parent.get(p);
+            if (grandparent != p) {
+                parent.compareAndSet(x, p, grandparent);
+            }
+            x = grandparent;
+        }
+    }
+
+    /**
+     * Orders points with OPTICS, using the common fork-join pool. See
+     * {@link #optics(List, int, DistanceFunction, double, int, ForkJoinPool)}.
+     *
+     * @param points
+     *            the points to order
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param maxRadius
+     *            the largest neighborhood radius considered
+     * @param minPoints
+     *            the number of points, including itself, that must lie within
+     *            the radius of a point for it to be a core point
+     * @return the cluster ordering of the points
+     */
+    public static ClusterOrdering optics(List<? extends KDPoint> points, int k, DistanceFunction distanceFunction,
+            double maxRadius, int minPoints) {
+        return optics(points, k, distanceFunction, maxRadius, minPoints, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Orders points with OPTICS, using the given fork-join pool. The ordering
+     * holds the clusterings DBSCAN would find for every radius up to the
+     * maximum at once; see {@link ClusterOrdering#extractDBSCAN(double)}. The
+     * points are indexed in a {@link KDTree}, and the core distance of every
+     * point is found in parallel with a k-nearest neighbor search; the
+     * ordering itself is then built on the calling thread.
+     *
+     * @param points
+     *            the points to order
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param maxRadius
+     *            the largest neighborhood radius considered
+     * @param minPoints
+     *            the number of points, including itself, that must lie within
+     *            the radius of a point for it to be a core point
+     * @param pool
+     *            the pool in which to run the neighbor searches
+     * @return the cluster ordering of the points
+     * @throws IllegalArgumentException
+     *             if the radius is negative or minPoints is less than 1
+     */
+    public static ClusterOrdering optics(List<? extends KDPoint> points, int k, DistanceFunction distanceFunction,
+            double maxRadius, int minPoints, ForkJoinPool pool) {
+        checkParams(maxRadius, minPoints);
+        final List<IndexedPoint> indexed = IndexedPoint.index(points);
+        final KDTree<IndexedPoint> tree = new KDTree<>(indexed, k, distanceFunction, pool);
+        final int n = indexed.size();
+        final double[] coreDistance = new double[n];
+        Arrays.fill(coreDistance, Double.POSITIVE_INFINITY);
+        if (minPoints <= n) {
+            tree.batch(indexed, pool, () -> center -> {
+                final List<IndexedPoint> nearest = tree.kNN(center, minPoints);
+                final double dist = distanceFunction.distanceBetween(center, nearest.get(minPoints - 1));
+                if (dist <= maxRadius) {
+                    coreDistance[((IndexedPoint) center).index] = dist;
+                }
+                return null;
+            });
+        }
+        final double[] reachability = new double[n];
+        Arrays.fill(reachability, Double.POSITIVE_INFINITY);
+        final boolean[] processed = new boolean[n];
+        final int[] order = new int[n];
+        int ordered = 0;
+        final Queue<Seed> seeds = new PriorityQueue<>();
+        for (int start = 0; start < n; start++) {
+            if (processed[start]) {
+                continue;
+            }
+            seeds.add(new Seed(start, Double.POSITIVE_INFINITY));
+            while (!seeds.isEmpty()) {
+                final Seed seed = seeds.remove();
+                if (processed[seed.index]) {
+                    continue;
+                }
+                final IndexedPoint current = indexed.get(seed.index);
+                processed[current.index] = true;
+                order[ordered++] = current.index;
+                final double core = coreDistance[current.index];
+                if (core == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                tree.visitPointsInRadius(current, maxRadius, p -> {
+                    if (!processed[p.index]) {
+                        final double reach = Math.max(core, distanceFunction.distanceBetween(current, p));
+                        if (reach < reachability[p.index]) {
+                            reachability[p.index] = reach;
+                            seeds.add(new Seed(p.index, reach));
+                        }
+                    }
+                    return true;
+                });
+            }
+        }
+        return new ClusterOrdering(order, reachability, coreDistance);
+    }
+
+    /* Merges the sets containing a and b, linking the larger root to the smaller */
+    private static void union(AtomicIntegerArray parent, int a, int b) {
+        while (true) {
+            a = find(parent, a);
+            b = find(parent, b);
+            if (a == b) {
+                return;
+            }
+            final int high = Math.max(a, b);
+            final int low = Math.min(a, b);
+            if (parent.compareAndSet(high, high, low)) {
+                return;
+            }
+        }
+    }
+}
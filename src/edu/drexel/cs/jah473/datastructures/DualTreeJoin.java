@@ -0,0 +1,482 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import edu.drexel.cs.jah473.datastructures.KDTree.Node;
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * Dual-tree spatial joins, k nearest neighbor graphs and closest pair searches
+ * over {@link KDTree}s. Each tree is first summarized by the tight bounding
+ * boxes of its subtrees. Pairs of subtrees, one from each tree, or both from
+ * the same tree, are then searched together, and a pair is pruned as soon as
+ * the distance between their boxes exceeds what the search still needs.
+ * Points shared by a subtree are thereby matched against a whole region of the
+ * other tree at once, rather than searched for one at a time. <br>
+ * <br>
+ * Nearest neighbor searches split the query subtree first, so each leaf of
+ * query points descends the other tree together, nearest region first, and
+ * tightens its bound before any far region is reached. Radius and closest
+ * pair searches split the larger subtree of a pair. <br>
+ * <br>
+ * The distance between two boxes is measured between their closest corners,
+ * so, as with the pruning done by {@link KDTree} searches, the distance
+ * function must not decrease as any coordinate difference grows. Neither tree
+ * may be modified while a join is running.
+ *
+ * @author Justin Horvitz
+ *
+ */
+final class DualTreeJoin {
+
+    /* A subtree summarized by the tight bounding box of its points */
+    private static final class Box<E extends KDPoint> {
+        final int count;
+        final Box<E> left;
+        final double[] max;
+        final List<E> members;
+        final double[] min;
+        final Box<E> right;
+        /* Position of the first point here in leaf order */
+        final int start;
+        /* Largest distance still needed by a point here, in a nearest join */
+        double bound;
+
+        Box(Node<E> node, int k, int start) {
+            this.start = start;
+            min = new double[k];
+            max = new double[k];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            if (node.isLeaf()) {
+                left = null;
+                right = null;
+                members = node.members;
+                for (E point : members) {
+                    for (int d = 0; d < k; d++) {
+                        final double coord = point.getCoord(d);
+                        min[d] = Math.min(min[d], coord);
+                        max[d] = Math.max(max[d], coord);
+                    }
+                }
+                count = members.size();
+            } else {
+                left = new Box<>(node.left, k, start);
+                right = new Box<>(node.right, k, start + left.count);
+                members = null;
+                for (int d = 0; d < k; d++) {
+                    min[d] = Math.min(left.min[d], right.min[d]);
+                    max[d] = Math.max(left.max[d], right.max[d]);
+                }
+                count = left.count + right.count;
+            }
+            bound = count == 0 ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+
+        boolean isLeaf() {
+            return members != null;
+        }
+    }
+
+    /* A point whose coordinates are overwritten in place */
+    private static final class Corner extends KDPoint {
+
+        private static final long serialVersionUID = 6021873469926390114L;
+
+        Corner(int k) {
+            super(new double[k]);
+        }
+
+        double[] coords() {
+            return coords;
+        }
+    }
+
+    /*
+     * The k nearest reference points found so far for every query point, by
+     * position in leaf order, each point's neighbors sorted by distance
+     */
+    private static final class Neighbors {
+        final double[] dists;
+        final int[] ids;
+        final int k;
+        /* Whether the queries are the references, so no point neighbors itself */
+        final boolean self;
+
+        Neighbors(int size, int k, boolean self) {
+            this.dists = new double[size * k];
+            this.ids = new int[size * k];
+            this.k = k;
+            this.self = self;
+            Arrays.fill(dists, Double.POSITIVE_INFINITY);
+            Arrays.fill(ids, -1);
+        }
+    }
+
+    /* Finds nearest neighbors, forking on subtrees of the query tree */
+    private static final class NearestTask<E extends KDPoint, F extends KDPoint> extends RecursiveAction {
+
+        private static final long serialVersionUID = -2954512707146932528L;
+
+        private final Box<E> queries;
+        private final Box<F> references;
+        private final Neighbors neighbors;
+        private final DistanceFunction distFunc;
+
+        NearestTask(Box<E> queries, Box<F> references, Neighbors neighbors, DistanceFunction distFunc) {
+            this.queries = queries;
+            this.references = references;
+            this.neighbors = neighbors;
+            this.distFunc = distFunc;
+        }
+
+        @Override
+        protected void compute() {
+            if (queries.isLeaf() || queries.count < PARALLEL_JOIN_THRESHOLD) {
+                Search search = new Search(distFunc, queries.min.length);
+                search.nearest(queries, references, neighbors, search.gap(queries, references));
+                return;
+            }
+            invokeAll(new NearestTask<>(queries.left, references, neighbors, distFunc),
+                    new NearestTask<>(queries.right, references, neighbors, distFunc));
+        }
+    }
+
+    /* Finds pairs within a radius, forking on pairs of subtrees */
+    private static final class RadiusTask<E extends KDPoint, F extends KDPoint>
+            extends RecursiveTask<List<NeighborPair<E, F>>> {
+
+        private static final long serialVersionUID = 7741350215487052373L;
+
+        private final Box<E> a;
+        private final Box<F> b;
+        private final double radius;
+        private final DistanceFunction distFunc;
+
+        RadiusTask(Box<E> a, Box<F> b, double radius, DistanceFunction distFunc) {
+            this.a = a;
+            this.b = b;
+            this.radius = radius;
+            this.distFunc = distFunc;
+        }
+
+        @Override
+        protected List<NeighborPair<E, F>> compute() {
+            List<NeighborPair<E, F>> pairs = new ArrayList<>();
+            Search search = new Search(distFunc, a.min.length);
+            if (a.count == 0 || b.count == 0 || search.gap(a, b) > radius) {
+                return pairs;
+            }
+            if (a.count + b.count < PARALLEL_JOIN_THRESHOLD || a.isLeaf() && b.isLeaf()) {
+                search.within(a, b, radius, pairs);
+                return pairs;
+            }
+            RadiusTask<E, F> first;
+            RadiusTask<E, F> second;
+            if (a.isLeaf() || !b.isLeaf() && b.count >= a.count) {
+                first = new RadiusTask<>(a, b.left, radius, distFunc);
+                second = new RadiusTask<>(a, b.right, radius, distFunc);
+            } else {
+                first = new RadiusTask<>(a.left, b, radius, distFunc);
+                second = new RadiusTask<>(a.right, b, radius, distFunc);
+            }
+            invokeAll(first, second);
+            pairs.addAll(first.join());
+            pairs.addAll(second.join());
+            return pairs;
+        }
+    }
+
+    /* Recursive searches over pairs of boxes, with scratch space for one thread */
+    private static final class Search {
+        final DistanceFunction distFunc;
+        final Corner near;
+        final double[] far;
+        /* Closest pair found so far */
+        double bestDist = Double.POSITIVE_INFINITY;
+        Object bestFirst;
+        Object bestSecond;
+
+        Search(DistanceFunction distFunc, int k) {
+            this.distFunc = distFunc;
+            this.near = new Corner(k);
+            this.far = new double[k];
+        }
+
+        /* Closest pair with one point from each box */
+        <E extends KDPoint, F extends KDPoint> void closest(Box<E> a, Box<F> b, double gap) {
+            if (a.count == 0 || b.count == 0 || gap > bestDist) {
+                return;
+            }
+            if (a.isLeaf() && b.isLeaf()) {
+                for (E first : a.members) {
+                    for (F second : b.members) {
+                        final double dist = distFunc.distanceBetween(first, second);
+                        if (dist < bestDist) {
+                            bestDist = dist;
+                            bestFirst = first;
+                            bestSecond = second;
+                        }
+                    }
+                }
+                return;
+            }
+            if (a.isLeaf() || !b.isLeaf() && b.count >= a.count) {
+                final double leftGap = gap(a, b.left);
+                final double rightGap = gap(a, b.right);
+                if (leftGap <= rightGap) {
+                    closest(a, b.left, leftGap);
+                    closest(a, b.right, rightGap);
+                } else {
+                    closest(a, b.right, rightGap);
+                    closest(a, b.left, leftGap);
+                }
+            } else {
+                final double leftGap = gap(a.left, b);
+                final double rightGap = gap(a.right, b);
+                if (leftGap <= rightGap) {
+                    closest(a.left, b, leftGap);
+                    closest(a.right, b, rightGap);
+                } else {
+                    closest(a.right, b, rightGap);
+                    closest(a.left, b, leftGap);
+                }
+            }
+        }
+
+        /* Closest pair of distinct points within one box */
+        <E extends KDPoint> void closestWithin(Box<E> box) {
+            if (box.count < 2) {
+                return;
+            }
+            if (box.isLeaf()) {
+                final List<E> members = box.members;
+                for (int i = 0; i < members.size(); i++) {
+                    final E first = members.get(i);
+                    for (int j = i + 1; j < members.size(); j++) {
+                        final double dist = distFunc.distanceBetween(first, members.get(j));
+                        if (dist < bestDist) {
+                            bestDist = dist;
+                            bestFirst = first;
+                            bestSecond = members.get(j);
+                        }
+                    }
+                }
+                return;
+            }
+            closestWithin(box.left);
+            closestWithin(box.right);
+            closest(box.left, box.right, gap(box.left, box.right));
+        }
+
+        /* Squared straight-line distance between the centers of two boxes */
+        double centerGap(Box<?> a, Box<?> b) {
+            double sum = 0;
+            for (int d = 0; d < far.length; d++) {
+                final double diff = a.min[d] + a.max[d] - b.min[d] - b.max[d];
+                sum += diff * diff;
+            }
+            return sum;
+        }
+
+        /* Distance between a point and the closest corner of a box */
+        double gap(KDPoint point, Box<?> box) {
+            for (int d = 0; d < far.length; d++) {
+                far[d] = Math.max(box.min[d], Math.min(box.max[d], point.getCoord(d)));
+            }
+            return distFunc.distanceTo(point, far);
+        }
+
+        /* Distance between the closest corners of two boxes */
+        double gap(Box<?> a, Box<?> b) {
+            final double[] corner = near.coords();
+            for (int d = 0; d < far.length; d++) {
+                if (a.max[d] < b.min[d]) {
+                    corner[d] = a.max[d];
+                    far[d] = b.min[d];
+                } else if (b.max[d] < a.min[d]) {
+                    corner[d] = a.min[d];
+                    far[d] = b.max[d];
+                } else {
+                    corner[d] = far[d] = Math.max(a.min[d], b.min[d]);
+                }
+            }
+            return distFunc.distanceTo(near, far);
+        }
+
+        /* The k nearest reference points to each query point */
+        <E extends KDPoint, F extends KDPoint> void nearest(Box<E> queries, Box<F> references, Neighbors neighbors,
+                double gap) {
+            if (queries.count == 0 || references.count == 0 || gap > queries.bound) {
+                return;
+            }
+            if (queries.isLeaf() && references.isLeaf()) {
+                final double[] dists = neighbors.dists;
+                final int[] ids = neighbors.ids;
+                double bound = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < queries.count; i++) {
+                    final E query = queries.members.get(i);
+                    final int id = queries.start + i;
+                    final int first = id * neighbors.k;
+                    final int last = first + neighbors.k - 1;
+                    if (gap(query, references) <= dists[last]) {
+                        for (int j = 0; j < references.count; j++) {
+                            final int other = references.start + j;
+                            if (neighbors.self && other == id) {
+                                continue;
+                            }
+                            final double dist = distFunc.distanceBetween(query, references.members.get(j));
+                            if (dist < dists[last]) {
+                                int slot = last;
+                                while (slot > first && dists[slot - 1] > dist) {
+                                    dists[slot] = dists[slot - 1];
+                                    ids[slot] = ids[slot - 1];
+                                    slot--;
+                                }
+                                dists[slot] = dist;
+                                ids[slot] = other;
+                            }
+                        }
+                    }
+                    bound = Math.max(bound, dists[last]);
+                }
+                queries.bound = bound;
+                return;
+            }
+            if (queries.isLeaf()) {
+                /* Visit the nearer reference subtree first, by center on ties */
+                final double leftGap = gap(queries, references.left);
+                final double rightGap = gap(queries, references.right);
+                if (leftGap < rightGap || leftGap == rightGap
+                        && centerGap(queries, references.left) <= centerGap(queries, references.right)) {
+                    nearest(queries, references.left, neighbors, leftGap);
+                    nearest(queries, references.right, neighbors, rightGap);
+                } else {
+                    nearest(queries, references.right, neighbors, rightGap);
+                    nearest(queries, references.left, neighbors, leftGap);
+                }
+            } else {
+                nearest(queries.left, references, neighbors, gap(queries.left, references));
+                nearest(queries.right, references, neighbors, gap(queries.right, references));
+                queries.bound = Math.max(queries.left.bound, queries.right.bound);
+            }
+        }
+
+        /* All pairs with one point from each box within the radius */
+        <E extends KDPoint, F extends KDPoint> void within(Box<E> a, Box<F> b, double radius,
+                List<NeighborPair<E, F>> pairs) {
+            if (a.count == 0 || b.count == 0 || gap(a, b) > radius) {
+                return;
+            }
+            if (a.isLeaf() && b.isLeaf()) {
+                for (E first : a.members) {
+                    for (F second : b.members) {
+                        final double dist = distFunc.distanceBetween(first, second);
+                        if (dist <= radius) {
+                            pairs.add(new NeighborPair<>(first, second, dist));
+                        }
+                    }
+                }
+                return;
+            }
+            if (a.isLeaf() || !b.isLeaf() && b.count >= a.count) {
+                within(a, b.left, radius, pairs);
+                within(a, b.right, radius, pairs);
+            } else {
+                within(a.left, b, radius, pairs);
+                within(a.right, b, radius, pairs);
+            }
+        }
+    }
+
+    /* Query subtrees smaller than this are joined on a single thread */
+    private static final int PARALLEL_JOIN_THRESHOLD = 4_096;
+
+    /* Validates that two trees can be joined */
+    private static void checkK(KDTree<?> a, KDTree<?> b) {
+        if (a.k != b.k) {
+            throw new IllegalArgumentException("trees must have the same number of dimensions");
+        }
+    }
+
+    /* Finds the closest pair of points with one from each tree */
+    @SuppressWarnings("unchecked")
+    static <E extends KDPoint, F extends KDPoint> NeighborPair<E, F> closestPair(KDTree<E> a, KDTree<F> b) {
+        checkK(a, b);
+        if (a.size() == 0 || b.size() == 0) {
+            return null;
+        }
+        Box<E> boxA = new Box<>(a.root, a.k, 0);
+        Box<F> boxB = new Box<>(b.root, b.k, 0);
+        Search search = new Search(a.distFunc, a.k);
+        search.closest(boxA, boxB, search.gap(boxA, boxB));
+        return new NeighborPair<>((E) search.bestFirst, (F) search.bestSecond, search.bestDist);
+    }
+
+    /* Finds the closest pair of distinct points in one tree */
+    @SuppressWarnings("unchecked")
+    static <E extends KDPoint> NeighborPair<E, E> closestPair(KDTree<E> tree) {
+        if (tree.size() < 2) {
+            return null;
+        }
+        Search search = new Search(tree.distFunc, tree.k);
+        search.closestWithin(new Box<>(tree.root, tree.k, 0));
+        return new NeighborPair<>((E) search.bestFirst, (E) search.bestSecond, search.bestDist);
+    }
+
+    /* Finds the k nearest neighbors of every point in a tree, excluding itself */
+    static <E extends KDPoint> KNNGraph<E> kNNGraph(KDTree<E> tree, int k, ForkJoinPool pool) {
+        List<E> points = new ArrayList<>(tree.size());
+        KDTree.express(tree.root, points);
+        k = Math.min(k, points.size() - 1);
+        if (k <= 0) {
+            return new KNNGraph<>(points, 0, new int[0], new double[0]);
+        }
+        Box<E> box = new Box<>(tree.root, tree.k, 0);
+        Neighbors neighbors = new Neighbors(points.size(), k, true);
+        pool.invoke(new NearestTask<>(box, box, neighbors, tree.distFunc));
+        return new KNNGraph<>(points, k, neighbors.ids, neighbors.dists);
+    }
+
+    /* Finds the nearest point in references to each point in queries */
+    static <E extends KDPoint, F extends KDPoint> List<NeighborPair<E, F>> nearestNeighborJoin(KDTree<E> queries,
+            KDTree<F> references, ForkJoinPool pool) {
+        checkK(queries, references);
+        List<NeighborPair<E, F>> pairs = new ArrayList<>(queries.size());
+        if (queries.size() == 0 || references.size() == 0) {
+            return pairs;
+        }
+        List<E> queryPoints = new ArrayList<>(queries.size());
+        List<F> referencePoints = new ArrayList<>(references.size());
+        KDTree.express(queries.root, queryPoints);
+        KDTree.express(references.root, referencePoints);
+        Neighbors neighbors = new Neighbors(queryPoints.size(), 1, false);
+        pool.invoke(new NearestTask<>(new Box<>(queries.root, queries.k, 0),
+                new Box<>(references.root, references.k, 0), neighbors, queries.distFunc));
+        for (int i = 0; i < queryPoints.size(); i++) {
+            pairs.add(new NeighborPair<>(queryPoints.get(i), referencePoints.get(neighbors.ids[i]),
+                    neighbors.dists[i]));
+        }
+        return pairs;
+    }
+
+    /* Finds all pairs of points, one from each tree, within the radius */
+    static <E extends KDPoint, F extends KDPoint> List<NeighborPair<E, F>> radiusJoin(KDTree<E> a, KDTree<F> b,
+            double radius, ForkJoinPool pool) {
+        checkK(a, b);
+        if (a.size() == 0 || b.size() == 0) {
+            return new ArrayList<>();
+        }
+        return pool.invoke(new RadiusTask<>(new Box<>(a.root, a.k, 0), new Box<>(b.root, b.k, 0), radius,
+                a.distFunc));
+    }
+
+    private DualTreeJoin() {
+    }
+}
@@ -0,0 +1,861 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import edu.drexel.cs.jah473.datastructures.KDTree.Neighbor;
+import edu.drexel.cs.jah473.datastructures.KDTree.Node;
+import edu.drexel.cs.jah473.datastructures.KDTree.Overlap;
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.KDPoint;
+import edu.drexel.cs.jah473.util.ToNumberFunction;
+
+/**
+ * An immutable, compact form of a {@link KDTree}, created with
+ * {@link KDTree#freeze()}. It supports the same searches, classification, and
+ * regression as the tree it was frozen from, and finds the same results. <br>
+ * <br>
+ * Rather than linked nodes and per-leaf member lists, the structure is stored
+ * in a handful of arrays. Nodes are laid out in preorder, so a node's left
+ * child immediately follows it and only the index of its right child is
+ * stored. The coordinates of every point are copied into a single array,
+ * grouped by leaf, and within each leaf stored dimension by dimension. A leaf
+ * scan therefore reads one small contiguous block of memory instead of
+ * following a reference to each point and then to its coordinates. The points
+ * themselves are kept in a parallel array and are only touched to report
+ * results. <br>
+ * <br>
+ * The coordinates may be stored in a narrower {@link CoordinateFormat} than
+ * the points' own doubles, which shrinks the array that leaf scans read by up
+ * to a factor of 8. Every search still finds exactly the points the tree it
+ * was frozen from would find. The largest rounding error is measured when the
+ * tree is frozen, as the distance between a point and its stored coordinates.
+ * Leaf scans accept every point within that slack of qualifying, and the
+ * points accepted are then checked or ranked by their exact coordinates. For
+ * a distance function that is a metric, as reported by
+ * {@link DistanceFunction#isMetric()}, the slack is added to distances;
+ * otherwise it is added to their square roots, which is exact for squared
+ * metrics such as {@link edu.drexel.cs.jah473.distance.Distances#sqEuclidean(int)}
+ * but widens searches further. <br>
+ * <br>
+ * The frozen tree does not reflect later changes to the tree it was frozen
+ * from. It is safe for use by multiple threads. This class implements the
+ * {@link java.util.Collection Collection} interface, but all modifying
+ * operations throw {@link UnsupportedOperationException}.
+ * 
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the data stored in this KD tree, must be subclass of
+ *            {@link KDPoint}
+ */
+public class FrozenKDTree<E extends KDPoint> extends AbstractCollection<E> implements Serializable {
+
+    private static final long serialVersionUID = 7710388432186011359L;
+
+    /* Counts the nodes in a subtree */
+    private static <E extends KDPoint> int countNodes(Node<E> node) {
+        return node.isLeaf() ? 1 : 1 + countNodes(node.left) + countNodes(node.right);
+    }
+
+    /* Coordinates in the INT8 format, laid out as coords */
+    protected final byte[] byteCoords;
+    /*
+     * Leaf blocks of coordinates, dimension-major within each leaf: coordinate
+     * d of point p in a leaf spanning [start, end) is at start * k + d * (end -
+     * start) + (p - start). Only the array of this tree's format is non-null.
+     */
+    protected final double[] coords;
+    /* Splitting dimension of each node, or -1 for a leaf */
+    protected final int[] dims;
+    protected final DistanceFunction distFunc;
+    /* Data points, in the same order as their coordinates */
+    protected final KDPoint[] elements;
+    /* One past the index of the last point in each subtree */
+    protected final int[] ends;
+    /* Largest rounding error of the stored coordinates in each dimension */
+    protected final double[] errors;
+    /* Coordinates in the FLOAT format, laid out as coords */
+    protected final float[] floatCoords;
+    protected final CoordinateFormat format;
+    protected final int k;
+    /* Value each dimension's integer coordinates are centered on */
+    protected final double[] offsets;
+    /* Index of each internal node's right child */
+    protected final int[] rights;
+    /* Step between consecutive integer coordinates in each dimension */
+    protected final double[] scales;
+    /* Coordinates in the INT16 format, laid out as coords */
+    protected final short[] shortCoords;
+    /*
+     * Largest distance between a point and its stored coordinates, or its
+     * square root if the distance function is not a metric; see widen
+     */
+    protected final double slack;
+    protected final double[] splits;
+    /* Index of the first point in each subtree */
+    protected final int[] starts;
+
+    /* Freezes the given tree */
+    FrozenKDTree(KDTree<E> tree) {
+        this(tree, CoordinateFormat.DOUBLE);
+    }
+
+    /* Freezes the given tree, storing coordinates in the given format */
+    FrozenKDTree(KDTree<E> tree, CoordinateFormat format) {
+        this.k = tree.k;
+        this.distFunc = tree.distFunc;
+        this.format = format;
+        final int numNodes = countNodes(tree.root);
+        this.dims = new int[numNodes];
+        this.rights = new int[numNodes];
+        this.starts = new int[numNodes];
+        this.ends = new int[numNodes];
+        this.splits = new double[numNodes];
+        this.elements = new KDPoint[tree.size];
+        final int numCoords = tree.size * k;
+        this.coords = format == CoordinateFormat.DOUBLE ? new double[numCoords] : null;
+        this.floatCoords = format == CoordinateFormat.FLOAT ? new float[numCoords] : null;
+        this.shortCoords = format == CoordinateFormat.INT16 ? new short[numCoords] : null;
+        this.byteCoords = format == CoordinateFormat.INT8 ? new byte[numCoords] : null;
+        this.offsets = new double[k];
+        this.scales = new double[k];
+        if (format == CoordinateFormat.INT16) {
+            fitScales(tree.root, Short.MAX_VALUE);
+        } else if (format == CoordinateFormat.INT8) {
+            fitScales(tree.root, Byte.MAX_VALUE);
+        }
+        flatten(tree.root, 0, 0);
+        this.errors = new double[k];
+        final double worst = measureErrors();
+        this.slack = distFunc.isMetric() ? worst : Math.sqrt(worst);
+    }
+
+    /**
+     * Calculates the distance between two points using this tree's distance
+     * function.
+     * 
+     * @param point1
+     *            the first point
+     * @param point2
+     *            the second point
+     * @return the distance between point1 and point2
+     */
+    public double calcDistance(KDPoint point1, KDPoint point2) {
+        return distFunc.distanceBetween(point1, point2);
+    }
+
+    /* Validates the number of neighbors requested */
+    protected void checkK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        if (k > elements.length) {
+            throw new IllegalArgumentException("k is greater than the number of points in this tree");
+        }
+    }
+
+    /* Adds the points in [start, end) to the collector */
+    @SuppressWarnings("unchecked")
+    private void collect(int start, int end, List<E> collector) {
+        for (int p = start; p < end; p++) {
+            collector.add((E) elements[p]);
+        }
+    }
+
+    /**
+     * Returns true if this tree contains the specified element.
+     * 
+     * @param o
+     *            the element in question
+     * @return {@code true} if this tree contains the specified element
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof KDPoint)) {
+            return false;
+        }
+        final KDPoint point = (KDPoint) o;
+        int node = 0;
+        while (dims[node] >= 0) {
+            node = point.getCoord(dims[node]) <= splits[node] ? node + 1 : rights[node];
+        }
+        for (int p = starts[node]; p < ends[node]; p++) {
+            if (elements[p].equals(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Reads the stored coordinate at the given index, which is in dimension d */
+    private double coord(int index, int d) {
+        if (coords != null) {
+            return coords[index];
+        }
+        if (floatCoords != null) {
+            return floatCoords[index];
+        }
+        if (shortCoords != null) {
+            return offsets[d] + shortCoords[index] * scales[d];
+        }
+        return offsets[d] + byteCoords[index] * scales[d];
+    }
+
+    /*
+     * Centers each dimension's integer coordinates on the middle of its range
+     * and spaces them so that the range spans levels steps either side
+     */
+    private void fitScales(Node<E> root, int levels) {
+        final double[] mins = new double[k];
+        final double[] maxes = new double[k];
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxes, Double.NEGATIVE_INFINITY);
+        KDTree.traverse(root, point -> {
+            for (int d = 0; d < k; d++) {
+                mins[d] = Math.min(mins[d], point.getCoord(d));
+                maxes[d] = Math.max(maxes[d], point.getCoord(d));
+            }
+        });
+        for (int d = 0; d < k; d++) {
+            if (maxes[d] > mins[d]) {
+                offsets[d] = mins[d] + (maxes[d] - mins[d]) / 2;
+                scales[d] = (maxes[d] - mins[d]) / (2.0 * levels);
+            } else if (maxes[d] == mins[d]) {
+                offsets[d] = mins[d];
+            }
+        }
+    }
+
+    /*
+     * Lays out a subtree starting at the given node and point indices. Returns
+     * the index of the next node.
+     */
+    private int flatten(Node<E> node, int index, int firstPoint) {
+        starts[index] = firstPoint;
+        ends[index] = firstPoint + node.count;
+        if (node.isLeaf()) {
+            final int count = node.members.size();
+            dims[index] = -1;
+            final int base = firstPoint * k;
+            for (int j = 0; j < count; j++) {
+                final E point = node.members.get(j);
+                elements[firstPoint + j] = point;
+                for (int d = 0; d < k; d++) {
+                    store(base + d * count + j, d, point.getCoord(d));
+                }
+            }
+            return index + 1;
+        }
+        dims[index] = node.dim;
+        splits[index] = node.split;
+        rights[index] = flatten(node.left, index + 1, firstPoint);
+        return flatten(node.right, rights[index], firstPoint + node.left.count);
+    }
+
+    /**
+     * Gets the format in which this tree stores the coordinates it scans.
+     * 
+     * @return the coordinate format of this tree
+     */
+    public CoordinateFormat getCoordinateFormat() {
+        return format;
+    }
+
+    /**
+     * Gets the number of dimensions in this tree.
+     * 
+     * @return the number of dimensions in this tree
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Returns an iterator for this tree. Points are traversed in the same order
+     * as the tree this tree was frozen from.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Iterator<E> iterator() {
+        return Collections.unmodifiableList(Arrays.asList((E[]) elements)).iterator();
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given center point.
+     * 
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @return a list, sorted by distance, of the k data points in this tree
+     *         closest to the center point
+     */
+    public List<E> kNN(KDPoint center, int k) {
+        checkK(k);
+        if (k == 0) {
+            return new ArrayList<>();
+        }
+        Queue<Neighbor<E>> neighbors = new PriorityQueue<>(k, Collections.reverseOrder());
+        if (coords == null) {
+            List<Neighbor<E>> candidates = new ArrayList<>();
+            kNNCandidates(center, k, 0, center.getCoords(), new double[this.k], neighbors, candidates);
+            return rerank(center, candidates, widen(neighbors.peek().dist, 2), k);
+        }
+        kNNAux(center, k, 0, center.getCoords(), new double[this.k], neighbors);
+        return neighbors.stream().sorted().map(n -> n.data).collect(Collectors.toList());
+    }
+
+    /* Recursive helper function for kNN search, as in KDTree */
+    @SuppressWarnings("unchecked")
+    private void kNNAux(KDPoint center, int k, int node, double[] restrictions, double[] scratch,
+            Queue<Neighbor<E>> neighbors) {
+        final int dim = dims[node];
+        if (dim < 0) {
+            final int start = starts[node];
+            final int end = ends[node];
+            double radius = neighbors.size() < k ? Double.POSITIVE_INFINITY : neighbors.peek().dist;
+            for (int p = start; p < end; p++) {
+                double dist = distFunc.distanceTo(center, load(start, end, p, scratch));
+                if (neighbors.size() < k) {
+                    neighbors.add(new Neighbor<>((E) elements[p], dist));
+                    radius = neighbors.peek().dist;
+                } else if (dist < radius) {
+                    Neighbor<E> evicted = neighbors.remove();
+                    evicted.data = (E) elements[p];
+                    evicted.dist = dist;
+                    neighbors.add(evicted);
+                    radius = neighbors.peek().dist;
+                }
+            }
+            return;
+        }
+        final boolean wentRight = center.getCoord(dim) > splits[node];
+        kNNAux(center, k, wentRight ? rights[node] : node + 1, restrictions, scratch, neighbors);
+        final double radius = neighbors.size() < k ? Double.POSITIVE_INFINITY : neighbors.peek().dist;
+        final double restriction = restrictions[dim];
+        restrictions[dim] = splits[node];
+        if (distFunc.distanceTo(center, restrictions) < radius || neighbors.size() < k) {
+            kNNAux(center, k, wentRight ? node + 1 : rights[node], restrictions, scratch, neighbors);
+        }
+        restrictions[dim] = restriction;
+    }
+
+    /*
+     * Recursive helper function for kNN search over rounded coordinates. The
+     * queue holds the k nearest by rounded distance, and every point that
+     * could still be among the k nearest by exact distance is collected as a
+     * candidate: the exact distances of the queued points are at most the
+     * slack farther, and those of other points at most the slack nearer.
+     */
+    @SuppressWarnings("unchecked")
+    private void kNNCandidates(KDPoint center, int k, int node, double[] restrictions, double[] scratch,
+            Queue<Neighbor<E>> neighbors, List<Neighbor<E>> candidates) {
+        final int dim = dims[node];
+        if (dim < 0) {
+            final int start = starts[node];
+            final int end = ends[node];
+            double limit = neighbors.size() < k ? Double.POSITIVE_INFINITY : widen(neighbors.peek().dist, 2);
+            for (int p = start; p < end; p++) {
+                double dist = distFunc.distanceTo(center, load(start, end, p, scratch));
+                if (!(dist <= limit)) {
+                    continue;
+                }
+                candidates.add(new Neighbor<>((E) elements[p], dist));
+                if (neighbors.size() < k) {
+                    neighbors.add(new Neighbor<>((E) elements[p], dist));
+                } else if (dist < neighbors.peek().dist) {
+                    Neighbor<E> evicted = neighbors.remove();
+                    evicted.data = (E) elements[p];
+                    evicted.dist = dist;
+                    neighbors.add(evicted);
+                } else {
+                    continue;
+                }
+                if (neighbors.size() == k) {
+                    limit = widen(neighbors.peek().dist, 2);
+                }
+            }
+            return;
+        }
+        final boolean wentRight = center.getCoord(dim) > splits[node];
+        kNNCandidates(center, k, wentRight ? rights[node] : node + 1, restrictions, scratch, neighbors, candidates);
+        final double bound = neighbors.size() < k ? Double.POSITIVE_INFINITY : widen(neighbors.peek().dist, 3);
+        final double restriction = restrictions[dim];
+        restrictions[dim] = splits[node];
+        if (distFunc.distanceTo(center, restrictions) <= bound) {
+            kNNCandidates(center, k, wentRight ? node + 1 : rights[node], restrictions, scratch, neighbors,
+                    candidates);
+        }
+        restrictions[dim] = restriction;
+    }
+
+    /**
+     * Performs a majority vote classification for the given point based on its
+     * k-nearest neighbors in this tree.
+     * 
+     * @param point
+     *            the point in question
+     * @param k
+     *            the number of neighbors
+     * @param mapper
+     *            a {@link Function} of type (? super E {@literal ->} T) mapping
+     *            a data point to any type
+     * @param <T>
+     *            the result type of the mapping function
+     * @return a list containing the majority vote winning T value(s)
+     */
+    public <T> List<T> kNNClassify(KDPoint point, int k, Function<? super E, T> mapper) {
+        TallyMap<T> counter = new TallyMap<>();
+        kNN(point, k).stream().map(mapper).forEach(t -> counter.increment(t));
+        return counter.getMaxKeys();
+    }
+
+    /**
+     * Performs a mean regression for the given point based on its k-nearest
+     * neighbors in this tree.
+     * 
+     * @param point
+     *            the point in question
+     * @param k
+     *            the number of neighbors
+     * @param mapper
+     *            a {@link ToNumberFunction} of type (? super E {@literal ->}
+     *            Number) mapping a data point to a numeric value
+     * @return the average of the mapped values of the k-nearest neighbors, or
+     *         {@link Double#NaN} if there was no average to compute
+     */
+    public double kNNRegression(KDPoint point, int k, ToNumberFunction<? super E, ?> mapper) {
+        return kNN(point, k).stream().mapToDouble(p -> mapper.apply(p).doubleValue()).average().orElse(Double.NaN);
+    }
+
+    /* Copies the coordinates of point p in the leaf spanning [start, end) */
+    private double[] load(int start, int end, int p, double[] scratch) {
+        final int count = end - start;
+        int index = start * k + p - start;
+        if (coords != null) {
+            for (int d = 0; d < k; d++) {
+                scratch[d] = coords[index];
+                index += count;
+            }
+        } else if (floatCoords != null) {
+            for (int d = 0; d < k; d++) {
+                scratch[d] = floatCoords[index];
+                index += count;
+            }
+        } else if (shortCoords != null) {
+            for (int d = 0; d < k; d++) {
+                scratch[d] = offsets[d] + shortCoords[index] * scales[d];
+                index += count;
+            }
+        } else {
+            for (int d = 0; d < k; d++) {
+                scratch[d] = offsets[d] + byteCoords[index] * scales[d];
+                index += count;
+            }
+        }
+        return scratch;
+    }
+
+    /*
+     * Records the largest rounding error of the stored coordinates in each
+     * dimension, and returns the largest distance between a point and its
+     * stored coordinates
+     */
+    private double measureErrors() {
+        if (coords != null) {
+            return 0;
+        }
+        final double[] scratch = new double[k];
+        double worst = 0;
+        for (int node = 0; node < dims.length; node++) {
+            if (dims[node] >= 0) {
+                continue;
+            }
+            for (int p = starts[node]; p < ends[node]; p++) {
+                load(starts[node], ends[node], p, scratch);
+                for (int d = 0; d < k; d++) {
+                    errors[d] = Math.max(errors[d], Math.abs(scratch[d] - elements[p].getCoord(d)));
+                }
+                worst = Math.max(worst, distFunc.distanceTo(elements[p], scratch));
+            }
+        }
+        return Double.isNaN(worst) ? Double.POSITIVE_INFINITY : worst;
+    }
+
+    /**
+     * Finds all points within the given bounding box. The number of parameters
+     * given for the bounding box must be twice the number of dimensions of this
+     * tree. The bounding box is inclusive. If there is no restriction on a
+     * particular dimension, {@link Double#NEGATIVE_INFINITY} or
+     * {@link Double#POSITIVE_INFINITY} may be passed.
+     * 
+     * @param box
+     *            the bounding box in the format minD0, maxD0, minD1, maxD1...
+     * @return a list of all points in this tree within the given bounding box
+     */
+    public List<E> pointsInBox(double... box) {
+        if (box.length != k * 2) {
+            throw new IllegalArgumentException("wrong number of bounding box parameters");
+        }
+        List<E> collector = new ArrayList<>();
+        double[] restrictions = new double[box.length];
+        for (int i = 0; i < k; i++) {
+            restrictions[i * 2] = Double.NEGATIVE_INFINITY;
+            restrictions[i * 2 + 1] = Double.POSITIVE_INFINITY;
+        }
+        pointsInBoxAux(0, box, restrictions, collector);
+        return collector;
+    }
+
+    /*
+     * Recursive helper function for bounding box search. Restrictions are
+     * updated in place and restored on backtrack.
+     */
+    @SuppressWarnings("unchecked")
+    private void pointsInBoxAux(int node, double[] box, double[] restrictions, List<E> collector) {
+        final Overlap overlap = KDTree.overlapType(box, restrictions);
+        if (overlap == Overlap.NONE) {
+            return;
+        }
+        if (overlap == Overlap.COMPLETE) {
+            collect(starts[node], ends[node], collector);
+            return;
+        }
+        final int dim = dims[node];
+        if (dim < 0) {
+            final int start = starts[node];
+            final int count = ends[node] - start;
+            final int base = start * k;
+            if (coords == null) {
+                for (int j = 0; j < count; j++) {
+                    boolean inside = true;
+                    for (int i = 0; i < k; i++) {
+                        final double coord = coord(base + i * count + j, i);
+                        if (coord < box[i * 2] - errors[i] || coord > box[i * 2 + 1] + errors[i]) {
+                            inside = false;
+                            break;
+                        }
+                    }
+                    if (inside && KDTree.inBox(elements[start + j], box)) {
+                        collector.add((E) elements[start + j]);
+                    }
+                }
+                return;
+            }
+            for (int j = 0; j < count; j++) {
+                boolean inside = true;
+                for (int i = 0; i < k; i++) {
+                    final double coord = coords[base + i * count + j];
+                    if (coord < box[i * 2] || coord > box[i * 2 + 1]) {
+                        inside = false;
+                        break;
+                    }
+                }
+                if (inside) {
+                    collector.add((E) elements[start + j]);
+                }
+            }
+            return;
+        }
+        final double max = restrictions[dim * 2 + 1];
+        restrictions[dim * 2 + 1] = splits[node];
+        pointsInBoxAux(node + 1, box, restrictions, collector);
+        restrictions[dim * 2 + 1] = max;
+        final double min = restrictions[dim * 2];
+        restrictions[dim * 2] = splits[node];
+        pointsInBoxAux(rights[node], box, restrictions, collector);
+        restrictions[dim * 2] = min;
+    }
+
+    /**
+     * Finds all points within the given range with respect to the given
+     * dimension. The range is inclusive.
+     * 
+     * @param dimension
+     *            the dimension number, between 0 (inclusive) and k (exclusive)
+     * @param min
+     *            the minimum value of the range (inclusive)
+     * @param max
+     *            the maximum value of the range (inclusive)
+     * @return a list of all points in this tree within the given range for the
+     *         given dimension
+     */
+    public List<E> pointsInRange(int dimension, double min, double max) {
+        if (dimension < 0 || dimension >= k) {
+            throw new IllegalArgumentException("dimension must be between 0 (inclusive) and k (exclusive)");
+        }
+        List<E> collector = new ArrayList<>();
+        pointsInRangeAux(0, dimension, min, max, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, collector);
+        return collector;
+    }
+
+    /* Recursive helper function for range search */
+    @SuppressWarnings("unchecked")
+    private void pointsInRangeAux(int node, int dimension, double min, double max, double rmin, double rmax,
+            List<E> collector) {
+        if (min > rmax || rmin > max) {
+            return;
+        }
+        if (min < rmin && max > rmax) {
+            collect(starts[node], ends[node], collector);
+            return;
+        }
+        final int dim = dims[node];
+        if (dim < 0) {
+            final int start = starts[node];
+            final int count = ends[node] - start;
+            final int base = start * k + dimension * count;
+            if (coords == null) {
+                final double error = errors[dimension];
+                for (int j = 0; j < count; j++) {
+                    final double coord = coord(base + j, dimension);
+                    if (coord >= min - error && coord <= max + error) {
+                        final double exact = elements[start + j].getCoord(dimension);
+                        if (exact >= min && exact <= max) {
+                            collector.add((E) elements[start + j]);
+                        }
+                    }
+                }
+                return;
+            }
+            for (int j = 0; j < count; j++) {
+                final double coord = coords[base + j];
+                if (coord >= min && coord <= max) {
+                    collector.add((E) elements[start + j]);
+                }
+            }
+            return;
+        }
+        if (dim == dimension) {
+            pointsInRangeAux(node + 1, dimension, min, max, rmin, splits[node], collector);
+            pointsInRangeAux(rights[node], dimension, min, max, splits[node], rmax, collector);
+        } else {
+            pointsInRangeAux(node + 1, dimension, min, max, rmin, rmax, collector);
+            pointsInRangeAux(rights[node], dimension, min, max, rmin, rmax, collector);
+        }
+    }
+
+    /* Rounds a coordinate in dimension d to the nearest of the integers within levels of 0 */
+    private long quantize(double value, int d, int levels) {
+        if (scales[d] == 0) {
+            return 0;
+        }
+        return Math.max(-levels, Math.min(levels, Math.round((value - offsets[d]) / scales[d])));
+    }
+
+    /* Recursive helper function for radius search, as in KDTree */
+    @SuppressWarnings("unchecked")
+    private void radiusAux(KDPoint center, double radius, int node, double[] restrictions, double[] scratch,
+            List<Neighbor<E>> pointsWithin) {
+        final int dim = dims[node];
+        if (dim < 0) {
+            final int start = starts[node];
+            final int end = ends[node];
+            final double limit = widen(radius, 1);
+            for (int p = start; p < end; p++) {
+                double dist = distFunc.distanceTo(center, load(start, end, p, scratch));
+                if (coords == null ? dist <= limit : dist <= radius) {
+                    pointsWithin.add(new Neighbor<>((E) elements[p], dist));
+                }
+            }
+            return;
+        }
+        final boolean wentRight = center.getCoord(dim) > splits[node];
+        radiusAux(center, radius, wentRight ? rights[node] : node + 1, restrictions, scratch, pointsWithin);
+        final double restriction = restrictions[dim];
+        restrictions[dim] = splits[node];
+        if (distFunc.distanceTo(center, restrictions) <= radius) {
+            radiusAux(center, radius, wentRight ? node + 1 : rights[node], restrictions, scratch, pointsWithin);
+        }
+        restrictions[dim] = restriction;
+    }
+
+    /**
+     * Performs a majority vote classification for the given point based on the
+     * points in this tree within the given radius from the point in question.
+     * 
+     * @param point
+     *            the point in question
+     * @param radius
+     *            the radius
+     * @param mapper
+     *            a {@link Function} of type (? super E {@literal ->} T) mapping
+     *            a data point to any type
+     * @param <T>
+     *            the result type of the mapping function
+     * @return a list containing the majority vote winning T value(s)
+     */
+    public <T> List<T> radiusClassify(KDPoint point, double radius, Function<? super E, T> mapper) {
+        TallyMap<T> counter = new TallyMap<>();
+        radiusSearch(point, radius).stream().map(mapper).forEach(t -> counter.increment(t));
+        return counter.getMaxKeys();
+    }
+
+    /**
+     * Performs a mean regression for the given point based on the points in
+     * this tree within the given radius from the point in question.
+     * 
+     * @param point
+     *            the point in question
+     * @param radius
+     *            the radius
+     * @param mapper
+     *            a {@link ToNumberFunction} of type (? super E {@literal ->}
+     *            Number) mapping a data point to a numeric value
+     * @return the average of the mapped values of the points within the
+     *         radius, or {@link Double#NaN} if there was no average to compute
+     */
+    public double radiusRegression(KDPoint point, double radius, ToNumberFunction<? super E, ?> mapper) {
+        return radiusSearch(point, radius).stream().mapToDouble(p -> mapper.apply(p).doubleValue()).average()
+                .orElse(Double.NaN);
+    }
+
+    /**
+     * Finds all data points in this tree within a certain distance of the given
+     * center point.
+     * 
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @return a list, sorted by distance, of all data points in this tree
+     *         within the specified distance from the center point
+     */
+    public List<E> radiusSearch(KDPoint center, double radius) {
+        KDTree.checkRadius(radius);
+        List<Neighbor<E>> pointsWithin = new ArrayList<>();
+        radiusAux(center, radius, 0, center.getCoords(), new double[k], pointsWithin);
+        if (coords == null) {
+            pointsWithin = resolve(center, radius, pointsWithin);
+        }
+        return pointsWithin.stream().sorted().map(n -> n.data).collect(Collectors.toList());
+    }
+
+    /*
+     * Ranks the candidates whose rounded distance is within the limit by exact
+     * distance, keeping the nearest max. If there are only max such candidates,
+     * they are the nearest, and only their order is left to resolve.
+     */
+    private List<E> rerank(KDPoint center, List<Neighbor<E>> candidates, double limit, int max) {
+        List<Neighbor<E>> within = new ArrayList<>(candidates.size());
+        for (Neighbor<E> candidate : candidates) {
+            if (candidate.dist <= limit) {
+                within.add(candidate);
+            }
+        }
+        if (within.size() == max) {
+            within = resolve(center, Double.POSITIVE_INFINITY, within);
+        } else {
+            for (Neighbor<E> candidate : within) {
+                candidate.dist = distFunc.distanceBetween(center, candidate.data);
+            }
+            Collections.sort(within);
+        }
+        List<E> nearest = new ArrayList<>(max);
+        for (int i = 0; i < max; i++) {
+            nearest.add(within.get(i).data);
+        }
+        return nearest;
+    }
+
+    /*
+     * Sorts points found by their rounded distances, then reads the exact
+     * distance of each point that rounding could have put on the wrong side of
+     * the radius or out of order with a neighbor in the sorted list. Those
+     * outside the radius are dropped and the rest sorted again, which puts
+     * every point in its exact place: the distance of a point left rounded is
+     * further than the slack from those of its neighbors, so it lies on the
+     * same side of them as its exact distance.
+     */
+    private List<Neighbor<E>> resolve(KDPoint center, double radius, List<Neighbor<E>> found) {
+        Collections.sort(found);
+        final int n = found.size();
+        final boolean[] ambiguous = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            final double dist = found.get(i).dist;
+            ambiguous[i] = !(widen(dist, 1) <= radius) || i > 0 && !(widen(found.get(i - 1).dist, 2) < dist)
+                    || i + 1 < n && !(widen(dist, 2) < found.get(i + 1).dist);
+        }
+        List<Neighbor<E>> within = new ArrayList<>(n);
+        boolean moved = false;
+        for (int i = 0; i < n; i++) {
+            final Neighbor<E> neighbor = found.get(i);
+            if (ambiguous[i]) {
+                neighbor.dist = distFunc.distanceBetween(center, neighbor.data);
+                if (neighbor.dist > radius) {
+                    continue;
+                }
+                moved = true;
+            }
+            within.add(neighbor);
+        }
+        if (moved) {
+            Collections.sort(within);
+        }
+        return within;
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    /**
+     * Returns a spliterator over the points in this tree, in the same order as
+     * {@link #iterator()}. It splits the flat array of points directly, so
+     * parallel streams over this tree divide the work evenly.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return Spliterators.spliterator(elements, Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL);
+    }
+
+    /* Writes a coordinate in this tree's format to the given index, which is in dimension d */
+    private void store(int index, int d, double value) {
+        if (coords != null) {
+            coords[index] = value;
+        } else if (floatCoords != null) {
+            floatCoords[index] = (float) value;
+        } else if (shortCoords != null) {
+            shortCoords[index] = (short) quantize(value, d, Short.MAX_VALUE);
+        } else {
+            byteCoords[index] = (byte) quantize(value, d, Byte.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Gets the data in this tree. Changes to the list returned will not affect
+     * this tree.
+     * 
+     * @return a list of points in this tree
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> toList() {
+        return new ArrayList<>(Arrays.asList((E[]) elements));
+    }
+
+    /*
+     * Widens a distance by the given number of slacks, the most that rounding
+     * can move a distance each time. Metric distances move by at most the
+     * slack, other distances' square roots by at most the slack.
+     */
+    private double widen(double dist, int slacks) {
+        if (distFunc.isMetric()) {
+            return dist + slacks * slack;
+        }
+        final double root = Math.sqrt(dist) + slacks * slack;
+        return root * root;
+    }
+}
@@ -0,0 +1,308 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+import edu.drexel.cs.jah473.distance.LatLonDist;
+import edu.drexel.cs.jah473.util.ToNumberFunction;
+
+/**
+ * A spatial index of latitude/longitude points supporting exact great-circle
+ * k-nearest neighbor and radius searches anywhere on the globe. Data points
+ * give their latitude as coordinate 0 and their longitude as coordinate 1, in
+ * degrees, as expected by {@link LatLonDist}. <br>
+ * <br>
+ * A {@link KDTree} searching latitude and longitude directly with a
+ * great-circle distance function prunes poorly near the poles, where lines of
+ * longitude converge, and misses neighbors across the antimeridian, where
+ * longitude wraps around. This index instead stores each point as a unit
+ * vector in three dimensions and searches a {@link KDTree} of those vectors by
+ * straight-line (chord) distance. Chord distance increases strictly with
+ * great-circle distance, so neighbors are ranked exactly, and the KD tree's
+ * pruning bound is exact in three dimensions, with no special cases at the
+ * poles or the antimeridian. <br>
+ * <br>
+ * This class implements the {@link Collection} interface.
+ *
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the data stored in this index, must be subclass of
+ *            {@link KDPoint}
+ */
+public class GeoKDTree<E extends KDPoint> extends AbstractCollection<E> implements Serializable {
+
+    /* A data point located by its unit vector, equal to others by data only */
+    private static final class Located<E extends KDPoint> extends KDPoint {
+
+        private static final long serialVersionUID = -5203937845212880727L;
+
+        final E data;
+
+        Located(E data) {
+            super(toUnitVector(data));
+            this.data = data;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Located && data.equals(((Located<?>) obj).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return data.hashCode();
+        }
+    }
+
+    private static final long serialVersionUID = 3871003216840916512L;
+
+    /* Squared chord length between two points the given angle apart */
+    private static double squaredChord(double angle) {
+        final double halfChord = Math.sin(Math.min(angle, Math.PI) / 2);
+        return 4 * halfChord * halfChord;
+    }
+
+    /* Converts a latitude/longitude point to a unit vector */
+    private static double[] toUnitVector(KDPoint point) {
+        final double lat = Math.toRadians(point.getCoord(0));
+        final double lon = Math.toRadians(point.getCoord(1));
+        final double cosLat = Math.cos(lat);
+        return new double[] { cosLat * Math.cos(lon), cosLat * Math.sin(lon), Math.sin(lat) };
+    }
+
+    private KDTree<Located<E>> tree;
+
+    /**
+     * Constructs a new geospatial index.
+     *
+     * @param data
+     *            a collection of latitude/longitude data points
+     */
+    public GeoKDTree(Collection<E> data) {
+        tree = new KDTree<>(data.stream().map(Located::new).collect(Collectors.toList()), 3,
+                Distances.sqEuclidean(3));
+    }
+
+    /**
+     * Adds a data point to this index. The index supports storage of duplicate
+     * points.
+     *
+     * @param point
+     *            the point to add
+     * @return {@code true} (as specified by Collection.add(E))
+     */
+    @Override
+    public boolean add(E point) {
+        return tree.add(new Located<>(point));
+    }
+
+    /**
+     * Clears all data from this index.
+     */
+    @Override
+    public void clear() {
+        tree.clear();
+    }
+
+    /**
+     * Returns true if this index contains the specified element.
+     *
+     * @param o
+     *            the element in question
+     * @return {@code true} if this index contains the specified element
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof KDPoint && ((KDPoint) o).getK() >= 2 && tree.contains(new Located<>((E) o));
+    }
+
+    /**
+     * Returns an iterator over the points in this index.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return Collections.unmodifiableList(toList()).iterator();
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given center point by great-circle
+     * distance.
+     *
+     * @param center
+     *            the center point, as latitude and longitude
+     * @param k
+     *            how many neighbors to find
+     * @return a list, sorted by distance, of the k data points in this index
+     *         closest to the center point
+     */
+    public List<E> kNN(KDPoint center, int k) {
+        return unwrap(tree.kNN(new KDPoint(toUnitVector(center)), k));
+    }
+
+    /**
+     * Performs a majority vote classification for the given point based on its
+     * k-nearest neighbors in this index.
+     *
+     * @param point
+     *            the point in question, as latitude and longitude
+     * @param k
+     *            the number of neighbors
+     * @param mapper
+     *            a {@link Function} of type (? super E {@literal ->} T) mapping
+     *            a data point to any type
+     * @param <T>
+     *            the result type of the mapping function
+     * @return a list containing the majority vote winning T value(s)
+     */
+    public <T> List<T> kNNClassify(KDPoint point, int k, Function<? super E, T> mapper) {
+        TallyMap<T> counter = new TallyMap<>();
+        kNN(point, k).stream().map(mapper).forEach(t -> counter.increment(t));
+        return counter.getMaxKeys();
+    }
+
+    /**
+     * Performs a mean regression for the given point based on its k-nearest
+     * neighbors in this index.
+     *
+     * @param point
+     *            the point in question, as latitude and longitude
+     * @param k
+     *            the number of neighbors
+     * @param mapper
+     *            a {@link ToNumberFunction} of type (? super E {@literal ->}
+     *            Number) mapping a data point to a numeric value
+     * @return the average of the mapped values of the k-nearest neighbors, or
+     *         {@link Double#NaN} if there was no average to compute
+     */
+    public double kNNRegression(KDPoint point, int k, ToNumberFunction<? super E, ?> mapper) {
+        return kNN(point, k).stream().mapToDouble(p -> mapper.apply(p).doubleValue()).average().orElse(Double.NaN);
+    }
+
+    /**
+     * Finds all data points in this index within a certain great-circle
+     * distance of the given center point, measured as an angle.
+     *
+     * @param center
+     *            the center point, as latitude and longitude
+     * @param radians
+     *            the radius from the center point, in radians of arc
+     * @return a list, sorted by distance, of all data points in this index
+     *         within the specified distance from the center point
+     */
+    public List<E> radiusSearch(KDPoint center, double radians) {
+        KDTree.checkRadius(radians);
+        return unwrap(tree.radiusSearch(new KDPoint(toUnitVector(center)), squaredChord(radians)));
+    }
+
+    /**
+     * Finds all data points in this index within a certain great-circle
+     * distance, in kilometers, of the given center point.
+     *
+     * @param center
+     *            the center point, as latitude and longitude
+     * @param km
+     *            the radius from the center point, in kilometers
+     * @return a list, sorted by distance, of all data points in this index
+     *         within the specified distance from the center point
+     */
+    public List<E> radiusSearchKM(KDPoint center, double km) {
+        return radiusSearch(center, km / LatLonDist.EARTH_RADIUS_KM);
+    }
+
+    /**
+     * Finds all data points in this index within a certain great-circle
+     * distance, in miles, of the given center point.
+     *
+     * @param center
+     *            the center point, as latitude and longitude
+     * @param mi
+     *            the radius from the center point, in miles
+     * @return a list, sorted by distance, of all data points in this index
+     *         within the specified distance from the center point
+     */
+    public List<E> radiusSearchMI(KDPoint center, double mi) {
+        return radiusSearch(center, mi / LatLonDist.EARTH_RADIUS_MI);
+    }
+
+    /**
+     * Removes one occurrence of the specified element from this index, if it
+     * is present.
+     *
+     * @param o
+     *            the element to remove
+     * @return {@code true} if this index was changed as a result of this call
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof KDPoint && ((KDPoint) o).getK() >= 2 && tree.remove(new Located<>((E) o));
+    }
+
+    /**
+     * Returns the number of data points in this index.
+     */
+    @Override
+    public int size() {
+        return tree.size();
+    }
+
+    /**
+     * Gets the data in this index. Changes to the list returned will not
+     * affect this index. The list returned is not in any particular order.
+     *
+     * @return a list of points in this index
+     */
+    public List<E> toList() {
+        return unwrap(tree.toList());
+    }
+
+    /**
+     * Moves one occurrence of a data point in this index to a new position.
+     * See {@link KDTree#update(KDPoint, KDPoint)}.
+     *
+     * @param oldPoint
+     *            the point to move
+     * @param newPoint
+     *            the point at its new position
+     * @return {@code true} if oldPoint was found and replaced
+     */
+    public boolean update(E oldPoint, E newPoint) {
+        return tree.update(new Located<>(oldPoint), new Located<>(newPoint));
+    }
+
+    /**
+     * Moves many data points in this index to new positions in a single pass.
+     * See {@link KDTree#updateAll(List, List)}.
+     *
+     * @param oldPoints
+     *            the points to move
+     * @param newPoints
+     *            the points at their new positions, aligned to oldPoints
+     * @return the number of old points found and replaced
+     * @throws IllegalArgumentException
+     *             if the lists are not the same size
+     */
+    public int updateAll(List<? extends E> oldPoints, List<? extends E> newPoints) {
+        return tree.updateAll(wrap(oldPoints), wrap(newPoints));
+    }
+
+    /* Extracts the data points from located points */
+    private List<E> unwrap(List<Located<E>> located) {
+        return located.stream().map(l -> l.data).collect(Collectors.toList());
+    }
+
+    /* Locates data points by their unit vectors */
+    private List<Located<E>> wrap(List<? extends E> points) {
+        return points.stream().map(p -> new Located<E>(p)).collect(Collectors.toList());
+    }
+}
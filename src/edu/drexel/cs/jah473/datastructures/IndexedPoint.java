@@ -0,0 +1,35 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * A copy of a point that remembers its position in a list, for the clustering
+ * algorithms that index a list of points in a {@link KDTree} and report their
+ * results by position in that list.
+ *
+ * @author Justin Horvitz
+ *
+ */
+final class IndexedPoint extends KDPoint {
+
+    private static final long serialVersionUID = 2285187035311417905L;
+
+    /* Copies each point of a list along with its index */
+    static List<IndexedPoint> index(List<? extends KDPoint> points) {
+        final List<IndexedPoint> indexed = new ArrayList<>(points.size());
+        for (KDPoint point : points) {
+            indexed.add(new IndexedPoint(point, indexed.size()));
+        }
+        return indexed;
+    }
+
+    final int index;
+
+    IndexedPoint(KDPoint point, int index) {
+        super(point.getCoords());
+        this.index = index;
+    }
+}
@@ -3,16 +3,31 @@ package edu.drexel.cs.jah473.datastructures;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import edu.drexel.cs.jah473.distance.DistanceFunction;
 import edu.drexel.cs.jah473.distance.KDPoint;
@@ -29,16 +44,23 @@ import edu.drexel.cs.jah473.util.ToNumberFunction;
  * constructor. The maximum may be violated only if the node contains duplicate
  * points. <br>
  * <br>
- * The tree is built in nlog<sup>2</sup>n time using a unique splitting
- * algorithm. Rather than choosing the median of the data set as the splitting
- * point, the algorithm chooses the point which most closely cuts the data set
- * in half. This point may or may not actually be the median. The splitting
+ * The tree is built in nlogn time using a unique splitting algorithm. Rather
+ * than choosing the median of the data set as the splitting point, the
+ * algorithm chooses the point which most closely cuts the data set in half.
+ * This point may or may not actually be the median. Each node's points are
+ * partitioned in place around the median using quickselect, and member lists
+ * are only allocated once points reach their final leaves. Given a
+ * {@link ForkJoinPool}, the constructor builds independent subtrees in
+ * parallel. The splitting
  * algorithm avoids creating empty nodes by cycling to a different dimension if
  * it cannot find a point that splits the data. The tree is guaranteed to be
- * relatively balanced after it is initially built, but may become unbalanced
- * after several insertions or deletions. If a series of many insertions and/or
- * deletions are made post-construction, the programmer may wish to rebuild the
- * tree by instantiating a new KDTree object using the updated set of data. <br>
+ * relatively balanced after it is initially built, and it rebalances itself as
+ * points are inserted and deleted. If an insertion makes the tree too deep
+ * for its size, the lowest unbalanced subtree on the insertion path is
+ * rebuilt, as in a scapegoat tree. Deletions collapse subtrees that shrink to
+ * a single leaf's worth of points and splice out emptied nodes, and the whole
+ * tree is rebuilt once enough deletions have been made. These rebuilds keep
+ * the amortized cost of an update logarithmic. <br>
  * <br>
  * This class implements the {@link Collection} interface.
  * 
@@ -71,6 +93,10 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
 
         private static final long serialVersionUID = 2684990727176173177L;
 
+        /* Aggregate of the points in this subtree, see AggregateKDTree */
+        transient Object aggregate;
+        /* Number of points in this subtree */
+        int count;
         int dim;
         Node<E> left;
         List<E> members;
@@ -82,12 +108,302 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         }
     }
 
+    /* Outcomes of moving a point within a subtree */
+    private static enum Move {
+        DEEPENED, MOVED, NOT_FOUND
+    }
+
     /* Possible overlap types */
     protected static enum Overlap {
         COMPLETE, NONE, PARTIAL
     }
 
+    /*
+     * Yields points in increasing distance from a center using a best-first
+     * search over a single queue of nodes, keyed by a lower bound on their
+     * distance, and points, keyed by their actual distance.
+     */
+    private final class NearestIterator implements Iterator<E> {
+
+        private final KDPoint center;
+        private final Queue<SearchEntry<E>> queue = new PriorityQueue<>();
+
+        NearestIterator(KDPoint center) {
+            this.center = center;
+            queue.add(new SearchEntry<>(root, null, center.getCoords(), 0));
+        }
+
+        /* Expands nodes until the closest entry is a point or none remain */
+        private void advance() {
+            SearchEntry<E> entry;
+            while ((entry = queue.peek()) != null && entry.node != null) {
+                queue.remove();
+                final Node<E> node = entry.node;
+                if (node.isLeaf()) {
+                    for (E point : node.members) {
+                        queue.add(new SearchEntry<>(null, point, null, calcDistance(center, point)));
+                    }
+                    continue;
+                }
+                final int dim = node.dim;
+                final boolean nearLeft = center.getCoord(dim) <= node.split;
+                double[] farRestrictions = entry.restrictions.clone();
+                farRestrictions[dim] = node.split;
+                final double farDist = Math.max(entry.dist, distFunc.distanceTo(center, farRestrictions));
+                queue.add(new SearchEntry<>(nearLeft ? node.left : node.right, null, entry.restrictions, entry.dist));
+                queue.add(new SearchEntry<>(nearLeft ? node.right : node.left, null, farRestrictions, farDist));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            advance();
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return queue.remove().point;
+        }
+    }
+
+    /*
+     * Traverses the points of a subtree from left to right, reading the tree
+     * in place. Until traversal begins, the left child of the subtree can be
+     * split off as a prefix. Fails fast if the tree is modified.
+     */
+    private final class LeafSpliterator implements Spliterator<E> {
+
+        private final int expectedModCount;
+        /* Subtrees left to traverse, leftmost on top */
+        private final Deque<Node<E>> pending = new ArrayDeque<>();
+        private List<E> leaf;
+        private int index;
+        private long remaining;
+
+        LeafSpliterator(Node<E> subtree, int expectedModCount) {
+            this.expectedModCount = expectedModCount;
+            pending.push(subtree);
+            remaining = subtree.count;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        /* Throws if the tree has been modified since this was created */
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            checkForComodification();
+            if (leaf != null) {
+                while (index < leaf.size()) {
+                    action.accept(leaf.get(index++));
+                }
+            }
+            while (!pending.isEmpty()) {
+                traverse(pending.pop(), action);
+            }
+            remaining = 0;
+            checkForComodification();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            checkForComodification();
+            while (leaf == null || index == leaf.size()) {
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                Node<E> node = pending.pop();
+                while (!node.isLeaf()) {
+                    pending.push(node.right);
+                    node = node.left;
+                }
+                leaf = node.members;
+                index = 0;
+            }
+            remaining--;
+            action.accept(leaf.get(index++));
+            return true;
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            if (leaf != null || pending.size() != 1 || pending.peek().isLeaf()) {
+                return null;
+            }
+            final Node<E> node = pending.pop();
+            pending.push(node.right);
+            remaining = node.right.count;
+            return new LeafSpliterator(node.left, expectedModCount);
+        }
+    }
+
+    /*
+     * Entry in the best-first search queue, either a node with a lower bound
+     * on the distance to its points or a single point with its distance. Ties
+     * are broken in favor of points so they are yielded as early as possible.
+     */
+    private static final class SearchEntry<E extends KDPoint> implements Comparable<SearchEntry<E>> {
+        final Node<E> node;
+        final E point;
+        final double[] restrictions;
+        final double dist;
+
+        SearchEntry(Node<E> node, E point, double[] restrictions, double dist) {
+            this.node = node;
+            this.point = point;
+            this.restrictions = restrictions;
+            this.dist = dist;
+        }
+
+        @Override
+        public int compareTo(SearchEntry<E> other) {
+            int c = Double.compare(dist, other.dist);
+            if (c == 0) {
+                c = Boolean.compare(point == null, other.point == null);
+            }
+            return c;
+        }
+    }
+
+    /*
+     * Restricts a kNN or radius search to the points accepted by a predicate,
+     * optionally skipping whole subtrees that cannot contain any such point
+     */
+    protected static final class SearchFilter<E extends KDPoint> {
+        final Predicate<? super E> points;
+        final Predicate<? super Node<E>> nodes;
+
+        SearchFilter(Predicate<? super E> points, Predicate<? super Node<E>> nodes) {
+            this.points = points;
+            this.nodes = nodes;
+        }
+    }
+
+    /* Mutable state of an approximate kNN search */
+    private static final class ApproximateSearch {
+        final double factor;
+        int leavesLeft;
+        boolean exact = true;
+
+        ApproximateSearch(double epsilon, int maxLeaves) {
+            this.factor = 1 + epsilon;
+            this.leavesLeft = maxLeaves;
+        }
+    }
+
+    /* Runs a batch of queries, forking until chunks are small enough */
+    private static final class BatchTask<T> extends RecursiveAction {
+
+        private static final long serialVersionUID = -1585012569395432337L;
+
+        private final KDPoint[] centers;
+        private final Object[] results;
+        private final int lo;
+        private final int hi;
+        private final int chunk;
+        private final Supplier<Function<KDPoint, T>> worker;
+
+        BatchTask(KDPoint[] centers, Object[] results, int lo, int hi, int chunk,
+                Supplier<Function<KDPoint, T>> worker) {
+            this.centers = centers;
+            this.results = results;
+            this.lo = lo;
+            this.hi = hi;
+            this.chunk = chunk;
+            this.worker = worker;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= chunk) {
+                Function<KDPoint, T> query = worker.get();
+                for (int i = lo; i < hi; i++) {
+                    results[i] = query.apply(centers[i]);
+                }
+                return;
+            }
+            final int mid = (lo + hi) >>> 1;
+            invokeAll(new BatchTask<>(centers, results, lo, mid, chunk, worker),
+                    new BatchTask<>(centers, results, mid, hi, chunk, worker));
+        }
+    }
+
+    /* Builds a subtree, forking independent subtrees above a size threshold */
+    private final class BuildTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 4113187049407412305L;
+
+        private final Node<E> node;
+        private final KDPoint[] points;
+        private final int lo;
+        private final int hi;
+
+        BuildTask(Node<E> node, KDPoint[] points, int lo, int hi) {
+            this.node = node;
+            this.points = points;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo < PARALLEL_BUILD_THRESHOLD) {
+                build(node, points, lo, hi);
+                return;
+            }
+            final int leftSize = buildNode(node, points, lo, hi);
+            if (leftSize >= 0) {
+                invokeAll(new BuildTask(node.left, points, lo, lo + leftSize),
+                        new BuildTask(node.right, points, lo + leftSize, hi));
+            }
+            summarize(node);
+        }
+    }
+
+    /*
+     * Fraction of a subtree's points its larger child may hold before the
+     * subtree is considered unbalanced
+     */
+    protected static final double BALANCE = 0.7;
+    /* Number of chunks per pool thread that batch queries are divided into */
+    private static final int BATCH_CHUNKS_PER_THREAD = 4;
+    /* Leaf size of trees constructed without one */
+    private static final int DEFAULT_POINTS_PER_LEAF = 5;
+    /* Largest leaf size tried by tunePointsPerLeaf, which tries powers of 2 */
+    private static final int MAX_TUNED_POINTS_PER_LEAF = 64;
+    /* Subtrees smaller than this are built on the current thread */
+    private static final int PARALLEL_BUILD_THRESHOLD = 8_192;
+    /* Ranges at or below this size are sorted rather than partitioned */
+    private static final int SELECT_CUTOFF = 16;
     private static final long serialVersionUID = -5851833806330661148L;
+    /* Number of times tunePointsPerLeaf runs the queries on each candidate */
+    private static final int TUNING_ROUNDS = 3;
+    /* Largest number of data points tunePointsPerLeaf builds its trees from */
+    private static final int TUNING_SAMPLE_SIZE = 65_536;
+
+    /* Validates a search radius */
+    protected static void checkRadius(double radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("radius must be greater than or equal to 0");
+        }
+    }
 
     /* Traverse to all leaf nodes of subtree and add all members */
     protected static final <E extends KDPoint> void express(Node<E> node, List<E> collector) {
@@ -111,29 +427,17 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         return current;
     }
 
-    /* Iterate over data points and collect those inside box */
-    protected static <E extends KDPoint> void handPick(Node<E> node, double[] box, List<E> collector) {
+    /* Determines whether point lies inside the inclusive box */
+    protected static boolean inBox(KDPoint point, double[] box) {
         final int k = box.length / 2;
-        for (E point : node.members) {
-            boolean inside = true;
-            int index = 0;
-            for (int i = 0; i < k; i++) {
-                final double coord = point.getCoord(i);
-                if (coord < box[index++] || coord > box[index++]) {
-                    inside = false;
-                    break;
-                }
-            }
-            if (inside) {
-                collector.add(point);
+        int index = 0;
+        for (int i = 0; i < k; i++) {
+            final double coord = point.getCoord(i);
+            if (coord < box[index++] || coord > box[index++]) {
+                return false;
             }
         }
-    }
-
-    /* Iterate over data points and collect those inside box, for 1 dimension */
-    protected static <E extends KDPoint> void handPick1D(Node<E> node, int dim, double[] box, List<E> collector) {
-        node.members.stream().filter(p -> p.getCoord(dim) >= box[0] && p.getCoord(dim) <= box[1])
-                .forEach(p -> collector.add(p));
+        return true;
     }
 
     /* Determines the overlap type between box and restrictions */
@@ -159,70 +463,113 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         return Overlap.PARTIAL;
     }
 
-    /* Recursive helper function for bounding box search */
-    private static <E extends KDPoint> void pointsInBoxAux(Node<E> node, double[] box, double[] restrictions,
-            List<E> collector) {
-        final Overlap overlap = overlapType(box, restrictions);
-        if (overlap == Overlap.NONE) {
-            return;
-        }
-        if (overlap == Overlap.COMPLETE) {
-            express(node, collector);
-            return;
-        }
+    /* Replaces a node with one of its children, once the other is empty */
+    private static <E extends KDPoint> void promote(Node<E> node, Node<E> child) {
+        node.dim = child.dim;
+        node.split = child.split;
+        node.left = child.left;
+        node.right = child.right;
+        node.members = child.members;
+    }
+
+    /* Comparator for the given dimension */
+    protected static int sortByDim(KDPoint p1, KDPoint p2, int dimension) {
+        return Double.compare(p1.getCoord(dimension), p2.getCoord(dimension));
+    }
+
+    /* Passes every point of a subtree to the action, from left to right */
+    protected static <E extends KDPoint> void traverse(Node<E> node, Consumer<? super E> action) {
         if (node.isLeaf()) {
-            handPick(node, box, collector);
+            node.members.forEach(action);
             return;
         }
-        double[] tighterLeft = restrictions.clone();
-        tighterLeft[node.dim * 2 + 1] = node.split;
-        pointsInBoxAux(node.left, box, tighterLeft, collector);
-        double[] tighterRight = restrictions.clone();
-        tighterRight[node.dim * 2] = node.split;
-        pointsInBoxAux(node.right, box, tighterRight, collector);
+        traverse(node.left, action);
+        traverse(node.right, action);
     }
 
-    private static <E extends KDPoint> void pointsInRangeAux(Node<E> node, int dim, double[] box,
-            double[] restrictions, List<E> collector) {
-        final Overlap overlap = overlapType(box, restrictions);
-        if (overlap == Overlap.NONE) {
-            return;
+    /**
+     * Chooses the number of data points per leaf node that answers a sample
+     * query workload fastest. Trees are built with each power of 2 up to 64
+     * points per leaf, from an evenly spaced sample of at most 65,536 of the
+     * data points, and the k-nearest neighbor search of every query is timed
+     * on each, keeping the best of three runs. Small leaves prune more of the
+     * tree while large leaves spend less time descending it, and where the
+     * balance lies depends on the data, the distance function, the number of
+     * neighbors and the hardware, so the result should be passed to a
+     * constructor building a tree over the same kind of data and queried in
+     * the same way. Since the choice is made by timing, it may differ between
+     * runs when candidates are close.
+     * 
+     * @param data
+     *            the data points the tree will hold
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param splitStrategy
+     *            the strategy the tree will split its nodes with
+     * @param queries
+     *            the sample of points whose nearest neighbors will be searched
+     *            for
+     * @param numNeighbors
+     *            the number of nearest neighbors each query searches for; fewer
+     *            are searched for if the sample holds fewer points
+     * @return the number of data points per leaf node that answered the queries
+     *         fastest, or the default of 5 if there are no data points or
+     *         queries
+     * @throws IllegalArgumentException
+     *             if numNeighbors is negative
+     */
+    public static int tunePointsPerLeaf(Collection<? extends KDPoint> data, int k,
+            DistanceFunction distanceFunction, SplitStrategy splitStrategy, Collection<? extends KDPoint> queries,
+            int numNeighbors) {
+        if (numNeighbors < 0) {
+            throw new IllegalArgumentException("numNeighbors cannot be negative");
         }
-        if (overlap == Overlap.COMPLETE) {
-            express(node, collector);
-            return;
+        final List<KDPoint> sample = new ArrayList<>(Math.min(data.size(), TUNING_SAMPLE_SIZE));
+        final double stride = Math.max(1, (double) data.size() / TUNING_SAMPLE_SIZE);
+        double next = 0;
+        int index = 0;
+        for (KDPoint point : data) {
+            if (index++ >= next) {
+                sample.add(point);
+                next += stride;
+            }
         }
-        if (node.isLeaf()) {
-            handPick1D(node, dim, box, collector);
-            return;
+        if (sample.isEmpty() || queries.isEmpty()) {
+            return DEFAULT_POINTS_PER_LEAF;
         }
-        if (node.dim == dim) {
-            double[] tighterLeft = restrictions.clone();
-            tighterLeft[1] = node.split;
-            pointsInRangeAux(node.left, dim, box, tighterLeft, collector);
-            double[] tighterRight = restrictions.clone();
-            tighterRight[0] = node.split;
-            pointsInRangeAux(node.right, dim, box, tighterRight, collector);
-        } else {
-            pointsInRangeAux(node.left, dim, box, restrictions, collector);
-            pointsInRangeAux(node.right, dim, box, restrictions, collector);
+        final int neighbors = Math.min(numNeighbors, sample.size());
+        int best = DEFAULT_POINTS_PER_LEAF;
+        long bestTime = Long.MAX_VALUE;
+        for (int pointsPerLeaf = 1; pointsPerLeaf <= MAX_TUNED_POINTS_PER_LEAF; pointsPerLeaf *= 2) {
+            final KDTree<KDPoint> tree = new KDTree<>(sample, k, pointsPerLeaf, distanceFunction, splitStrategy);
+            long time = Long.MAX_VALUE;
+            for (int round = 0; round < TUNING_ROUNDS; round++) {
+                final long start = System.nanoTime();
+                for (KDPoint query : queries) {
+                    tree.kNN(query, neighbors);
+                }
+                time = Math.min(time, System.nanoTime() - start);
+            }
+            if (time < bestTime) {
+                best = pointsPerLeaf;
+                bestTime = time;
+            }
         }
-
+        return best;
     }
 
-    /* Comparator for the given dimension */
-    protected static int sortByDim(KDPoint p1, KDPoint p2, int dimension) {
-        return Double.compare(p1.getCoord(dimension), p2.getCoord(dimension));
-    }
-
-    protected transient WeakReference<List<E>> dataRef = new WeakReference<>(null);
-
-    protected transient boolean dataUpToDate = false;
     protected DistanceFunction distFunc;
     protected int k;
-    protected int pointsPerLeaf = 5;
+    /* Largest size since the whole tree was last rebuilt */
+    protected int maxSize = 0;
+    /* Number of structural modifications, checked by live traversals */
+    protected transient int modCount = 0;
+    protected int pointsPerLeaf = DEFAULT_POINTS_PER_LEAF;
     protected Node<E> root;
     protected int size = 0;
+    protected SplitStrategy splitStrategy = SplitStrategies.roundRobin();
     /**
      * Constructs a new KD tree.
      * 
@@ -258,6 +605,120 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         init(data, k, distanceFunction);
     }
 
+    /**
+     * Constructs a new KD tree, building independent subtrees in parallel on
+     * the given fork-join pool.
+     * 
+     * @param data
+     *            a collection of data points
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param pool
+     *            the pool in which to build the tree
+     */
+    public KDTree(Collection<E> data, int k, DistanceFunction distanceFunction, ForkJoinPool pool) {
+        init(data, k, distanceFunction, pool);
+    }
+
+    /**
+     * Constructs a new KD tree with the given number of data points per leaf
+     * node, building independent subtrees in parallel on the given fork-join
+     * pool.
+     * 
+     * @param data
+     *            a collection of data points
+     * @param k
+     *            the number of dimensions
+     * @param pointsPerLeaf
+     *            the maximum number of data points to store per leaf node
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param pool
+     *            the pool in which to build the tree
+     */
+    public KDTree(Collection<E> data, int k, int pointsPerLeaf, DistanceFunction distanceFunction,
+            ForkJoinPool pool) {
+        if (pointsPerLeaf < 1) {
+            throw new IllegalArgumentException("Points per leaf must be greater than or equal to 1");
+        }
+        this.pointsPerLeaf = pointsPerLeaf;
+        init(data, k, distanceFunction, pool);
+    }
+
+    /**
+     * Constructs a new KD tree with the given number of data points per leaf
+     * node, splitting nodes with the given strategy. See
+     * {@link SplitStrategies} for the strategies available, and
+     * {@link #tunePointsPerLeaf(Collection, int, DistanceFunction, SplitStrategy, Collection, int)}
+     * to choose the number of points per leaf.
+     * 
+     * @param data
+     *            a collection of data points
+     * @param k
+     *            the number of dimensions
+     * @param pointsPerLeaf
+     *            the maximum number of data points to store per leaf node
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param splitStrategy
+     *            the strategy to split nodes with
+     */
+    public KDTree(Collection<E> data, int k, int pointsPerLeaf, DistanceFunction distanceFunction,
+            SplitStrategy splitStrategy) {
+        this(data, k, pointsPerLeaf, distanceFunction, splitStrategy, null);
+    }
+
+    /**
+     * Constructs a new KD tree with the given number of data points per leaf
+     * node, splitting nodes with the given strategy and building independent
+     * subtrees in parallel on the given fork-join pool.
+     * 
+     * @param data
+     *            a collection of data points
+     * @param k
+     *            the number of dimensions
+     * @param pointsPerLeaf
+     *            the maximum number of data points to store per leaf node
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param splitStrategy
+     *            the strategy to split nodes with
+     * @param pool
+     *            the pool in which to build the tree
+     */
+    public KDTree(Collection<E> data, int k, int pointsPerLeaf, DistanceFunction distanceFunction,
+            SplitStrategy splitStrategy, ForkJoinPool pool) {
+        if (pointsPerLeaf < 1) {
+            throw new IllegalArgumentException("Points per leaf must be greater than or equal to 1");
+        }
+        if (splitStrategy == null) {
+            throw new IllegalArgumentException("Split strategy cannot be null");
+        }
+        this.pointsPerLeaf = pointsPerLeaf;
+        this.splitStrategy = splitStrategy;
+        init(data, k, distanceFunction, pool);
+    }
+
+    /* Constructs an uninitialized tree, for subclasses that call init */
+    protected KDTree() {
+    }
+
+    /*
+     * Constructs a tree with the same settings as template around an existing
+     * node structure, for use as an immutable snapshot
+     */
+    KDTree(KDTree<E> template, Node<E> root, int size) {
+        this.k = template.k;
+        this.distFunc = template.distFunc;
+        this.pointsPerLeaf = template.pointsPerLeaf;
+        this.splitStrategy = template.splitStrategy;
+        this.root = root;
+        this.size = size;
+        this.maxSize = size;
+    }
+
     /**
      * Adds a data point to this tree. The tree supports storage of duplicate
      * points.
@@ -268,18 +729,44 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      */
     @Override
     public boolean add(E point) {
-        Node<E> leaf = findLeaf(root, point);
-        leaf.members.add(point);
-        if (leaf.members.size() > pointsPerLeaf) {
-            splitNode(leaf);
-        }
         size++;
-        if (dataRef.get() != null && dataUpToDate) {
-            dataRef.get().add(point);
-        }
+        maxSize = Math.max(maxSize, size);
+        addAux(root, point, 0, maxDepth());
+        modCount++;
         return true;
     }
 
+    /*
+     * Recursive helper function for add. If adding the point deepens the tree
+     * past maxDepth, the lowest ancestor of the new leaf whose larger child
+     * holds more than BALANCE of its points is rebuilt, scapegoat tree style.
+     * Returns true if the tree was deepened past maxDepth and no subtree has
+     * been rebuilt yet.
+     */
+    private boolean addAux(Node<E> node, E point, int depth, int maxDepth) {
+        node.count++;
+        if (node.isLeaf()) {
+            node.members.add(point);
+            if (node.members.size() > pointsPerLeaf) {
+                splitNode(node);
+                return !node.isLeaf() && depth + 1 > maxDepth;
+            }
+            summarize(node);
+            return false;
+        }
+        final Node<E> child = point.getCoord(node.dim) <= node.split ? node.left : node.right;
+        final boolean deepened = addAux(child, point, depth + 1, maxDepth);
+        summarize(node);
+        if (deepened) {
+            if (Math.max(node.left.count, node.right.count) > BALANCE * node.count) {
+                rebuild(node);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Adds all of the data points in the collection to this tree.
      * 
@@ -293,16 +780,175 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         return !points.isEmpty();
     }
 
-    /* Recursively builds the KD Tree */
-    protected void buildTree(Node<E> current) {
-        final int len = current.members.size();
-        if (len <= pointsPerLeaf) {
+    /**
+     * Finds approximate k nearest neighbors to the given center point. A
+     * subtree is only searched if the distance to it, multiplied by
+     * (1 + epsilon), is less than the distance to the current kth nearest
+     * neighbor, so each neighbor returned is at most (1 + epsilon) times
+     * farther away than the true neighbor of the same rank. Note that epsilon
+     * scales the values returned by this tree's distance function, so for a
+     * squared distance function it bounds the squared error.
+     * 
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @param epsilon
+     *            the allowed relative error, 0 for an exact search
+     * @return the k neighbors found, sorted by distance, and whether they are
+     *         guaranteed to be exact
+     */
+    public KNNResult<E> approximateKNN(KDPoint center, int k, double epsilon) {
+        return approximateKNN(center, k, epsilon, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds approximate k nearest neighbors to the given center point, visiting
+     * at most the given number of leaf nodes once k candidates have been
+     * found. A subtree is only searched if the distance to it, multiplied by
+     * (1 + epsilon), is less than the distance to the current kth nearest
+     * neighbor. Note that epsilon scales the values returned by this tree's
+     * distance function, so for a squared distance function it bounds the
+     * squared error. The leaf budget bounds the time spent per query; if it
+     * runs out, the neighbors found so far are returned and may be farther
+     * away than the epsilon guarantee allows.
+     * 
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @param epsilon
+     *            the allowed relative error, 0 for an exact search
+     * @param maxLeaves
+     *            the maximum number of leaf nodes to visit
+     * @return the k neighbors found, sorted by distance, and whether they are
+     *         guaranteed to be exact
+     */
+    public KNNResult<E> approximateKNN(KDPoint center, int k, double epsilon, int maxLeaves) {
+        checkK(k);
+        if (epsilon < 0) {
+            throw new IllegalArgumentException("epsilon must be greater than or equal to 0");
+        }
+        if (maxLeaves < 1) {
+            throw new IllegalArgumentException("maxLeaves must be greater than or equal to 1");
+        }
+        if (k == 0) {
+            return new KNNResult<>(new ArrayList<>(), true);
+        }
+        Queue<Neighbor<E>> neighbors = new PriorityQueue<>(k, Collections.reverseOrder());
+        ApproximateSearch search = new ApproximateSearch(epsilon, maxLeaves);
+        approximateKNNAux(center, k, root, center.getCoords(), neighbors, search);
+        return new KNNResult<>(neighbors.stream().sorted().map(n -> n.data).collect(Collectors.toList()),
+                search.exact);
+    }
+
+    /*
+     * Recursive helper function for approximate kNN search. Only called for
+     * subtrees an exact search would visit, so skipping one here, or any
+     * subtree it declines to visit that an exact search would, means the
+     * result is no longer guaranteed exact.
+     */
+    private void approximateKNNAux(KDPoint center, int k, Node<E> current, double[] restrictions,
+            Queue<Neighbor<E>> neighbors, ApproximateSearch search) {
+        if (search.leavesLeft <= 0 && neighbors.size() == k) {
+            search.exact = false;
             return;
         }
-        if (splitNode(current)) {
-            buildTree(current.left);
-            buildTree(current.right);
+        if (current.isLeaf()) {
+            search.leavesLeft--;
+            offerAll(center, k, current.members, neighbors, null);
+            return;
+        }
+        final int dim = current.dim;
+        final boolean wentRight = center.getCoord(dim) > current.split;
+        approximateKNNAux(center, k, wentRight ? current.right : current.left, restrictions, neighbors, search);
+        final boolean full = neighbors.size() == k;
+        final double radius = full ? neighbors.peek().dist : Double.POSITIVE_INFINITY;
+        final double restriction = restrictions[dim];
+        restrictions[dim] = current.split;
+        double foundDistance = distFunc.distanceTo(center, restrictions);
+        if (!full || foundDistance < radius) {
+            if (!full || foundDistance * search.factor < radius) {
+                approximateKNNAux(center, k, wentRight ? current.left : current.right, restrictions, neighbors,
+                        search);
+            } else {
+                search.exact = false;
+            }
+        }
+        restrictions[dim] = restriction;
+    }
+
+    /*
+     * Runs a query for every center, splitting the centers across the pool.
+     * Each chunk of centers gets its own query function from the supplier, so
+     * scratch space captured by the function is reused within the chunk.
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> List<T> batch(Collection<? extends KDPoint> centers, ForkJoinPool pool,
+            Supplier<Function<KDPoint, T>> worker) {
+        final KDPoint[] points = centers.toArray(new KDPoint[0]);
+        final Object[] results = new Object[points.length];
+        final int chunk = Math.max(1, points.length / (pool.getParallelism() * BATCH_CHUNKS_PER_THREAD));
+        pool.invoke(new BatchTask<>(points, results, 0, points.length, chunk, worker));
+        return (List<T>) Arrays.asList(results);
+    }
+
+    /*
+     * Bulk loads points[lo, hi) into the subtree rooted at node. Each range is
+     * partitioned in place around its median, so the array is shared by the
+     * whole build and member lists are only allocated for the final leaves.
+     */
+    protected void build(Node<E> node, KDPoint[] points, int lo, int hi) {
+        final int leftSize = buildNode(node, points, lo, hi);
+        if (leftSize >= 0) {
+            build(node.left, points, lo, lo + leftSize);
+            build(node.right, points, lo + leftSize, hi);
+        }
+        summarize(node);
+    }
+
+    /*
+     * Splits node over points[lo, hi) if the range is overfull and can be
+     * split, returning the number of points that belong to the left child.
+     * Otherwise makes node a leaf holding the range and returns -1. The
+     * dimension chosen by the split strategy is tried first, then the ones
+     * after it in turn.
+     */
+    @SuppressWarnings("unchecked")
+    protected int buildNode(Node<E> node, KDPoint[] points, int lo, int hi) {
+        final int len = hi - lo;
+        if (len > pointsPerLeaf) {
+            final int origDim = splitStrategy.chooseDimension(points, lo, hi, k, node.dim);
+            node.dim = origDim;
+            do {
+                final int leftSize = splitStrategy.partition(points, lo, hi, node.dim);
+                if (leftSize >= 0) {
+                    node.split = maxCoord(points, lo, lo + leftSize, node.dim);
+                    node.members = null;
+                    node.left = new Node<>();
+                    node.right = new Node<>();
+                    final int nextDim = (node.dim + 1) % k;
+                    node.left.dim = nextDim;
+                    node.right.dim = nextDim;
+                    node.count = len;
+                    return leftSize;
+                }
+                node.dim = (node.dim + 1) % k;
+            } while (node.dim != origDim);
+        }
+        List<E> members = new ArrayList<>(Math.max(len, pointsPerLeaf + 1));
+        for (int i = lo; i < hi; i++) {
+            members.add((E) points[i]);
         }
+        node.members = members;
+        node.count = len;
+        return -1;
+    }
+
+    /* Recursively builds the subtree rooted at a leaf from the points it holds */
+    protected void buildTree(Node<E> current) {
+        KDPoint[] points = current.members.toArray(new KDPoint[0]);
+        build(current, points, 0, points.length);
     }
 
     /**
@@ -319,6 +965,16 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         return distFunc.distanceBetween(point1, point2);
     }
 
+    /* Validates the number of neighbors requested */
+    protected void checkK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        if (k > size) {
+            throw new IllegalArgumentException("k is greater than the number of points in this tree");
+        }
+    }
+
     /**
      * Clears all data from this tree. This tree will be a single empty root
      * node after this call returns.
@@ -326,10 +982,43 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
     @Override
     public void clear() {
         size = 0;
+        maxSize = 0;
         root = new Node<>();
         root.members = new ArrayList<>();
-        dataRef.clear();
-        dataUpToDate = false;
+        summarize(root);
+        modCount++;
+    }
+
+    /**
+     * Finds the closest pair of distinct data points in this tree, searching
+     * pairs of subtrees together and skipping any pair whose bounding boxes
+     * are farther apart than the closest pair found so far.
+     * 
+     * @return the closest pair of points in this tree, or {@code null} if this
+     *         tree holds fewer than two points
+     */
+    public NeighborPair<E, E> closestPair() {
+        return DualTreeJoin.closestPair(this);
+    }
+
+    /**
+     * Finds the closest pair of data points with one point from this tree and
+     * one from another, searching pairs of subtrees together and skipping any
+     * pair whose bounding boxes are farther apart than the closest pair found
+     * so far. Distances are measured with this tree's distance function.
+     * 
+     * @param other
+     *            the tree from which to take the second point of the pair
+     * @param <F>
+     *            the type of the data stored in the other tree
+     * @return the closest pair of points, with the first from this tree and
+     *         the second from the other, or {@code null} if either tree is
+     *         empty
+     * @throws IllegalArgumentException
+     *             if the trees have different numbers of dimensions
+     */
+    public <F extends KDPoint> NeighborPair<E, F> closestPair(KDTree<F> other) {
+        return DualTreeJoin.closestPair(this, other);
     }
 
     /**
@@ -371,6 +1060,95 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         return true;
     }
 
+    /**
+     * Counts the points within the given bounding box, in the same format as
+     * {@link #pointsInBox(double...)}. Subtrees lying entirely inside the box
+     * are counted without visiting their points, so this is much faster than
+     * finding the points when the box is large.
+     * 
+     * @param box
+     *            the bounding box in the format minD0, maxD0, minD1, maxD1...
+     * @return the number of points in this tree within the given bounding box
+     */
+    public int countInBox(double... box) {
+        return countInBoxAux(root, box, unboundedBox(box));
+    }
+
+    /*
+     * Recursive helper function for countInBox. Restrictions are updated in
+     * place and restored on backtrack.
+     */
+    private int countInBoxAux(Node<E> node, double[] box, double[] restrictions) {
+        final Overlap overlap = overlapType(box, restrictions);
+        if (overlap == Overlap.NONE) {
+            return 0;
+        }
+        if (overlap == Overlap.COMPLETE) {
+            return node.count;
+        }
+        if (node.isLeaf()) {
+            int count = 0;
+            for (E point : node.members) {
+                if (inBox(point, box)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        final int dim = node.dim;
+        final double max = restrictions[dim * 2 + 1];
+        restrictions[dim * 2 + 1] = node.split;
+        int count = countInBoxAux(node.left, box, restrictions);
+        restrictions[dim * 2 + 1] = max;
+        final double min = restrictions[dim * 2];
+        restrictions[dim * 2] = node.split;
+        count += countInBoxAux(node.right, box, restrictions);
+        restrictions[dim * 2] = min;
+        return count;
+    }
+
+    /**
+     * Writes this tree to a file that can be opened with
+     * {@link MappedKDTree#open(Path, DistanceFunction)}. The file stores the
+     * structure of this tree as it is now, along with each point's coordinates
+     * and a payload id. Points themselves are not serialized.
+     * 
+     * @param file
+     *            the file to write, which is replaced if it exists
+     * @param ids
+     *            function that gives the payload id of a data point
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void export(Path file, ToLongFunction<? super E> ids) throws IOException {
+        MappedKDTree.write(this, file, ids);
+    }
+
+    /**
+     * Creates an immutable copy of this tree laid out in flat arrays, which
+     * answers the same searches with fewer cache misses. See
+     * {@link FrozenKDTree}.
+     * 
+     * @return a frozen copy of this tree
+     */
+    public FrozenKDTree<E> freeze() {
+        return new FrozenKDTree<>(this);
+    }
+
+    /**
+     * Creates an immutable copy of this tree laid out in flat arrays, storing
+     * the coordinates it scans in the given format. Narrower formats make the
+     * copy smaller and its scans faster, while searches still find exact
+     * results. See {@link FrozenKDTree}.
+     * 
+     * @param format
+     *            the format in which to store coordinates
+     * @return a frozen copy of this tree
+     */
+    public FrozenKDTree<E> freeze(CoordinateFormat format) {
+        return new FrozenKDTree<>(this, format);
+    }
+
     /**
      * Gets the number of dimensions in this tree.
      * 
@@ -382,21 +1160,31 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
 
     /* Common constructor */
     protected void init(Collection<E> data, int k, DistanceFunction distanceFunction) {
+        init(data, k, distanceFunction, null);
+    }
+
+    /* Common constructor, builds on the calling thread if pool is null */
+    protected void init(Collection<E> data, int k, DistanceFunction distanceFunction, ForkJoinPool pool) {
         if (k < 1) {
             throw new IllegalArgumentException("k must be greater than or equal to 1");
         }
         this.k = k;
         this.distFunc = distanceFunction;
         this.size = data.size();
+        this.maxSize = size;
         for (E point : data) {
             if (point.getK() < k) {
                 throw new IllegalArgumentException("KDPoint " + point + " has fewer than " + k + " dimensions");
             }
         }
         root = new Node<>();
-        root.members = new ArrayList<>(data);
         root.dim = 0;
-        buildTree(root);
+        KDPoint[] points = data.toArray(new KDPoint[0]);
+        if (pool == null) {
+            build(root, points, 0, points.length);
+        } else {
+            pool.invoke(new BuildTask(root, points, 0, points.length));
+        }
     }
 
     /**
@@ -411,12 +1199,14 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      * points in the order they are stored in the tree from left to right,
      * however this ordering is not completely sorted on any particular
      * dimension unless k = 1, in which case the KD tree is essentially a binary
-     * search tree.
+     * search tree. The iterator reads the tree in place, without copying its
+     * data, and throws {@link ConcurrentModificationException} if the tree is
+     * modified. It does not support removal; see
+     * {@link #removeIf(Predicate)}.
      */
     @Override
     public Iterator<E> iterator() {
-        refreshData();
-        return dataRef.get().iterator();
+        return Spliterators.iterator(spliterator());
     }
 
     /**
@@ -430,57 +1220,134 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      *         closest to the center point
      */
     public List<E> kNN(KDPoint center, int k) {
-        if (k < 0) {
-            throw new IllegalArgumentException("k cannot be negative");
-        }
+        checkK(k);
         if (k == 0) {
             return new ArrayList<>();
         }
-        if (k > size) {
-            throw new IllegalArgumentException("k is greater than the number of points in this tree");
+        return kNN(center, k, new PriorityQueue<>(k, Collections.reverseOrder()), null);
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given center point among the points
+     * accepted by a filter. The filter is applied while the tree is searched,
+     * before distances are computed, and the search only narrows as accepted
+     * points are found, so no more of the tree is searched than necessary.
+     * 
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @param filter
+     *            a {@link Predicate} that accepts the data points which may be
+     *            returned
+     * @return a list, sorted by distance, of the k accepted data points in
+     *         this tree closest to the center point, or of all accepted data
+     *         points if there are fewer than k
+     */
+    public List<E> kNN(KDPoint center, int k, Predicate<? super E> filter) {
+        return kNN(center, k, new SearchFilter<>(filter, null));
+    }
+
+    /* kNN search restricted by the given filter */
+    protected List<E> kNN(KDPoint center, int k, SearchFilter<E> filter) {
+        checkK(k);
+        if (k == 0) {
+            return new ArrayList<>();
         }
-        Queue<Neighbor<E>> neighbors = new PriorityQueue<>(k, Collections.reverseOrder());
-        kNNAux(center, k, Double.POSITIVE_INFINITY, root, center.getCoords(), neighbors);
+        return kNN(center, k, new PriorityQueue<>(k, Collections.reverseOrder()), filter);
+    }
+
+    /*
+     * kNN search using the given, possibly reused, max-heap of neighbors and
+     * an optional filter
+     */
+    private List<E> kNN(KDPoint center, int k, Queue<Neighbor<E>> neighbors, SearchFilter<E> filter) {
+        neighbors.clear();
+        kNNAux(center, k, root, center.getCoords(), neighbors, filter);
         return neighbors.stream().sorted().map(n -> n.data).collect(Collectors.toList());
     }
 
-    /* Recursive helper function for kNN search */
-    private void kNNAux(KDPoint center, int k, double radius, Node<E> current, double[] restrictions,
-            Queue<Neighbor<E>> neighbors) {
-        if (current.isLeaf()) {
-            for (E point : current.members) {
-                double dist = calcDistance(center, point);
-                if (neighbors.size() < k) {
-                    neighbors.add(new Neighbor<>(point, dist));
-                    radius = neighbors.peek().dist;
-                } else if (dist < radius) {
-                    neighbors.remove();
-                    neighbors.add(new Neighbor<>(point, dist));
-                    radius = neighbors.peek().dist;
-                }
+    /**
+     * Finds the k nearest neighbors to each of the given center points, using
+     * the common fork-join pool. This tree must not be modified while the
+     * search is running.
+     * 
+     * @param centers
+     *            the center points
+     * @param k
+     *            how many neighbors to find for each center point
+     * @return a list with one entry per center point, in iteration order of
+     *         the given collection, each entry being a list, sorted by
+     *         distance, of the k data points in this tree closest to that
+     *         center point
+     */
+    public List<List<E>> kNNAll(Collection<? extends KDPoint> centers, int k) {
+        return kNNAll(centers, k, ForkJoinPool.commonPool());
+    }
 
-            }
+    /**
+     * Finds the k nearest neighbors to each of the given center points, using
+     * the given fork-join pool. Each worker reuses its own scratch heap across
+     * the center points assigned to it. This tree must not be modified while
+     * the search is running.
+     * 
+     * @param centers
+     *            the center points
+     * @param k
+     *            how many neighbors to find for each center point
+     * @param pool
+     *            the pool in which to run the searches
+     * @return a list with one entry per center point, in iteration order of
+     *         the given collection, each entry being a list, sorted by
+     *         distance, of the k data points in this tree closest to that
+     *         center point
+     */
+    public List<List<E>> kNNAll(Collection<? extends KDPoint> centers, int k, ForkJoinPool pool) {
+        checkK(k);
+        if (k == 0) {
+            return batch(centers, pool, () -> center -> new ArrayList<>());
+        }
+        return batch(centers, pool, () -> {
+            Queue<Neighbor<E>> neighbors = new PriorityQueue<>(k, Collections.reverseOrder());
+            return center -> kNN(center, k, neighbors, null);
+        });
+    }
+
+    /*
+     * Recursive helper function for kNN search. The restrictions array starts
+     * as a copy of the center's coordinates; on the way into a far subtree the
+     * splitting coordinate is overwritten, and restored on the way back out, so
+     * the pruning distance is computed without allocating.
+     */
+    private void kNNAux(KDPoint center, int k, Node<E> current, double[] restrictions, Queue<Neighbor<E>> neighbors,
+            SearchFilter<E> filter) {
+        if (filter != null && filter.nodes != null && !filter.nodes.test(current)) {
+            return;
+        }
+        if (current.isLeaf()) {
+            offerAll(center, k, current.members, neighbors, filter);
             return;
         }
         final int dim = current.dim;
         boolean wentRight = false;
         if (center.getCoord(dim) <= current.split) {
-            kNNAux(center, k, radius, current.left, restrictions, neighbors);
+            kNNAux(center, k, current.left, restrictions, neighbors, filter);
         } else {
             wentRight = true;
-            kNNAux(center, k, radius, current.right, restrictions, neighbors);
+            kNNAux(center, k, current.right, restrictions, neighbors, filter);
         }
-        radius = neighbors.peek().dist;
-        double[] restrictionsCopy = restrictions.clone();
-        restrictionsCopy[dim] = current.split;
-        double foundDistance = calcDistance(center, new KDPoint(restrictionsCopy));
+        final double radius = neighbors.size() < k ? Double.POSITIVE_INFINITY : neighbors.peek().dist;
+        final double restriction = restrictions[dim];
+        restrictions[dim] = current.split;
+        double foundDistance = distFunc.distanceTo(center, restrictions);
         if (foundDistance < radius || neighbors.size() < k) {
             if (wentRight) {
-                kNNAux(center, k, radius, current.left, restrictionsCopy, neighbors);
+                kNNAux(center, k, current.left, restrictions, neighbors, filter);
             } else {
-                kNNAux(center, k, radius, current.right, restrictionsCopy, neighbors);
+                kNNAux(center, k, current.right, restrictions, neighbors, filter);
             }
         }
+        restrictions[dim] = restriction;
     }
 
     /**
@@ -504,6 +1371,43 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         return counter.getMaxKeys();
     }
 
+    /**
+     * Builds the k nearest neighbor graph of the data points in this tree,
+     * using the common fork-join pool. See {@link #kNNGraph(int, ForkJoinPool)}.
+     * 
+     * @param k
+     *            how many neighbors to find for each point
+     * @return the k nearest neighbor graph of the points in this tree
+     */
+    public KNNGraph<E> kNNGraph(int k) {
+        return kNNGraph(k, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Builds the k nearest neighbor graph of the data points in this tree,
+     * using the given fork-join pool. Each point's neighbors are the k other
+     * points closest to it; a point is never its own neighbor, though it may
+     * neighbor a duplicate of itself. The points of the graph are listed in
+     * iteration order of this tree, and neighbors are given by their index in
+     * that list. Rather than searching the tree once per point, the tree is
+     * searched against itself, so nearby points share the work of finding
+     * their neighbors, and subtrees are searched in parallel. This tree must
+     * not be modified while the graph is being built.
+     * 
+     * @param k
+     *            how many neighbors to find for each point; if this tree holds
+     *            exactly k points, every point is linked to the k - 1 others
+     * @param pool
+     *            the pool in which to run the search
+     * @return the k nearest neighbor graph of the points in this tree
+     * @throws IllegalArgumentException
+     *             if k is negative or greater than the size of this tree
+     */
+    public KNNGraph<E> kNNGraph(int k, ForkJoinPool pool) {
+        checkK(k);
+        return DualTreeJoin.kNNGraph(this, k, pool);
+    }
+
     /**
      * Performs a mean regression for the given point based on its k-nearest
      * neighbors in this tree.
@@ -522,6 +1426,129 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         return kNN(point, k).stream().mapToDouble(p -> mapper.apply(p).doubleValue()).average().orElse(Double.NaN);
     }
 
+    /* Depth past which adding a point looks for a subtree to rebuild */
+    private int maxDepth() {
+        final double leaves = 2.0 * size / pointsPerLeaf + 1;
+        return (int) (Math.log(leaves) / Math.log(1 / BALANCE)) + 1;
+    }
+
+    /*
+     * Moves a point between the children of a node, leaving the node's count
+     * unchanged
+     */
+    private Move moveAcross(Node<E> node, E oldPoint, E newPoint, int depth, int maxDepth) {
+        final Node<E> from = oldPoint.getCoord(node.dim) <= node.split ? node.left : node.right;
+        if (!removeAux(from, oldPoint)) {
+            return Move.NOT_FOUND;
+        }
+        final Node<E> to = from == node.left ? node.right : node.left;
+        return addAux(to, newPoint, depth + 1, maxDepth) ? Move.DEEPENED : Move.MOVED;
+    }
+
+    /**
+     * Finds the nearest point in another tree to each data point in this tree,
+     * using the common fork-join pool. See
+     * {@link #nearestNeighborJoin(KDTree, ForkJoinPool)}.
+     * 
+     * @param other
+     *            the tree in which to find neighbors
+     * @param <F>
+     *            the type of the data stored in the other tree
+     * @return a list with one pair per point in this tree, in iteration order
+     *         of this tree, each pairing that point with its nearest neighbor
+     *         in the other tree; empty if the other tree is empty
+     * @throws IllegalArgumentException
+     *             if the trees have different numbers of dimensions
+     */
+    public <F extends KDPoint> List<NeighborPair<E, F>> nearestNeighborJoin(KDTree<F> other) {
+        return nearestNeighborJoin(other, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds the nearest point in another tree to each data point in this tree,
+     * using the given fork-join pool. Rather than searching the other tree once
+     * per point, subtrees of both trees are searched together, so that nearby
+     * points share the work of finding their neighbors, and a pair of subtrees
+     * is skipped once their bounding boxes are farther apart than any point in
+     * the subtree of this tree still needs. Subtrees of this tree are searched
+     * in parallel. Distances are measured with this tree's distance function,
+     * and neither tree may be modified while the join is running.
+     * 
+     * @param other
+     *            the tree in which to find neighbors
+     * @param pool
+     *            the pool in which to run the join
+     * @param <F>
+     *            the type of the data stored in the other tree
+     * @return a list with one pair per point in this tree, in iteration order
+     *         of this tree, each pairing that point with its nearest neighbor
+     *         in the other tree; empty if the other tree is empty
+     * @throws IllegalArgumentException
+     *             if the trees have different numbers of dimensions
+     */
+    public <F extends KDPoint> List<NeighborPair<E, F>> nearestNeighborJoin(KDTree<F> other, ForkJoinPool pool) {
+        return DualTreeJoin.nearestNeighborJoin(this, other, pool);
+    }
+
+    /**
+     * Returns an iterator over the points in this tree in increasing order of
+     * distance from the given center point. Points are found lazily with a
+     * best-first search, so stopping after the first few results only costs as
+     * much as finding those results. This tree must not be modified while the
+     * iterator is in use.
+     * 
+     * @param center
+     *            the center point
+     * @return an iterator over all points in this tree, sorted by distance
+     *         from the center point
+     */
+    public Iterator<E> nearestIterator(KDPoint center) {
+        return new NearestIterator(center);
+    }
+
+    /**
+     * Returns a sequential stream of the points in this tree in increasing
+     * order of distance from the given center point. The stream is lazy; for
+     * example, {@code nearestStream(center).filter(p).findFirst()} finds the
+     * closest point satisfying p without ranking the rest of the tree. This
+     * tree must not be modified while the stream is in use.
+     * 
+     * @param center
+     *            the center point
+     * @return a stream of all points in this tree, sorted by distance from the
+     *         center point
+     */
+    public Stream<E> nearestStream(KDPoint center) {
+        return StreamSupport.stream(Spliterators.spliterator(nearestIterator(center), size,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /*
+     * Offers each point accepted by the filter, if any, to the max-heap of the
+     * k nearest neighbors found so far, replacing the farthest neighbor
+     * whenever a point is closer to the center
+     */
+    private void offerAll(KDPoint center, int k, List<E> points, Queue<Neighbor<E>> neighbors,
+            SearchFilter<E> filter) {
+        double radius = neighbors.size() < k ? Double.POSITIVE_INFINITY : neighbors.peek().dist;
+        for (E point : points) {
+            if (filter != null && !filter.points.test(point)) {
+                continue;
+            }
+            double dist = calcDistance(center, point);
+            if (neighbors.size() < k) {
+                neighbors.add(new Neighbor<>(point, dist));
+                radius = neighbors.peek().dist;
+            } else if (dist < radius) {
+                Neighbor<E> evicted = neighbors.remove();
+                evicted.data = point;
+                evicted.dist = dist;
+                neighbors.add(evicted);
+                radius = neighbors.peek().dist;
+            }
+        }
+    }
+
     /**
      * Finds all points within the given bounding box. The number of parameters
      * given for the bounding box must be twice the number of dimensions of this
@@ -535,17 +1562,8 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      * @return a list of all points in this tree within the given bounding box
      */
     public List<E> pointsInBox(double... box) {
-        int len = box.length;
-        if (box.length != k * 2) {
-            throw new IllegalArgumentException("wrong number of bounding box parameters");
-        }
         List<E> collector = new ArrayList<>();
-        double[] restrictions = new double[len];
-        for (int i = 0; i < k; i++) {
-            restrictions[i * 2] = Double.NEGATIVE_INFINITY;
-            restrictions[i * 2 + 1] = Double.POSITIVE_INFINITY;
-        }
-        pointsInBoxAux(root, box, restrictions, collector);
+        visitPointsInBox(collector::add, box);
         return collector;
     }
 
@@ -564,25 +1582,25 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      *         given dimension
      */
     public List<E> pointsInRange(int dimension, double min, double max) {
-        if (dimension < 0 || dimension >= k) {
-            throw new IllegalArgumentException("dimension must be between 0 (inclusive) and k (exclusive)");
-        }
-        double[] box = new double[2];
-        box[0] = min;
-        box[1] = max;
-        double[] restrictions = new double[2];
-        restrictions[0] = Double.NEGATIVE_INFINITY;
-        restrictions[1] = Double.POSITIVE_INFINITY;
         List<E> collector = new ArrayList<>();
-        pointsInRangeAux(root, dimension, box, restrictions, collector);
+        visitPointsInRange(dimension, min, max, collector::add);
         return collector;
     }
 
-    /* Recursive helper function for radius search */
+    /*
+     * Recursive helper function for radius search. Restrictions are updated in
+     * place and restored on backtrack, as in kNNAux.
+     */
     private void radiusAux(KDPoint center, double radius, Node<E> current, double[] restrictions,
-            List<Neighbor<E>> pointsWithin) {
+            List<Neighbor<E>> pointsWithin, SearchFilter<E> filter) {
+        if (filter != null && filter.nodes != null && !filter.nodes.test(current)) {
+            return;
+        }
         if (current.isLeaf()) {
             for (E point : current.members) {
+                if (filter != null && !filter.points.test(point)) {
+                    continue;
+                }
                 double distance = calcDistance(center, point);
                 if (distance <= radius) {
                     pointsWithin.add(new Neighbor<>(point, distance));
@@ -593,21 +1611,22 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         final int dim = current.dim;
         boolean wentRight = false;
         if (center.getCoord(dim) <= current.split) {
-            radiusAux(center, radius, current.left, restrictions, pointsWithin);
+            radiusAux(center, radius, current.left, restrictions, pointsWithin, filter);
         } else {
             wentRight = true;
-            radiusAux(center, radius, current.right, restrictions, pointsWithin);
+            radiusAux(center, radius, current.right, restrictions, pointsWithin, filter);
         }
-        double[] restrictionsCopy = restrictions.clone();
-        restrictionsCopy[dim] = current.split;
-        double dist = calcDistance(center, new KDPoint(restrictionsCopy));
+        final double restriction = restrictions[dim];
+        restrictions[dim] = current.split;
+        double dist = distFunc.distanceTo(center, restrictions);
         if (dist <= radius) {
             if (wentRight) {
-                radiusAux(center, radius, current.left, restrictionsCopy, pointsWithin);
+                radiusAux(center, radius, current.left, restrictions, pointsWithin, filter);
             } else {
-                radiusAux(center, radius, current.right, restrictionsCopy, pointsWithin);
+                radiusAux(center, radius, current.right, restrictions, pointsWithin, filter);
             }
         }
+        restrictions[dim] = restriction;
     }
 
     /**
@@ -631,6 +1650,58 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         return counter.getMaxKeys();
     }
 
+    /**
+     * Finds all pairs of data points, one from this tree and one from another,
+     * within a certain distance of each other, using the common fork-join
+     * pool. See {@link #radiusJoin(KDTree, double, ForkJoinPool)}.
+     * 
+     * @param other
+     *            the tree from which to take the second point of each pair
+     * @param radius
+     *            the largest distance between the points of a pair
+     * @param <F>
+     *            the type of the data stored in the other tree
+     * @return a list, in no particular order, of all pairs within the radius,
+     *         with the first point from this tree and the second from the
+     *         other
+     * @throws IllegalArgumentException
+     *             if the radius is negative or the trees have different
+     *             numbers of dimensions
+     */
+    public <F extends KDPoint> List<NeighborPair<E, F>> radiusJoin(KDTree<F> other, double radius) {
+        return radiusJoin(other, radius, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds all pairs of data points, one from this tree and one from another,
+     * within a certain distance of each other, using the given fork-join pool.
+     * Subtrees of both trees are searched together, a pair of subtrees is
+     * skipped as soon as their bounding boxes are farther apart than the
+     * radius, and independent pairs of subtrees are searched in parallel.
+     * Distances are measured with this tree's distance function, and neither
+     * tree may be modified while the join is running.
+     * 
+     * @param other
+     *            the tree from which to take the second point of each pair
+     * @param radius
+     *            the largest distance between the points of a pair
+     * @param pool
+     *            the pool in which to run the join
+     * @param <F>
+     *            the type of the data stored in the other tree
+     * @return a list, in no particular order, of all pairs within the radius,
+     *         with the first point from this tree and the second from the
+     *         other
+     * @throws IllegalArgumentException
+     *             if the radius is negative or the trees have different
+     *             numbers of dimensions
+     */
+    public <F extends KDPoint> List<NeighborPair<E, F>> radiusJoin(KDTree<F> other, double radius,
+            ForkJoinPool pool) {
+        checkRadius(radius);
+        return DualTreeJoin.radiusJoin(this, other, radius, pool);
+    }
+
     /**
      * Performs a mean regression for the given point based on the points in
      * this tree within the given radius from the point in question.
@@ -662,27 +1733,114 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      *         within the specified distance from the center point
      */
     public List<E> radiusSearch(KDPoint center, double radius) {
-        if (radius < 0) {
-            throw new IllegalArgumentException("radius must be greater than or equal to 0");
-        }
-        List<Neighbor<E>> pointsWithin = new ArrayList<>();
-        radiusAux(center, radius, root, center.getCoords(), pointsWithin);
+        checkRadius(radius);
+        return radiusSearch(center, radius, new ArrayList<>(), null);
+    }
+
+    /**
+     * Finds all data points in this tree accepted by a filter within a certain
+     * distance of the given center point. The filter is applied while the tree
+     * is searched, before distances are computed.
+     * 
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @param filter
+     *            a {@link Predicate} that accepts the data points which may be
+     *            returned
+     * @return a list, sorted by distance, of all accepted data points in this
+     *         tree within the specified distance from the center point
+     */
+    public List<E> radiusSearch(KDPoint center, double radius, Predicate<? super E> filter) {
+        return radiusSearch(center, radius, new SearchFilter<>(filter, null));
+    }
+
+    /* Radius search restricted by the given filter */
+    protected List<E> radiusSearch(KDPoint center, double radius, SearchFilter<E> filter) {
+        checkRadius(radius);
+        return radiusSearch(center, radius, new ArrayList<>(), filter);
+    }
+
+    /*
+     * Radius search using the given, possibly reused, list of neighbors and an
+     * optional filter
+     */
+    private List<E> radiusSearch(KDPoint center, double radius, List<Neighbor<E>> pointsWithin,
+            SearchFilter<E> filter) {
+        pointsWithin.clear();
+        radiusAux(center, radius, root, center.getCoords(), pointsWithin, filter);
         return pointsWithin.stream().sorted().map(n -> n.data).collect(Collectors.toList());
     }
 
+    /**
+     * Finds, for each of the given center points, all data points in this
+     * tree within a certain distance of it, using the common fork-join pool.
+     * This tree must not be modified while the search is running.
+     * 
+     * @param centers
+     *            the center points
+     * @param radius
+     *            the radius from each center point
+     * @return a list with one entry per center point, in iteration order of
+     *         the given collection, each entry being a list, sorted by
+     *         distance, of all data points in this tree within the specified
+     *         distance from that center point
+     */
+    public List<List<E>> radiusSearchAll(Collection<? extends KDPoint> centers, double radius) {
+        return radiusSearchAll(centers, radius, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds, for each of the given center points, all data points in this
+     * tree within a certain distance of it, using the given fork-join pool.
+     * This tree must not be modified while the search is running.
+     * 
+     * @param centers
+     *            the center points
+     * @param radius
+     *            the radius from each center point
+     * @param pool
+     *            the pool in which to run the searches
+     * @return a list with one entry per center point, in iteration order of
+     *         the given collection, each entry being a list, sorted by
+     *         distance, of all data points in this tree within the specified
+     *         distance from that center point
+     */
+    public List<List<E>> radiusSearchAll(Collection<? extends KDPoint> centers, double radius, ForkJoinPool pool) {
+        checkRadius(radius);
+        return batch(centers, pool, () -> {
+            List<Neighbor<E>> pointsWithin = new ArrayList<>();
+            return center -> radiusSearch(center, radius, pointsWithin, null);
+        });
+    }
+
     /* Read from serialized form */
     private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
         ois.defaultReadObject();
-        dataRef = new WeakReference<>(null);
+        if (splitStrategy == null) {
+            splitStrategy = SplitStrategies.roundRobin();
+        }
+        recount(root);
     }
 
-    /* Refreshes the list of data if necessary */
-    protected void refreshData() {
-        if (dataRef.get() == null || !dataUpToDate) {
-            dataRef = new WeakReference<>(new ArrayList<>());
-            express(root, dataRef.get());
-            dataUpToDate = true;
-        }
+    /*
+     * Rebuilds the subtree rooted at node from scratch, keeping its preferred
+     * splitting dimension
+     */
+    protected void rebuild(Node<E> node) {
+        List<E> members = new ArrayList<>(node.count);
+        express(node, members);
+        KDPoint[] points = members.toArray(new KDPoint[0]);
+        node.left = null;
+        node.right = null;
+        build(node, points, 0, points.length);
+    }
+
+    /* Recomputes subtree counts, e.g. for trees serialized without them */
+    protected static <E extends KDPoint> int recount(Node<E> node) {
+        node.count = node.isLeaf() ? node.members.size() : recount(node.left) + recount(node.right);
+        return node.count;
     }
 
     /**
@@ -702,13 +1860,48 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
         } catch (ClassCastException e) {
             return false;
         }
-        Node<E> leaf = findLeaf(root, point);
-        if (leaf.members.remove(point)) {
-            size--;
-            dataUpToDate = false;
-            return true;
+        if (!removeAux(root, point)) {
+            return false;
         }
-        return false;
+        size--;
+        modCount++;
+        if (size < BALANCE * maxSize) {
+            rebuild(root);
+            maxSize = size;
+        }
+        return true;
+    }
+
+    /*
+     * Recursive helper function for remove. On the way back up, a subtree left
+     * with few enough points is collapsed into a single leaf, and a node whose
+     * child was emptied is replaced by the other child.
+     */
+    private boolean removeAux(Node<E> node, E point) {
+        if (node.isLeaf()) {
+            if (node.members.remove(point)) {
+                node.count--;
+                summarize(node);
+                return true;
+            }
+            return false;
+        }
+        final Node<E> child = point.getCoord(node.dim) <= node.split ? node.left : node.right;
+        if (!removeAux(child, point)) {
+            return false;
+        }
+        node.count--;
+        if (node.count <= pointsPerLeaf) {
+            List<E> members = new ArrayList<>(pointsPerLeaf + 1);
+            express(node, members);
+            node.left = null;
+            node.right = null;
+            node.members = members;
+        } else if (child.count == 0) {
+            promote(node, child == node.left ? node.right : node.left);
+        }
+        summarize(node);
+        return true;
     }
 
     /**
@@ -740,10 +1933,33 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      */
     @Override
     public boolean retainAll(Collection<?> c) {
-        final int initialSize = size;
-        refreshData();
-        removeAll(dataRef.get().stream().filter(p -> !c.contains(p)).collect(Collectors.toList()));
-        return initialSize != size;
+        return removeIf(p -> !c.contains(p));
+    }
+
+    /**
+     * Removes all of the elements of this tree that satisfy the given
+     * predicate. The points kept are rebuilt into a balanced tree in a single
+     * pass, rather than removed one at a time.
+     * 
+     * @param filter
+     *            a predicate which returns {@code true} for elements to be
+     *            removed
+     * @return {@code true} if any elements were removed
+     */
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        final List<E> kept = toList();
+        if (!kept.removeIf(filter)) {
+            return false;
+        }
+        final KDPoint[] points = kept.toArray(new KDPoint[0]);
+        root.left = null;
+        root.right = null;
+        build(root, points, 0, points.length);
+        size = points.length;
+        maxSize = size;
+        modCount++;
+        return true;
     }
 
     /**
@@ -754,63 +1970,153 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
     }
 
     /*
-     * Calls node splitting function at every dimension until node is split or
-     * all dimensions have been tried
+     * Finishes moving points through a node. A node whose child was emptied is
+     * replaced by the other child. If the tree was deepened past the maximum
+     * depth below this node and the node is unbalanced, it is rebuilt as in
+     * addAux.
      */
-    protected boolean splitNode(Node<E> leaf) {
-        if (splitNodeAux(leaf)) {
-            return true;
-        }
-        final int origDim = leaf.dim;
-        leaf.dim++;
-        leaf.dim %= k;
-        while (leaf.dim != origDim) {
-            if (splitNodeAux(leaf)) {
-                return true;
+    private Move settle(Node<E> node, Move move) {
+        if (!node.isLeaf()) {
+            if (node.left.count == 0) {
+                promote(node, node.right);
+            } else if (node.right.count == 0) {
+                promote(node, node.left);
             }
-            leaf.dim++;
-            leaf.dim %= k;
         }
-        return false;
+        summarize(node);
+        if (move == Move.DEEPENED && !node.isLeaf()
+                && Math.max(node.left.count, node.right.count) > BALANCE * node.count) {
+            rebuild(node);
+            return Move.MOVED;
+        }
+        return move;
     }
 
-    /* Splits a node into two children, if possible */
-    private boolean splitNodeAux(Node<E> leaf) {
-        List<E> members = leaf.members;
-        final int dim = leaf.dim;
-        Collections.sort(members, (p1, p2) -> sortByDim(p1, p2, dim));
-        final int size = members.size();
-        int middle = size / 2;
-        double median = members.get(middle - 1).getCoord(dim);
-        int middleUp = middle;
-        int middleDown = middle - 1;
-        while (true) {
-            if (middleDown <= 0 || middleUp >= size) {
-                return false;
-            }
-            if (members.get(middleUp).getCoord(dim) > median) {
-                middle = middleUp;
-                break;
+    /**
+     * Returns a spliterator over the points in this tree, in the same order as
+     * {@link #iterator()}. The spliterator reads the tree in place and splits
+     * on subtrees, so its size and the sizes of its splits are exact, and
+     * parallel streams over the tree divide the work without copying its
+     * data. It throws {@link ConcurrentModificationException} if the tree is
+     * modified.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new LeafSpliterator(root, modCount);
+    }
+
+    /* Splits an overfull leaf node, if possible, returning whether it was split */
+    protected boolean splitNode(Node<E> leaf) {
+        buildTree(leaf);
+        return !leaf.isLeaf();
+    }
+
+    /*
+     * Chooses where to cut a range of the given size, sorted on the splitting
+     * dimension, where lt values fall below the median and eq values equal it.
+     * Walks outward from the middle and takes the nearest boundary between
+     * distinct values. Returns the number of points that go left, or -1 if the
+     * range cannot be split.
+     */
+    protected static int chooseSplit(int size, int lt, int eq) {
+        int middleUp = size / 2;
+        int middleDown = middleUp - 1;
+        while (middleDown > 0 && middleUp < size) {
+            if (middleUp >= lt + eq) {
+                return lt + eq;
             }
-            double downVal = members.get(middleDown).getCoord(dim);
-            if (downVal < median) {
-                middle = middleDown + 1;
-                median = downVal;
-                break;
+            if (middleDown < lt) {
+                return lt;
             }
             middleUp++;
             middleDown--;
         }
-        leaf.members = null;
-        leaf.split = median;
-        leaf.left = new Node<>();
-        leaf.right = new Node<>();
-        final int nextDim = (dim + 1) % k;
-        leaf.left.dim = nextDim;
-        leaf.right.dim = nextDim;
-        leaf.left.members = new ArrayList<>(members.subList(0, middle));
-        leaf.right.members = new ArrayList<>(members.subList(middle, size));
-        return true;
+        return -1;
+    }
+
+    /* Largest coordinate on the given dimension in points[lo, hi) */
+    protected static double maxCoord(KDPoint[] points, int lo, int hi, int dim) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < hi; i++) {
+            max = Math.max(max, points[i].getCoord(dim));
+        }
+        return max;
+    }
+
+    /*
+     * Three-way quickselect. Rearranges points[lo, hi) so that the value of
+     * rank target on the given dimension is in place, with smaller values
+     * before it and larger values after it. Returns the bounds {start, end} of
+     * the run of values equal to it. Falls back to sorting when partitioning
+     * stops making progress, keeping the worst case at O(n log n).
+     */
+    protected static int[] select(KDPoint[] points, int lo, int hi, int target, int dim) {
+        int budget = 2 * (32 - Integer.numberOfLeadingZeros(hi - lo));
+        while (hi - lo > SELECT_CUTOFF && budget-- > 0) {
+            final double pivot = medianOfThree(points[lo].getCoord(dim), points[(lo + hi) >>> 1].getCoord(dim),
+                    points[hi - 1].getCoord(dim));
+            int lt = lo;
+            int i = lo;
+            int gt = hi;
+            while (i < gt) {
+                final double coord = points[i].getCoord(dim);
+                if (coord < pivot) {
+                    swap(points, lt++, i++);
+                } else if (coord > pivot) {
+                    swap(points, i, --gt);
+                } else {
+                    i++;
+                }
+            }
+            if (target < lt) {
+                hi = lt;
+            } else if (target >= gt) {
+                lo = gt;
+            } else {
+                return new int[] { lt, gt };
+            }
+        }
+        Arrays.sort(points, lo, hi, (p1, p2) -> sortByDim(p1, p2, dim));
+        final double value = points[target].getCoord(dim);
+        int start = target;
+        while (start > lo && points[start - 1].getCoord(dim) == value) {
+            start--;
+        }
+        int end = target + 1;
+        while (end < hi && points[end].getCoord(dim) == value) {
+            end++;
+        }
+        return new int[] { start, end };
+    }
+
+    /*
+     * Partitions points[lo, hi) on the given dimension into a left part of
+     * coordinates no greater than the split and a right part of coordinates
+     * greater than it. Returns the size of the left part, or -1 if the range
+     * cannot be split on this dimension.
+     */
+    protected static int splitRange(KDPoint[] points, int lo, int hi, int dim) {
+        final int size = hi - lo;
+        final int[] eqRun = select(points, lo, hi, lo + size / 2 - 1, dim);
+        return chooseSplit(size, eqRun[0] - lo, eqRun[1] - eqRun[0]);
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static void swap(KDPoint[] points, int i, int j) {
+        KDPoint temp = points[i];
+        points[i] = points[j];
+        points[j] = temp;
+    }
+
+    /*
+     * Called bottom-up on every node whose subtree has changed, after its
+     * children are up to date. Subclasses override it to maintain per-node
+     * summaries.
+     */
+    protected void summarize(Node<E> node) {
     }
 
     /**
@@ -820,8 +2126,7 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      */
     @Override
     public Object[] toArray() {
-        refreshData();
-        return dataRef.get().toArray();
+        return toList().toArray();
     }
 
     /**
@@ -839,8 +2144,7 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      */
     @Override
     public <T> T[] toArray(T[] a) {
-        refreshData();
-        return dataRef.get().toArray(a);
+        return toList().toArray(a);
     }
 
     /**
@@ -850,8 +2154,325 @@ public class KDTree<E extends KDPoint> implements Collection<E>, Serializable {
      * @return a list of points in this tree.
      */
     public List<E> toList() {
-        refreshData();
-        return new ArrayList<>(dataRef.get());
+        List<E> data = new ArrayList<>(size);
+        express(root, data);
+        return data;
+    }
+
+    /*
+     * Validates a bounding box and returns restrictions, in the same format,
+     * that do not restrict any dimension
+     */
+    protected double[] unboundedBox(double[] box) {
+        if (box.length != k * 2) {
+            throw new IllegalArgumentException("wrong number of bounding box parameters");
+        }
+        double[] restrictions = new double[box.length];
+        for (int i = 0; i < k; i++) {
+            restrictions[i * 2] = Double.NEGATIVE_INFINITY;
+            restrictions[i * 2 + 1] = Double.POSITIVE_INFINITY;
+        }
+        return restrictions;
+    }
+
+    /* Visits every point in a subtree, returning false if stopped */
+    private boolean visitAll(Node<E> node, PointVisitor<? super E> visitor) {
+        if (node.isLeaf()) {
+            for (E point : node.members) {
+                if (!visitor.visit(point)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return visitAll(node.left, visitor) && visitAll(node.right, visitor);
+    }
+
+    /*
+     * Recursive helper function for bounding box search. Restrictions are
+     * updated in place and restored on backtrack. Returns false if stopped.
+     */
+    private boolean visitBoxAux(Node<E> node, double[] box, double[] restrictions, PointVisitor<? super E> visitor) {
+        final Overlap overlap = overlapType(box, restrictions);
+        if (overlap == Overlap.NONE) {
+            return true;
+        }
+        if (overlap == Overlap.COMPLETE) {
+            return visitAll(node, visitor);
+        }
+        if (node.isLeaf()) {
+            for (E point : node.members) {
+                if (inBox(point, box) && !visitor.visit(point)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        final int dim = node.dim;
+        final double max = restrictions[dim * 2 + 1];
+        restrictions[dim * 2 + 1] = node.split;
+        final boolean resume = visitBoxAux(node.left, box, restrictions, visitor);
+        restrictions[dim * 2 + 1] = max;
+        if (!resume) {
+            return false;
+        }
+        final double min = restrictions[dim * 2];
+        restrictions[dim * 2] = node.split;
+        final boolean finished = visitBoxAux(node.right, box, restrictions, visitor);
+        restrictions[dim * 2] = min;
+        return finished;
+    }
+
+    /**
+     * Moves one occurrence of a data point in this tree to a new position, as
+     * if by removing oldPoint and adding newPoint, but without two walks from
+     * the root. The old point is followed down the tree only while the new
+     * point takes the same path: a point that stays within its leaf's cell is
+     * replaced in place, and otherwise it is removed from one child and added
+     * to the other child of the node where the two paths part.
+     *
+     * @param oldPoint
+     *            the point to move
+     * @param newPoint
+     *            the point at its new position
+     * @return {@code true} if oldPoint was found and replaced
+     */
+    public boolean update(E oldPoint, E newPoint) {
+        if (updateAux(root, oldPoint, newPoint, 0, maxDepth()) == Move.NOT_FOUND) {
+            return false;
+        }
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Moves many data points in this tree to new positions in a single pass,
+     * as if by calling {@link #update(KDPoint, KDPoint)} for each pair of old
+     * and new points. The moves are carried down the tree together, and each
+     * one leaves the group at the node where its old and new paths part.
+     *
+     * @param oldPoints
+     *            the points to move
+     * @param newPoints
+     *            the points at their new positions, aligned to oldPoints
+     * @return the number of old points found and replaced
+     * @throws IllegalArgumentException
+     *             if the lists are not the same size
+     */
+    public int updateAll(List<? extends E> oldPoints, List<? extends E> newPoints) {
+        if (oldPoints.size() != newPoints.size()) {
+            throw new IllegalArgumentException("old and new point lists must be the same size");
+        }
+        final int[] moved = { 0 };
+        if (!oldPoints.isEmpty()) {
+            updateAllAux(root, new ArrayList<>(oldPoints), new ArrayList<>(newPoints), 0, maxDepth(), moved);
+        }
+        if (moved[0] > 0) {
+            modCount++;
+        }
+        return moved[0];
+    }
+
+    /*
+     * Recursive helper function for updateAll. Moves that stay within one
+     * child are passed down to it together; the rest are moved across.
+     * Returns true if the tree was deepened past maxDepth and no subtree has
+     * been rebuilt yet.
+     */
+    private boolean updateAllAux(Node<E> node, List<E> oldPoints, List<E> newPoints, int depth, int maxDepth,
+            int[] moved) {
+        if (node.isLeaf()) {
+            for (int i = 0; i < oldPoints.size(); i++) {
+                final int index = node.members.indexOf(oldPoints.get(i));
+                if (index >= 0) {
+                    node.members.set(index, newPoints.get(i));
+                    moved[0]++;
+                }
+            }
+            summarize(node);
+            return false;
+        }
+        final List<E> leftOld = new ArrayList<>();
+        final List<E> leftNew = new ArrayList<>();
+        final List<E> rightOld = new ArrayList<>();
+        final List<E> rightNew = new ArrayList<>();
+        final List<E> acrossOld = new ArrayList<>();
+        final List<E> acrossNew = new ArrayList<>();
+        for (int i = 0; i < oldPoints.size(); i++) {
+            final E oldPoint = oldPoints.get(i);
+            final E newPoint = newPoints.get(i);
+            final boolean oldLeft = oldPoint.getCoord(node.dim) <= node.split;
+            if (oldLeft != newPoint.getCoord(node.dim) <= node.split) {
+                acrossOld.add(oldPoint);
+                acrossNew.add(newPoint);
+            } else if (oldLeft) {
+                leftOld.add(oldPoint);
+                leftNew.add(newPoint);
+            } else {
+                rightOld.add(oldPoint);
+                rightNew.add(newPoint);
+            }
+        }
+        boolean deepened = false;
+        if (!leftOld.isEmpty()) {
+            deepened |= updateAllAux(node.left, leftOld, leftNew, depth + 1, maxDepth, moved);
+        }
+        if (!rightOld.isEmpty()) {
+            deepened |= updateAllAux(node.right, rightOld, rightNew, depth + 1, maxDepth, moved);
+        }
+        for (int i = 0; i < acrossOld.size(); i++) {
+            final Move move = moveAcross(node, acrossOld.get(i), acrossNew.get(i), depth, maxDepth);
+            if (move != Move.NOT_FOUND) {
+                moved[0]++;
+                deepened |= move == Move.DEEPENED;
+            }
+        }
+        return settle(node, deepened ? Move.DEEPENED : Move.MOVED) == Move.DEEPENED;
+    }
+
+    /*
+     * Recursive helper function for update. Follows the old point down while
+     * the new point takes the same path, then moves it across.
+     */
+    private Move updateAux(Node<E> node, E oldPoint, E newPoint, int depth, int maxDepth) {
+        if (node.isLeaf()) {
+            final int index = node.members.indexOf(oldPoint);
+            if (index < 0) {
+                return Move.NOT_FOUND;
+            }
+            node.members.set(index, newPoint);
+            summarize(node);
+            return Move.MOVED;
+        }
+        final boolean oldLeft = oldPoint.getCoord(node.dim) <= node.split;
+        final Move move;
+        if (oldLeft == newPoint.getCoord(node.dim) <= node.split) {
+            move = updateAux(oldLeft ? node.left : node.right, oldPoint, newPoint, depth + 1, maxDepth);
+        } else {
+            move = moveAcross(node, oldPoint, newPoint, depth, maxDepth);
+        }
+        return move == Move.NOT_FOUND ? move : settle(node, move);
+    }
+
+    /**
+     * Passes each point within the given bounding box to the visitor, in no
+     * particular order, until the visitor stops the search. No list of results
+     * is built. The bounding box is in the same format as
+     * {@link #pointsInBox(double...)}. This tree must not be modified by the
+     * visitor.
+     * 
+     * @param visitor
+     *            the visitor, which returns {@code false} to stop the search
+     * @param box
+     *            the bounding box in the format minD0, maxD0, minD1, maxD1...
+     * @return {@code true} if every point in the box was visited,
+     *         {@code false} if the visitor stopped the search
+     */
+    public boolean visitPointsInBox(PointVisitor<? super E> visitor, double... box) {
+        return visitBoxAux(root, box, unboundedBox(box), visitor);
+    }
+
+    /**
+     * Passes each point within the given distance of the center point to the
+     * visitor, in no particular order, until the visitor stops the search. No
+     * list of results is built. This tree must not be modified by the visitor.
+     * 
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @param visitor
+     *            the visitor, which returns {@code false} to stop the search
+     * @return {@code true} if every point within the radius was visited,
+     *         {@code false} if the visitor stopped the search
+     */
+    public boolean visitPointsInRadius(KDPoint center, double radius, PointVisitor<? super E> visitor) {
+        checkRadius(radius);
+        return visitRadiusAux(center, radius, root, center.getCoords(), visitor);
+    }
+
+    /**
+     * Passes each point within the given range with respect to the given
+     * dimension to the visitor, in no particular order, until the visitor
+     * stops the search. No list of results is built. The range is inclusive.
+     * This tree must not be modified by the visitor.
+     * 
+     * @param dimension
+     *            the dimension number, between 0 (inclusive) and k (exclusive)
+     * @param min
+     *            the minimum value of the range (inclusive)
+     * @param max
+     *            the maximum value of the range (inclusive)
+     * @param visitor
+     *            the visitor, which returns {@code false} to stop the search
+     * @return {@code true} if every point in the range was visited,
+     *         {@code false} if the visitor stopped the search
+     */
+    public boolean visitPointsInRange(int dimension, double min, double max, PointVisitor<? super E> visitor) {
+        if (dimension < 0 || dimension >= k) {
+            throw new IllegalArgumentException("dimension must be between 0 (inclusive) and k (exclusive)");
+        }
+        return visitRangeAux(root, dimension, min, max, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                visitor);
+    }
+
+    /*
+     * Recursive helper function for radius search with a visitor, as in
+     * radiusAux. Returns false if stopped.
+     */
+    private boolean visitRadiusAux(KDPoint center, double radius, Node<E> current, double[] restrictions,
+            PointVisitor<? super E> visitor) {
+        if (current.isLeaf()) {
+            for (E point : current.members) {
+                if (calcDistance(center, point) <= radius && !visitor.visit(point)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        final int dim = current.dim;
+        final boolean wentRight = center.getCoord(dim) > current.split;
+        if (!visitRadiusAux(center, radius, wentRight ? current.right : current.left, restrictions, visitor)) {
+            return false;
+        }
+        final double restriction = restrictions[dim];
+        restrictions[dim] = current.split;
+        boolean finished = true;
+        if (distFunc.distanceTo(center, restrictions) <= radius) {
+            finished = visitRadiusAux(center, radius, wentRight ? current.left : current.right, restrictions,
+                    visitor);
+        }
+        restrictions[dim] = restriction;
+        return finished;
+    }
+
+    /*
+     * Recursive helper function for range search. The range of the dimension
+     * covered by the node is [rmin, rmax]. Returns false if stopped.
+     */
+    private boolean visitRangeAux(Node<E> node, int dimension, double min, double max, double rmin, double rmax,
+            PointVisitor<? super E> visitor) {
+        if (min > rmax || rmin > max) {
+            return true;
+        }
+        if (min < rmin && max > rmax) {
+            return visitAll(node, visitor);
+        }
+        if (node.isLeaf()) {
+            for (E point : node.members) {
+                final double coord = point.getCoord(dimension);
+                if (coord >= min && coord <= max && !visitor.visit(point)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (node.dim == dimension) {
+            return visitRangeAux(node.left, dimension, min, max, rmin, node.split, visitor)
+                    && visitRangeAux(node.right, dimension, min, max, node.split, rmax, visitor);
+        }
+        return visitRangeAux(node.left, dimension, min, max, rmin, rmax, visitor)
+                && visitRangeAux(node.right, dimension, min, max, rmin, rmax, visitor);
     }
 
 }
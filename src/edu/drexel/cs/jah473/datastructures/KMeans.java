@@ -0,0 +1,489 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import edu.drexel.cs.jah473.datastructures.KDTree.Node;
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * Contains methods to cluster points with k-means, using the filtering
+ * algorithm of Kanungo et al. The points are indexed once in an
+ * {@link AggregateKDTree} that caches the sum, count and bounding box of every
+ * subtree. Each iteration then pushes the set of candidate centroids down the
+ * tree, dropping at each node every candidate that is farther than another
+ * candidate from all of the node's bounding box. Once a single candidate
+ * remains, the whole subtree is assigned to it using the cached sum and count,
+ * without visiting its points. Subtrees are filtered in parallel. <br>
+ * <br>
+ * Distances are squared Euclidean distances between the coordinates of the
+ * points, as k-means requires.
+ *
+ * @author Justin Horvitz
+ *
+ */
+public final class KMeans {
+
+    /* Sum, sum of squared norms, count and bounding box of a group of points */
+    private static final class Cell {
+        final int count;
+        final double[] max;
+        final double[] min;
+        final double[] sum;
+        final double sumOfSquares;
+
+        Cell(int count, double[] sum, double sumOfSquares, double[] min, double[] max) {
+            this.count = count;
+            this.sum = sum;
+            this.sumOfSquares = sumOfSquares;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /* Aggregates points into cells */
+    private static final class CellAggregator implements Aggregator<KDPoint, Cell> {
+        private final Cell identity;
+
+        CellAggregator(int k) {
+            final double[] min = new double[k];
+            final double[] max = new double[k];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            identity = new Cell(0, new double[k], 0, min, max);
+        }
+
+        @Override
+        public Cell combine(Cell left, Cell right) {
+            if (left.count == 0) {
+                return right;
+            }
+            if (right.count == 0) {
+                return left;
+            }
+            final int k = left.sum.length;
+            final double[] sum = new double[k];
+            final double[] min = new double[k];
+            final double[] max = new double[k];
+            for (int d = 0; d < k; d++) {
+                sum[d] = left.sum[d] + right.sum[d];
+                min[d] = Math.min(left.min[d], right.min[d]);
+                max[d] = Math.max(left.max[d], right.max[d]);
+            }
+            return new Cell(left.count + right.count, sum, left.sumOfSquares + right.sumOfSquares, min, max);
+        }
+
+        @Override
+        public Cell identity() {
+            return identity;
+        }
+
+        @Override
+        public Cell lift(KDPoint point) {
+            final double[] coords = point.getCoords();
+            double sumOfSquares = 0;
+            for (double coord : coords) {
+                sumOfSquares += coord * coord;
+            }
+            return new Cell(1, coords, sumOfSquares, coords, coords);
+        }
+    }
+
+    /* Points assigned to each centroid by one filtering pass over a subtree */
+    private static final class Totals {
+        double cost;
+        final int[] counts;
+        final double[][] sums;
+
+        Totals(int numClusters, int k) {
+            counts = new int[numClusters];
+            sums = new double[numClusters][k];
+        }
+
+        void add(Totals other) {
+            cost += other.cost;
+            for (int c = 0; c < counts.length; c++) {
+                counts[c] += other.counts[c];
+                for (int d = 0; d < sums[c].length; d++) {
+                    sums[c][d] += other.sums[c][d];
+                }
+            }
+        }
+    }
+
+    /* Filters a subtree, forking above a size threshold */
+    private static final class FilterTask extends RecursiveTask<Totals> {
+
+        private static final long serialVersionUID = -6712081537402453625L;
+
+        private final Node<IndexedPoint> node;
+        private final int[] candidates;
+        private final double[][] centroids;
+        private final int[] labels;
+
+        FilterTask(Node<IndexedPoint> node, int[] candidates, double[][] centroids, int[] labels) {
+            this.node = node;
+            this.candidates = candidates;
+            this.centroids = centroids;
+            this.labels = labels;
+        }
+
+        @Override
+        protected Totals compute() {
+            final Totals totals = new Totals(centroids.length, centroids[0].length);
+            if (node.count < PARALLEL_FILTER_THRESHOLD || node.isLeaf()) {
+                filter(node, candidates, centroids, totals, labels);
+                return totals;
+            }
+            final int[] survivors = prune((Cell) node.aggregate, candidates, centroids);
+            if (survivors.length == 1) {
+                assign(node, survivors[0], centroids, totals, labels);
+                return totals;
+            }
+            final FilterTask left = new FilterTask(node.left, survivors, centroids, labels);
+            final FilterTask right = new FilterTask(node.right, survivors, centroids, labels);
+            invokeAll(left, right);
+            totals.add(left.join());
+            totals.add(right.join());
+            return totals;
+        }
+    }
+
+    /* Subtrees smaller than this are filtered on a single thread */
+    private static final int PARALLEL_FILTER_THRESHOLD = 8_192;
+
+    /* Private constructor to prevent instantiation. */
+    private KMeans() {
+
+    }
+
+    /* Assigns a whole subtree to one centroid using its cached cell */
+    private static void assign(Node<IndexedPoint> node, int centroid, double[][] centroids, Totals totals,
+            int[] labels) {
+        final Cell cell = (Cell) node.aggregate;
+        final double[] center = centroids[centroid];
+        final double[] sum = totals.sums[centroid];
+        double dot = 0;
+        double norm = 0;
+        for (int d = 0; d < center.length; d++) {
+            sum[d] += cell.sum[d];
+            dot += center[d] * cell.sum[d];
+            norm += center[d] * center[d];
+        }
+        totals.counts[centroid] += cell.count;
+        totals.cost += Math.max(0, cell.sumOfSquares - 2 * dot + cell.count * norm);
+        if (labels != null) {
+            label(node, centroid, labels);
+        }
+    }
+
+    /**
+     * Clusters points with k-means, starting from centroids chosen with
+     * k-means++ seeding and using the common fork-join pool. See
+     * {@link #cluster(List, int, double[][], int, ForkJoinPool)}.
+     *
+     * @param points
+     *            the points to cluster
+     * @param k
+     *            the number of dimensions
+     * @param numClusters
+     *            the number of clusters
+     * @param maxIterations
+     *            the maximum number of iterations to run
+     * @param random
+     *            the source of randomness for seeding
+     * @return the clustering found
+     * @throws IllegalArgumentException
+     *             if numClusters is not between 1 and the number of points,
+     *             or maxIterations is negative
+     */
+    public static KMeansResult cluster(List<? extends KDPoint> points, int k, int numClusters, int maxIterations,
+            Random random) {
+        return cluster(points, k, numClusters, maxIterations, random, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Clusters points with k-means, starting from centroids chosen with
+     * k-means++ seeding and using the given fork-join pool. See
+     * {@link #seed(List, int, Random)} and
+     * {@link #cluster(List, int, double[][], int, ForkJoinPool)}.
+     *
+     * @param points
+     *            the points to cluster
+     * @param k
+     *            the number of dimensions
+     * @param numClusters
+     *            the number of clusters
+     * @param maxIterations
+     *            the maximum number of iterations to run
+     * @param random
+     *            the source of randomness for seeding
+     * @param pool
+     *            the pool in which to run the iterations
+     * @return the clustering found
+     * @throws IllegalArgumentException
+     *             if numClusters is not between 1 and the number of points,
+     *             or maxIterations is negative
+     */
+    public static KMeansResult cluster(List<? extends KDPoint> points, int k, int numClusters, int maxIterations,
+            Random random, ForkJoinPool pool) {
+        return cluster(points, k, seed(points, numClusters, random), maxIterations, pool);
+    }
+
+    /**
+     * Clusters points with k-means, starting from the given centroids and
+     * using the common fork-join pool. See
+     * {@link #cluster(List, int, double[][], int, ForkJoinPool)}.
+     *
+     * @param points
+     *            the points to cluster
+     * @param k
+     *            the number of dimensions
+     * @param centroids
+     *            the initial centroids, which are not modified
+     * @param maxIterations
+     *            the maximum number of iterations to run
+     * @return the clustering found
+     * @throws IllegalArgumentException
+     *             if no centroids are given, any centroid does not have k
+     *             coordinates, or maxIterations is negative
+     */
+    public static KMeansResult cluster(List<? extends KDPoint> points, int k, double[][] centroids,
+            int maxIterations) {
+        return cluster(points, k, centroids, maxIterations, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Clusters points with k-means, starting from the given centroids and
+     * using the given fork-join pool. Iterations stop once the centroids no
+     * longer change or after the maximum number of iterations. A centroid
+     * that is assigned no points keeps its position. Each point is then
+     * labeled with its nearest final centroid. Equidistant centroids may be
+     * broken differently from a brute force search.
+     *
+     * @param points
+     *            the points to cluster
+     * @param k
+     *            the number of dimensions
+     * @param centroids
+     *            the initial centroids, which are not modified
+     * @param maxIterations
+     *            the maximum number of iterations to run
+     * @param pool
+     *            the pool in which to run the iterations
+     * @return the clustering found
+     * @throws IllegalArgumentException
+     *             if no centroids are given, any centroid does not have k
+     *             coordinates, or maxIterations is negative
+     */
+    public static KMeansResult cluster(List<? extends KDPoint> points, int k, double[][] centroids,
+            int maxIterations, ForkJoinPool pool) {
+        if (centroids.length == 0) {
+            throw new IllegalArgumentException("at least one centroid is required");
+        }
+        for (double[] centroid : centroids) {
+            if (centroid.length != k) {
+                throw new IllegalArgumentException("wrong number of centroid coordinates");
+            }
+        }
+        if (maxIterations < 0) {
+            throw new IllegalArgumentException("maximum iterations cannot be negative");
+        }
+        final AggregateKDTree<IndexedPoint, Cell> tree = new AggregateKDTree<>(IndexedPoint.index(points), k,
+                Distances.sqEuclidean(k), new CellAggregator(k));
+        final int[] all = new int[centroids.length];
+        for (int c = 0; c < all.length; c++) {
+            all[c] = c;
+        }
+        double[][] current = new double[centroids.length][];
+        for (int c = 0; c < current.length; c++) {
+            current[c] = centroids[c].clone();
+        }
+        int iterations = 0;
+        boolean converged = false;
+        while (iterations < maxIterations && !converged) {
+            final Totals totals = pool.invoke(new FilterTask(tree.root, all, current, null));
+            iterations++;
+            final double[][] next = new double[current.length][];
+            for (int c = 0; c < next.length; c++) {
+                if (totals.counts[c] == 0) {
+                    next[c] = current[c];
+                    continue;
+                }
+                next[c] = new double[k];
+                for (int d = 0; d < k; d++) {
+                    next[c][d] = totals.sums[c][d] / totals.counts[c];
+                }
+            }
+            converged = Arrays.deepEquals(current, next);
+            current = next;
+        }
+        final int[] labels = new int[points.size()];
+        final Totals totals = pool.invoke(new FilterTask(tree.root, all, current, labels));
+        return new KMeansResult(current, labels, totals.cost, iterations, converged);
+    }
+
+    /* Filters a subtree on the calling thread */
+    private static void filter(Node<IndexedPoint> node, int[] candidates, double[][] centroids, Totals totals,
+            int[] labels) {
+        if (node.count == 0) {
+            return;
+        }
+        final int[] survivors = candidates.length == 1 ? candidates
+                : prune((Cell) node.aggregate, candidates, centroids);
+        if (survivors.length == 1) {
+            assign(node, survivors[0], centroids, totals, labels);
+            return;
+        }
+        if (!node.isLeaf()) {
+            filter(node.left, survivors, centroids, totals, labels);
+            filter(node.right, survivors, centroids, totals, labels);
+            return;
+        }
+        for (IndexedPoint point : node.members) {
+            int nearest = survivors[0];
+            double nearestDist = squaredDistance(centroids[nearest], point);
+            for (int i = 1; i < survivors.length; i++) {
+                final double dist = squaredDistance(centroids[survivors[i]], point);
+                if (dist < nearestDist) {
+                    nearest = survivors[i];
+                    nearestDist = dist;
+                }
+            }
+            final double[] sum = totals.sums[nearest];
+            for (int d = 0; d < sum.length; d++) {
+                sum[d] += point.getCoord(d);
+            }
+            totals.counts[nearest]++;
+            totals.cost += nearestDist;
+            if (labels != null) {
+                labels[point.index] = nearest;
+            }
+        }
+    }
+
+    /* Labels every point of a subtree with the given centroid */
+    private static void label(Node<IndexedPoint> node, int centroid, int[] labels) {
+        if (node.isLeaf()) {
+            for (IndexedPoint point : node.members) {
+                labels[point.index] = centroid;
+            }
+            return;
+        }
+        label(node.left, centroid, labels);
+        label(node.right, centroid, labels);
+    }
+
+    /*
+     * Drops every candidate that is no closer than the candidate nearest the
+     * middle of the cell to any point of the cell. A candidate z is dropped
+     * when the corner of the cell farthest in the direction from the best
+     * candidate towards z is still at least as close to the best candidate.
+     */
+    private static int[] prune(Cell cell, int[] candidates, double[][] centroids) {
+        final int k = cell.min.length;
+        int best = candidates[0];
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int candidate : candidates) {
+            double dist = 0;
+            for (int d = 0; d < k; d++) {
+                final double diff = centroids[candidate][d] - (cell.min[d] + cell.max[d]) / 2;
+                dist += diff * diff;
+            }
+            if (dist < bestDist) {
+                best = candidate;
+                bestDist = dist;
+            }
+        }
+        final double[] bestCentroid = centroids[best];
+        final int[] survivors = new int[candidates.length];
+        int numSurvivors = 0;
+        for (int candidate : candidates) {
+            if (candidate == best) {
+                survivors[numSurvivors++] = candidate;
+                continue;
+            }
+            final double[] centroid = centroids[candidate];
+            double candidateDist = 0;
+            double bestCornerDist = 0;
+            for (int d = 0; d < k; d++) {
+                final double corner = centroid[d] > bestCentroid[d] ? cell.max[d] : cell.min[d];
+                final double toCandidate = centroid[d] - corner;
+                final double toBest = bestCentroid[d] - corner;
+                candidateDist += toCandidate * toCandidate;
+                bestCornerDist += toBest * toBest;
+            }
+            if (candidateDist < bestCornerDist) {
+                survivors[numSurvivors++] = candidate;
+            }
+        }
+        return Arrays.copyOf(survivors, numSurvivors);
+    }
+
+    /**
+     * Chooses initial centroids with k-means++ seeding: the first centroid is
+     * a point chosen uniformly at random, and each next centroid is a point
+     * chosen with probability proportional to its squared distance from the
+     * nearest centroid chosen so far.
+     *
+     * @param points
+     *            the points to choose from
+     * @param numClusters
+     *            the number of centroids to choose
+     * @param random
+     *            the source of randomness
+     * @return the coordinates of the chosen centroids
+     * @throws IllegalArgumentException
+     *             if numClusters is not between 1 and the number of points
+     */
+    public static double[][] seed(List<? extends KDPoint> points, int numClusters, Random random) {
+        final int n = points.size();
+        if (numClusters < 1 || numClusters > n) {
+            throw new IllegalArgumentException("number of clusters must be between 1 and the number of points");
+        }
+        final double[][] centroids = new double[numClusters][];
+        centroids[0] = points.get(random.nextInt(n)).getCoords();
+        final double[] dists = new double[n];
+        for (int i = 0; i < n; i++) {
+            dists[i] = squaredDistance(centroids[0], points.get(i));
+        }
+        for (int c = 1; c < numClusters; c++) {
+            double total = 0;
+            for (double dist : dists) {
+                total += dist;
+            }
+            int chosen = n - 1;
+            if (total > 0) {
+                double target = random.nextDouble() * total;
+                for (int i = 0; i < n; i++) {
+                    target -= dists[i];
+                    if (target < 0) {
+                        chosen = i;
+                        break;
+                    }
+                }
+            } else {
+                chosen = random.nextInt(n);
+            }
+            centroids[c] = points.get(chosen).getCoords();
+            for (int i = 0; i < n; i++) {
+                dists[i] = Math.min(dists[i], squaredDistance(centroids[c], points.get(i)));
+            }
+        }
+        return centroids;
+    }
+
+    /* Squared Euclidean distance from a centroid to a point */
+    private static double squaredDistance(double[] centroid, KDPoint point) {
+        double dist = 0;
+        for (int d = 0; d < centroid.length; d++) {
+            final double diff = centroid[d] - point.getCoord(d);
+            dist += diff * diff;
+        }
+        return dist;
+    }
+}
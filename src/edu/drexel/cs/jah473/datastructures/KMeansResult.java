@@ -0,0 +1,56 @@
+package edu.drexel.cs.jah473.datastructures;
+
+/**
+ * The result of a k-means clustering. This class is utilized as the return
+ * type for
+ * {@link KMeans#cluster(java.util.List, int, double[][], int, java.util.concurrent.ForkJoinPool)}.
+ *
+ * @author Justin Horvitz
+ *
+ */
+public class KMeansResult {
+    /**
+     * The coordinates of the final centroid of each cluster.
+     */
+    public final double[][] centroids;
+
+    /**
+     * The cluster of each point, aligned to the list of points clustered.
+     */
+    public final int[] labels;
+
+    /**
+     * The sum of squared distances from each point to its centroid.
+     */
+    public final double cost;
+
+    /**
+     * The number of iterations run.
+     */
+    public final int iterations;
+
+    /**
+     * Whether the centroids stopped changing before the maximum number of
+     * iterations was reached.
+     */
+    public final boolean converged;
+
+    /* Package constructor */
+    KMeansResult(double[][] centroids, int[] labels, double cost, int iterations, boolean converged) {
+        this.centroids = centroids;
+        this.labels = labels;
+        this.cost = cost;
+        this.iterations = iterations;
+        this.converged = converged;
+    }
+
+    /**
+     * Returns a string representation of this result.
+     */
+    @Override
+    public String toString() {
+        return "KMeansResult [clusters=" + centroids.length + ", cost=" + cost + ", iterations=" + iterations
+                + ", converged=" + converged + "]";
+    }
+
+}
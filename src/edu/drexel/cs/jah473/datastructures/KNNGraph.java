@@ -0,0 +1,86 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.util.List;
+
+/**
+ * The k nearest neighbor graph of a set of points, in which each point is
+ * linked to the k other points closest to it. Points are identified by their
+ * index in {@link #points}, and the neighbors of each point are stored in flat
+ * primitive arrays, so even graphs of millions of points take little memory
+ * beyond the arrays themselves. This class is utilized as the return type for
+ * {@link KDTree#kNNGraph(int)}.
+ *
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the points
+ */
+public class KNNGraph<E> {
+    /**
+     * The points of the graph. A point's index in this list is its id.
+     */
+    public final List<E> points;
+
+    /**
+     * The number of neighbors of each point.
+     */
+    public final int k;
+
+    /**
+     * The ids of the neighbors of each point, sorted by distance. The id of
+     * the jth nearest neighbor of the point with id i is at index
+     * {@code i * k + j}.
+     */
+    public final int[] neighbors;
+
+    /**
+     * The distances to the neighbors of each point, at the same indices as in
+     * {@link #neighbors}.
+     */
+    public final double[] distances;
+
+    /* Package constructor */
+    KNNGraph(List<E> points, int k, int[] neighbors, double[] distances) {
+        this.points = points;
+        this.k = k;
+        this.neighbors = neighbors;
+        this.distances = distances;
+    }
+
+    /**
+     * Gets the distance from a point to one of its neighbors.
+     *
+     * @param point
+     *            the id of the point
+     * @param rank
+     *            the rank of the neighbor, from 0 for the nearest to k - 1 for
+     *            the farthest
+     * @return the distance from the point to its neighbor of the given rank
+     */
+    public double distance(int point, int rank) {
+        return distances[point * k + rank];
+    }
+
+    /**
+     * Gets the id of one of the neighbors of a point.
+     *
+     * @param point
+     *            the id of the point
+     * @param rank
+     *            the rank of the neighbor, from 0 for the nearest to k - 1 for
+     *            the farthest
+     * @return the id of the point's neighbor of the given rank
+     */
+    public int neighbor(int point, int rank) {
+        return neighbors[point * k + rank];
+    }
+
+    /**
+     * Returns a string representation of this graph.
+     */
+    @Override
+    public String toString() {
+        return "KNNGraph [points=" + points.size() + ", k=" + k + "]";
+    }
+
+}
@@ -0,0 +1,44 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.util.List;
+
+/**
+ * A wrapper class to represent the result of an approximate k-nearest neighbor
+ * search. The result is represented by a list of neighbors sorted by distance
+ * and a flag indicating whether the list is guaranteed to be exact. This class
+ * is utilized as a return type for
+ * {@link KDTree#approximateKNN(edu.drexel.cs.jah473.distance.KDPoint, int, double, int)}.
+ * 
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the neighbors found
+ */
+public class KNNResult<E> {
+    /**
+     * The neighbors found, sorted by distance.
+     */
+    public final List<E> neighbors;
+
+    /**
+     * Whether the search visited every part of the tree an exact search would
+     * have visited. If {@code true}, the neighbors are the exact k nearest
+     * neighbors; otherwise, they may be approximate.
+     */
+    public final boolean exact;
+
+    /* Package constructor */
+    KNNResult(List<E> neighbors, boolean exact) {
+        this.neighbors = neighbors;
+        this.exact = exact;
+    }
+
+    /**
+     * Returns a string representation of this result.
+     */
+    @Override
+    public String toString() {
+        return "KNNResult [neighbors=" + neighbors + ", exact=" + exact + "]";
+    }
+
+}
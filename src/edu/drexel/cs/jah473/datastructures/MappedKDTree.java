@@ -0,0 +1,440 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.function.ToLongFunction;
+
+import edu.drexel.cs.jah473.datastructures.KDTree.Node;
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * A read-only KD tree queried directly from a memory-mapped file. Files are
+ * written from an existing {@link KDTree} with
+ * {@link KDTree#export(Path, ToLongFunction)}, which assigns each data point a
+ * long payload id. Opening a file only maps it into memory, so even very large
+ * trees open almost instantly, the data does not occupy the Java heap, and
+ * processes that map the same file share the operating system's page cache.
+ * Queries return the payload ids of the points found. <br>
+ * <br>
+ * The file consists of a header, a flattened array of nodes in preorder, the
+ * coordinates of every point stored contiguously leaf by leaf, and a column of
+ * payload ids in the same order as the coordinates. All values are big-endian.
+ * <br>
+ * <br>
+ * The mapping is released when this object is garbage collected; calling
+ * {@link #close()} closes the underlying file, after which queries may still
+ * be run.
+ * 
+ * @author Justin Horvitz
+ *
+ */
+public class MappedKDTree implements Closeable {
+
+    /* Candidate neighbor found during kNN and radius searches */
+    static final class Candidate implements Comparable<Candidate> {
+        long point;
+        double dist;
+
+        Candidate(long point, double dist) {
+            this.point = point;
+            this.dist = dist;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(dist, other.dist);
+        }
+    }
+
+    /* Doubles or longs per mapped chunk, as a power of 2 */
+    private static final int CHUNK_SHIFT = 27;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int MAGIC = 0x4B445452;
+    private static final int NODE_BYTES = 24;
+    /* Nodes per mapped chunk, as a power of 2 */
+    private static final int NODE_CHUNK_SHIFT = 25;
+    private static final int NODE_CHUNK_MASK = (1 << NODE_CHUNK_SHIFT) - 1;
+    private static final int VERSION = 1;
+
+    private final FileChannel channel;
+    private final DoubleBuffer[] coords;
+    private final DistanceFunction distFunc;
+    private final LongBuffer[] ids;
+    private final int k;
+    private final ByteBuffer[] nodes;
+    private final long size;
+
+    /* Opens and maps a KD tree file */
+    private MappedKDTree(Path file, DistanceFunction distanceFunction) throws IOException {
+        this.distFunc = distanceFunction;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a KD tree file");
+            }
+            this.k = header.getInt();
+            final int numNodes = header.getInt();
+            this.size = header.getLong();
+            final long coordsStart = HEADER_BYTES + (long) NODE_BYTES * numNodes;
+            final long idsStart = coordsStart + Double.BYTES * size * k;
+            if (channel.size() != idsStart + Long.BYTES * size) {
+                throw new IOException(file + " is truncated or corrupt");
+            }
+            this.nodes = new ByteBuffer[chunks(numNodes, NODE_CHUNK_SHIFT)];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = mapChunk(HEADER_BYTES, NODE_BYTES, numNodes, i, NODE_CHUNK_SHIFT);
+            }
+            this.coords = new DoubleBuffer[chunks(size * k, CHUNK_SHIFT)];
+            for (int i = 0; i < coords.length; i++) {
+                coords[i] = mapChunk(coordsStart, Double.BYTES, size * k, i, CHUNK_SHIFT).asDoubleBuffer();
+            }
+            this.ids = new LongBuffer[chunks(size, CHUNK_SHIFT)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mapChunk(idsStart, Long.BYTES, size, i, CHUNK_SHIFT).asLongBuffer();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /* Number of chunks of 2^shift values needed to hold the given number */
+    private static int chunks(long values, int shift) {
+        return (int) ((values + (1L << shift) - 1) >>> shift);
+    }
+
+    /* Counts the nodes in a subtree */
+    private static <E extends KDPoint> int countNodes(Node<E> node) {
+        return node.isLeaf() ? 1 : 1 + countNodes(node.left) + countNodes(node.right);
+    }
+
+    /* Offset of a node's record within its chunk */
+    private static int nodeOffset(int node) {
+        return (node & NODE_CHUNK_MASK) * NODE_BYTES;
+    }
+
+    /*
+     * Writes the subtree's nodes in preorder. Each record holds the splitting
+     * dimension, or -1 for a leaf; the index of the right child, or the number
+     * of points in a leaf; the index of a leaf's first point; and the split.
+     * Returns the index of the next point.
+     */
+    private static <E extends KDPoint> long writeNodes(Node<E> node, DataOutputStream out, int[] nextNode,
+            long nextPoint) throws IOException {
+        nextNode[0]++;
+        if (node.isLeaf()) {
+            out.writeInt(-1);
+            out.writeInt(node.members.size());
+            out.writeLong(nextPoint);
+            out.writeDouble(0);
+            return nextPoint + node.members.size();
+        }
+        final int rightIndex = nextNode[0] + countNodes(node.left);
+        out.writeInt(node.dim);
+        out.writeInt(rightIndex);
+        out.writeLong(0);
+        out.writeDouble(node.split);
+        nextPoint = writeNodes(node.left, out, nextNode, nextPoint);
+        return writeNodes(node.right, out, nextNode, nextPoint);
+    }
+
+    /**
+     * Opens a KD tree file for querying.
+     * 
+     * @param file
+     *            the file, as written by
+     *            {@link KDTree#export(Path, ToLongFunction)}
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @return a read-only view of the tree in the file
+     * @throws IOException
+     *             if the file cannot be read or is not a KD tree file
+     */
+    public static MappedKDTree open(Path file, DistanceFunction distanceFunction) throws IOException {
+        return new MappedKDTree(file, distanceFunction);
+    }
+
+    /* Writes the tree to a file; see KDTree.export */
+    static <E extends KDPoint> void write(KDTree<E> tree, Path file, ToLongFunction<? super E> ids)
+            throws IOException {
+        List<E> data = new ArrayList<>(tree.size);
+        KDTree.express(tree.root, data);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tree.k);
+            out.writeInt(countNodes(tree.root));
+            out.writeLong(data.size());
+            writeNodes(tree.root, out, new int[1], 0);
+            for (E point : data) {
+                for (int i = 0; i < tree.k; i++) {
+                    out.writeDouble(point.getCoord(i));
+                }
+            }
+            for (E point : data) {
+                out.writeLong(ids.applyAsLong(point));
+            }
+        }
+    }
+
+    /**
+     * Closes the underlying file. The mapping itself remains valid until this
+     * object is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Gets the number of dimensions in this tree.
+     * 
+     * @return the number of dimensions in this tree
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given center point.
+     * 
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @return the payload ids, sorted by distance, of the k data points in this
+     *         tree closest to the center point
+     */
+    public long[] kNN(KDPoint center, int k) {
+        checkCenter(center);
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        if (k > size) {
+            throw new IllegalArgumentException("k is greater than the number of points in this tree");
+        }
+        if (k == 0) {
+            return new long[0];
+        }
+        Queue<Candidate> neighbors = new PriorityQueue<>(k, Collections.reverseOrder());
+        kNNAux(center, k, 0, center.getCoords(), new double[this.k], neighbors);
+        List<Candidate> sorted = new ArrayList<>(neighbors);
+        Collections.sort(sorted);
+        return toIds(sorted);
+    }
+
+    /**
+     * Finds all points within the given bounding box. The number of parameters
+     * given for the bounding box must be twice the number of dimensions of this
+     * tree. The bounding box is inclusive.
+     * 
+     * @param box
+     *            the bounding box in the format minD0, maxD0, minD1, maxD1...
+     * @return the payload ids of all points in this tree within the given
+     *         bounding box
+     */
+    public long[] pointsInBox(double... box) {
+        if (box.length != k * 2) {
+            throw new IllegalArgumentException("wrong number of bounding box parameters");
+        }
+        List<Candidate> collector = new ArrayList<>();
+        pointsInBoxAux(0, box, collector);
+        return toIds(collector);
+    }
+
+    /**
+     * Finds all data points in this tree within a certain distance of the given
+     * center point.
+     * 
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @return the payload ids, sorted by distance, of all data points in this
+     *         tree within the specified distance from the center point
+     */
+    public long[] radiusSearch(KDPoint center, double radius) {
+        checkCenter(center);
+        KDTree.checkRadius(radius);
+        List<Candidate> pointsWithin = new ArrayList<>();
+        radiusAux(center, radius, 0, center.getCoords(), new double[k], pointsWithin);
+        Collections.sort(pointsWithin);
+        return toIds(pointsWithin);
+    }
+
+    /**
+     * Returns the number of data points in this tree.
+     * 
+     * @return the number of data points in this tree
+     */
+    public long size() {
+        return size;
+    }
+
+    /* Validates the dimensions of a search center */
+    private void checkCenter(KDPoint center) {
+        if (center.getK() < k) {
+            throw new IllegalArgumentException("KDPoint " + center + " has fewer than " + k + " dimensions");
+        }
+    }
+
+    /* Reads a coordinate of the point at the given position */
+    private double coord(long point, int dim) {
+        final long index = point * k + dim;
+        return coords[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+    }
+
+    /* Reads all coordinates of the point at the given position into scratch */
+    private double[] coords(long point, double[] scratch) {
+        for (int i = 0; i < k; i++) {
+            scratch[i] = coord(point, i);
+        }
+        return scratch;
+    }
+
+    /* Node accessors, see writeNodes for the record layout */
+    private int dim(int node) {
+        return nodes[node >>> NODE_CHUNK_SHIFT].getInt(nodeOffset(node));
+    }
+
+    private long leafCount(int node) {
+        return nodes[node >>> NODE_CHUNK_SHIFT].getInt(nodeOffset(node) + 4);
+    }
+
+    private long leafStart(int node) {
+        return nodes[node >>> NODE_CHUNK_SHIFT].getLong(nodeOffset(node) + 8);
+    }
+
+    private int right(int node) {
+        return nodes[node >>> NODE_CHUNK_SHIFT].getInt(nodeOffset(node) + 4);
+    }
+
+    private double split(int node) {
+        return nodes[node >>> NODE_CHUNK_SHIFT].getDouble(nodeOffset(node) + 16);
+    }
+
+    /* Recursive helper function for kNN search, as in KDTree */
+    private void kNNAux(KDPoint center, int k, int node, double[] restrictions, double[] scratch,
+            Queue<Candidate> neighbors) {
+        final int dim = dim(node);
+        if (dim < 0) {
+            final long start = leafStart(node);
+            final long end = start + leafCount(node);
+            for (long point = start; point < end; point++) {
+                double dist = distFunc.distanceTo(center, coords(point, scratch));
+                if (neighbors.size() < k) {
+                    neighbors.add(new Candidate(point, dist));
+                } else if (dist < neighbors.peek().dist) {
+                    Candidate evicted = neighbors.remove();
+                    evicted.point = point;
+                    evicted.dist = dist;
+                    neighbors.add(evicted);
+                }
+            }
+            return;
+        }
+        final double split = split(node);
+        final boolean wentRight = center.getCoord(dim) > split;
+        kNNAux(center, k, wentRight ? right(node) : node + 1, restrictions, scratch, neighbors);
+        final double radius = neighbors.size() < k ? Double.POSITIVE_INFINITY : neighbors.peek().dist;
+        final double restriction = restrictions[dim];
+        restrictions[dim] = split;
+        if (distFunc.distanceTo(center, restrictions) < radius || neighbors.size() < k) {
+            kNNAux(center, k, wentRight ? node + 1 : right(node), restrictions, scratch, neighbors);
+        }
+        restrictions[dim] = restriction;
+    }
+
+    /* Recursive helper function for bounding box search */
+    private void pointsInBoxAux(int node, double[] box, List<Candidate> collector) {
+        final int dim = dim(node);
+        if (dim < 0) {
+            final long start = leafStart(node);
+            final long end = start + leafCount(node);
+            for (long point = start; point < end; point++) {
+                boolean inside = true;
+                for (int i = 0; i < k; i++) {
+                    final double coord = coord(point, i);
+                    if (coord < box[i * 2] || coord > box[i * 2 + 1]) {
+                        inside = false;
+                        break;
+                    }
+                }
+                if (inside) {
+                    collector.add(new Candidate(point, 0));
+                }
+            }
+            return;
+        }
+        final double split = split(node);
+        if (box[dim * 2] <= split) {
+            pointsInBoxAux(node + 1, box, collector);
+        }
+        if (box[dim * 2 + 1] > split) {
+            pointsInBoxAux(right(node), box, collector);
+        }
+    }
+
+    /* Recursive helper function for radius search, as in KDTree */
+    private void radiusAux(KDPoint center, double radius, int node, double[] restrictions, double[] scratch,
+            List<Candidate> pointsWithin) {
+        final int dim = dim(node);
+        if (dim < 0) {
+            final long start = leafStart(node);
+            final long end = start + leafCount(node);
+            for (long point = start; point < end; point++) {
+                double dist = distFunc.distanceTo(center, coords(point, scratch));
+                if (dist <= radius) {
+                    pointsWithin.add(new Candidate(point, dist));
+                }
+            }
+            return;
+        }
+        final double split = split(node);
+        final boolean wentRight = center.getCoord(dim) > split;
+        radiusAux(center, radius, wentRight ? right(node) : node + 1, restrictions, scratch, pointsWithin);
+        final double restriction = restrictions[dim];
+        restrictions[dim] = split;
+        if (distFunc.distanceTo(center, restrictions) <= radius) {
+            radiusAux(center, radius, wentRight ? node + 1 : right(node), restrictions, scratch, pointsWithin);
+        }
+        restrictions[dim] = restriction;
+    }
+
+    /* Maps one chunk, of 2^shift values, of a section of values */
+    private MappedByteBuffer mapChunk(long sectionStart, int valueBytes, long numValues, int chunk, int shift)
+            throws IOException {
+        final long first = (long) chunk << shift;
+        final long count = Math.min(numValues - first, 1L << shift);
+        return channel.map(MapMode.READ_ONLY, sectionStart + first * valueBytes, count * valueBytes);
+    }
+
+    /* Looks up the payload ids of the given candidates */
+    private long[] toIds(List<Candidate> candidates) {
+        long[] result = new long[candidates.size()];
+        for (int i = 0; i < result.length; i++) {
+            final long point = candidates.get(i).point;
+            result[i] = ids[(int) (point >>> CHUNK_SHIFT)].get((int) (point & CHUNK_MASK));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+package edu.drexel.cs.jah473.datastructures;
+
+/**
+ * A pair of data points and the distance between them. This class is utilized
+ * as the result type of the spatial joins and closest pair searches of
+ * {@link KDTree}, such as {@link KDTree#nearestNeighborJoin(KDTree)}.
+ *
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the first point
+ * @param <F>
+ *            the type of the second point
+ */
+public class NeighborPair<E, F> {
+    /**
+     * The first point of the pair.
+     */
+    public final E first;
+
+    /**
+     * The second point of the pair.
+     */
+    public final F second;
+
+    /**
+     * The distance between the two points.
+     */
+    public final double dist;
+
+    /* Package constructor */
+    NeighborPair(E first, F second, double dist) {
+        this.first = first;
+        this.second = second;
+        this.dist = dist;
+    }
+
+    /**
+     * Returns a string representation of this pair.
+     */
+    @Override
+    public String toString() {
+        return "NeighborPair [first=" + first + ", second=" + second + ", dist=" + dist + "]";
+    }
+
+}
@@ -0,0 +1,673 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToLongFunction;
+
+import edu.drexel.cs.jah473.datastructures.MappedKDTree.Candidate;
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * A KD tree that keeps its coordinates, payload ids and nodes in direct
+ * buffers outside the Java heap, for data sets too large to hold as
+ * {@link KDPoint} objects. Points are added as raw coordinates with a long
+ * payload id, and searches return the payload ids of the points found, as with
+ * {@link MappedKDTree}. Each point costs 8 bytes per coordinate plus 8 for its
+ * id, with no per-object overhead and nothing for the garbage collector to
+ * trace. <br>
+ * <br>
+ * The tree is built in place over the stored points: each node splits its
+ * range of points at the median index, on the dimensions in turn by depth, so
+ * the nodes need no pointers and store only their splitting values, in heap
+ * order. Points added after the tree is built are indexed by rebuilding the
+ * whole tree before the next search, so all points should be added before
+ * searching. <br>
+ * <br>
+ * The memory is freed as soon as {@link #close()} is called, after which the
+ * tree can no longer be used. Direct memory is limited by the
+ * {@code -XX:MaxDirectMemorySize} option of the JVM, which defaults to the
+ * maximum heap size. The tree is safe to share between threads: searches run
+ * concurrently, while adding points, building and closing wait for running
+ * searches to finish and hold off new ones.
+ *
+ * @author Justin Horvitz
+ *
+ */
+public class OffHeapKDTree implements Closeable {
+
+    /* Builds independent subtrees in parallel */
+    private final class BuildTask extends RecursiveAction {
+
+        private static final long serialVersionUID = -2916263617428013522L;
+
+        private final long node;
+        private final int depth;
+        private final long lo;
+        private final long hi;
+
+        BuildTask(long node, int depth, long lo, long hi) {
+            this.node = node;
+            this.depth = depth;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo < PARALLEL_BUILD_THRESHOLD) {
+                build(node, depth, lo, hi);
+                return;
+            }
+            final long mid = buildNode(node, depth, lo, hi);
+            invokeAll(new BuildTask(node * 2 + 1, depth + 1, lo, mid), new BuildTask(node * 2 + 2, depth + 1, mid, hi));
+        }
+    }
+
+    /* Values per buffer chunk, as a power of 2 */
+    private static final int CHUNK_SHIFT = 20;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    /* Frees a direct buffer immediately, or null if the JDK does not allow it */
+    private static final Method INVOKE_CLEANER;
+    /* Subtrees smaller than this are built on the current thread */
+    private static final int PARALLEL_BUILD_THRESHOLD = 65_536;
+    /* Ranges at or below this size are sorted rather than partitioned */
+    private static final int SELECT_CUTOFF = 16;
+    private static final Object UNSAFE;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /* Number of chunks needed to hold the given number of values */
+    private static int chunks(long values) {
+        return (int) ((values + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+
+    /* Allocates a chunk of 8-byte values in native byte order */
+    private static ByteBuffer allocate() {
+        return ByteBuffer.allocateDirect(Long.BYTES << CHUNK_SHIFT).order(ByteOrder.nativeOrder());
+    }
+
+    /* Frees the memory of direct buffers now if possible, else leaves it to the garbage collector */
+    private static void free(ByteBuffer[] buffers) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        for (ByteBuffer buffer : buffers) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // the buffer is freed when it is garbage collected
+            }
+        }
+    }
+
+    private boolean built = true;
+    private boolean closed = false;
+    private ByteBuffer[] coords = new ByteBuffer[0];
+    private final DistanceFunction distFunc;
+    private ByteBuffer[] ids = new ByteBuffer[0];
+    private final int k;
+    /* Held shared by searches and exclusively by anything that changes the buffers */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int pointsPerLeaf;
+    private long size = 0;
+    private ByteBuffer[] splits = new ByteBuffer[0];
+
+    /**
+     * Constructs a new, empty off-heap KD tree.
+     *
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     */
+    public OffHeapKDTree(int k, DistanceFunction distanceFunction) {
+        this(k, 5, distanceFunction);
+    }
+
+    /**
+     * Constructs a new, empty off-heap KD tree with the given number of data
+     * points per leaf node.
+     *
+     * @param k
+     *            the number of dimensions
+     * @param pointsPerLeaf
+     *            the maximum number of data points to store per leaf node
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     */
+    public OffHeapKDTree(int k, int pointsPerLeaf, DistanceFunction distanceFunction) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be greater than or equal to 1");
+        }
+        if (pointsPerLeaf < 1) {
+            throw new IllegalArgumentException("Points per leaf must be greater than or equal to 1");
+        }
+        this.k = k;
+        this.pointsPerLeaf = pointsPerLeaf;
+        this.distFunc = distanceFunction;
+    }
+
+    /**
+     * Adds a data point to this tree, copying its coordinates.
+     *
+     * @param id
+     *            the payload id searches return for the point
+     * @param coords
+     *            the coordinates of the point
+     * @throws IllegalArgumentException
+     *             if fewer than k coordinates are given
+     * @throws IllegalStateException
+     *             if this tree has been closed
+     */
+    public void add(long id, double... coords) {
+        if (coords.length < k) {
+            throw new IllegalArgumentException("Point has fewer than " + k + " dimensions");
+        }
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (chunks(size + 1) > ids.length) {
+                ids = Arrays.copyOf(ids, ids.length + 1);
+                ids[ids.length - 1] = allocate();
+            }
+            while (chunks((size + 1) * k) > this.coords.length) {
+                this.coords = Arrays.copyOf(this.coords, this.coords.length + 1);
+                this.coords[this.coords.length - 1] = allocate();
+            }
+            for (int i = 0; i < k; i++) {
+                setCoord(size, i, coords[i]);
+            }
+            setId(size, id);
+            size++;
+            built = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds every point in a collection to this tree, copying their
+     * coordinates.
+     *
+     * @param <E>
+     *            the type of the points
+     * @param points
+     *            the points to add
+     * @param ids
+     *            function that gives the payload id of a point
+     * @throws IllegalArgumentException
+     *             if a point has fewer than k dimensions
+     * @throws IllegalStateException
+     *             if this tree has been closed
+     */
+    public <E extends KDPoint> void addAll(Collection<E> points, ToLongFunction<? super E> ids) {
+        for (E point : points) {
+            add(ids.applyAsLong(point), point.getCoords());
+        }
+    }
+
+    /**
+     * Builds the tree over the points added so far, on the calling thread.
+     * Searches build the tree first if needed, so calling this is only
+     * necessary to control when the work is done.
+     *
+     * @throws IllegalStateException
+     *             if this tree has been closed
+     */
+    public void build() {
+        build(null);
+    }
+
+    /**
+     * Builds the tree over the points added so far, building independent
+     * subtrees in parallel on the given fork-join pool.
+     *
+     * @param pool
+     *            the pool in which to build the tree, or {@code null} to build
+     *            on the calling thread
+     * @throws IllegalStateException
+     *             if this tree has been closed
+     */
+    public void build(ForkJoinPool pool) {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (built) {
+                return;
+            }
+            int depth = 0;
+            for (long len = size; len > pointsPerLeaf; len -= len / 2) {
+                depth++;
+            }
+            free(splits);
+            splits = new ByteBuffer[chunks((1L << depth) - 1)];
+            for (int i = 0; i < splits.length; i++) {
+                splits[i] = allocate();
+            }
+            if (pool == null) {
+                build(0, 0, 0, size);
+            } else {
+                pool.invoke(new BuildTask(0, 0, 0, size));
+            }
+            built = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Frees the memory held by this tree, after waiting for any searches in
+     * progress to finish. The tree cannot be used afterwards. On a JDK that
+     * does not allow direct buffers to be freed explicitly, the memory is left
+     * to the garbage collector instead.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            free(coords);
+            free(ids);
+            free(splits);
+            coords = null;
+            ids = null;
+            splits = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of dimensions in this tree.
+     *
+     * @return the number of dimensions in this tree
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given center point.
+     *
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @return the payload ids, sorted by distance, of the k data points in this
+     *         tree closest to the center point
+     * @throws IllegalStateException
+     *             if this tree has been closed
+     */
+    public long[] kNN(KDPoint center, int k) {
+        checkCenter(center);
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        lockBuilt();
+        try {
+            if (k > size) {
+                throw new IllegalArgumentException("k is greater than the number of points in this tree");
+            }
+            if (k == 0) {
+                return new long[0];
+            }
+            Queue<Candidate> neighbors = new PriorityQueue<>(k, Collections.reverseOrder());
+            kNNAux(center, k, 0, 0, 0, size, center.getCoords(), new double[this.k], neighbors);
+            List<Candidate> sorted = new ArrayList<>(neighbors);
+            Collections.sort(sorted);
+            return toIds(sorted);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds all points within the given bounding box. The number of parameters
+     * given for the bounding box must be twice the number of dimensions of this
+     * tree. The bounding box is inclusive.
+     *
+     * @param box
+     *            the bounding box in the format minD0, maxD0, minD1, maxD1...
+     * @return the payload ids of all points in this tree within the given
+     *         bounding box
+     * @throws IllegalStateException
+     *             if this tree has been closed
+     */
+    public long[] pointsInBox(double... box) {
+        if (box.length != k * 2) {
+            throw new IllegalArgumentException("wrong number of bounding box parameters");
+        }
+        lockBuilt();
+        try {
+            List<Candidate> collector = new ArrayList<>();
+            pointsInBoxAux(0, 0, 0, size, box, collector);
+            return toIds(collector);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds all data points in this tree within a certain distance of the given
+     * center point.
+     *
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @return the payload ids, sorted by distance, of all data points in this
+     *         tree within the specified distance from the center point
+     * @throws IllegalStateException
+     *             if this tree has been closed
+     */
+    public long[] radiusSearch(KDPoint center, double radius) {
+        checkCenter(center);
+        KDTree.checkRadius(radius);
+        lockBuilt();
+        try {
+            List<Candidate> pointsWithin = new ArrayList<>();
+            radiusAux(center, radius, 0, 0, 0, size, center.getCoords(), new double[k], pointsWithin);
+            Collections.sort(pointsWithin);
+            return toIds(pointsWithin);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of data points in this tree.
+     *
+     * @return the number of data points in this tree
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Builds the subtree over points[lo, hi) rooted at the given node */
+    private void build(long node, int depth, long lo, long hi) {
+        if (hi - lo > pointsPerLeaf) {
+            final long mid = buildNode(node, depth, lo, hi);
+            build(node * 2 + 1, depth + 1, lo, mid);
+            build(node * 2 + 2, depth + 1, mid, hi);
+        }
+    }
+
+    /*
+     * Partitions points[lo, hi) around its median on the node's dimension and
+     * records the median as the node's split. Returns the index of the first
+     * point of the right child.
+     */
+    private long buildNode(long node, int depth, long lo, long hi) {
+        final int dim = depth % k;
+        final long mid = lo + (hi - lo) / 2;
+        select(lo, hi, mid, dim);
+        splits[(int) (node >>> CHUNK_SHIFT)].putDouble((int) (node & CHUNK_MASK) * Double.BYTES, coord(mid, dim));
+        return mid;
+    }
+
+    /* Validates the dimensions of a search center */
+    private void checkCenter(KDPoint center) {
+        if (center.getK() < k) {
+            throw new IllegalArgumentException("KDPoint " + center + " has fewer than " + k + " dimensions");
+        }
+    }
+
+    /* Rejects calls after the memory has been freed */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Tree has been closed");
+        }
+    }
+
+    /* Reads a coordinate of the point at the given position */
+    private double coord(long point, int dim) {
+        final long index = point * k + dim;
+        return coords[(int) (index >>> CHUNK_SHIFT)].getDouble((int) (index & CHUNK_MASK) * Double.BYTES);
+    }
+
+    /* Reads all coordinates of the point at the given position into scratch */
+    private double[] coords(long point, double[] scratch) {
+        for (int i = 0; i < k; i++) {
+            scratch[i] = coord(point, i);
+        }
+        return scratch;
+    }
+
+    /* Reads the payload id of the point at the given position */
+    private long id(long point) {
+        return ids[(int) (point >>> CHUNK_SHIFT)].getLong((int) (point & CHUNK_MASK) * Long.BYTES);
+    }
+
+    /*
+     * Recursive helper function for kNN search, as in KDTree. Points equal to
+     * the split may lie on either side, so both sides are bounded inclusively.
+     */
+    private void kNNAux(KDPoint center, int k, long node, int depth, long lo, long hi, double[] restrictions,
+            double[] scratch, Queue<Candidate> neighbors) {
+        if (hi - lo <= pointsPerLeaf) {
+            for (long point = lo; point < hi; point++) {
+                double dist = distFunc.distanceTo(center, coords(point, scratch));
+                if (neighbors.size() < k) {
+                    neighbors.add(new Candidate(point, dist));
+                } else if (dist < neighbors.peek().dist) {
+                    Candidate evicted = neighbors.remove();
+                    evicted.point = point;
+                    evicted.dist = dist;
+                    neighbors.add(evicted);
+                }
+            }
+            return;
+        }
+        final int dim = depth % this.k;
+        final long mid = lo + (hi - lo) / 2;
+        final double split = split(node);
+        final boolean wentRight = center.getCoord(dim) > split;
+        if (wentRight) {
+            kNNAux(center, k, node * 2 + 2, depth + 1, mid, hi, restrictions, scratch, neighbors);
+        } else {
+            kNNAux(center, k, node * 2 + 1, depth + 1, lo, mid, restrictions, scratch, neighbors);
+        }
+        final double radius = neighbors.size() < k ? Double.POSITIVE_INFINITY : neighbors.peek().dist;
+        final double restriction = restrictions[dim];
+        restrictions[dim] = split;
+        if (distFunc.distanceTo(center, restrictions) < radius || neighbors.size() < k) {
+            if (wentRight) {
+                kNNAux(center, k, node * 2 + 1, depth + 1, lo, mid, restrictions, scratch, neighbors);
+            } else {
+                kNNAux(center, k, node * 2 + 2, depth + 1, mid, hi, restrictions, scratch, neighbors);
+            }
+        }
+        restrictions[dim] = restriction;
+    }
+
+    /*
+     * Takes the read lock for a search, first building the tree if needed.
+     * Throws, without holding the lock, if the tree has been closed.
+     */
+    private void lockBuilt() {
+        lock.readLock().lock();
+        while (closed || !built) {
+            lock.readLock().unlock();
+            build();
+            lock.readLock().lock();
+        }
+    }
+
+    /* Recursive helper function for bounding box search */
+    private void pointsInBoxAux(long node, int depth, long lo, long hi, double[] box, List<Candidate> collector) {
+        if (hi - lo <= pointsPerLeaf) {
+            for (long point = lo; point < hi; point++) {
+                boolean inside = true;
+                for (int i = 0; i < k; i++) {
+                    final double coord = coord(point, i);
+                    if (coord < box[i * 2] || coord > box[i * 2 + 1]) {
+                        inside = false;
+                        break;
+                    }
+                }
+                if (inside) {
+                    collector.add(new Candidate(point, 0));
+                }
+            }
+            return;
+        }
+        final int dim = depth % k;
+        final long mid = lo + (hi - lo) / 2;
+        final double split = split(node);
+        if (box[dim * 2] <= split) {
+            pointsInBoxAux(node * 2 + 1, depth + 1, lo, mid, box, collector);
+        }
+        if (box[dim * 2 + 1] >= split) {
+            pointsInBoxAux(node * 2 + 2, depth + 1, mid, hi, box, collector);
+        }
+    }
+
+    /* Recursive helper function for radius search, as in KDTree */
+    private void radiusAux(KDPoint center, double radius, long node, int depth, long lo, long hi,
+            double[] restrictions, double[] scratch, List<Candidate> pointsWithin) {
+        if (hi - lo <= pointsPerLeaf) {
+            for (long point = lo; point < hi; point++) {
+                double dist = distFunc.distanceTo(center, coords(point, scratch));
+                if (dist <= radius) {
+                    pointsWithin.add(new Candidate(point, dist));
+                }
+            }
+            return;
+        }
+        final int dim = depth % k;
+        final long mid = lo + (hi - lo) / 2;
+        final double split = split(node);
+        final boolean wentRight = center.getCoord(dim) > split;
+        if (wentRight) {
+            radiusAux(center, radius, node * 2 + 2, depth + 1, mid, hi, restrictions, scratch, pointsWithin);
+        } else {
+            radiusAux(center, radius, node * 2 + 1, depth + 1, lo, mid, restrictions, scratch, pointsWithin);
+        }
+        final double restriction = restrictions[dim];
+        restrictions[dim] = split;
+        if (distFunc.distanceTo(center, restrictions) <= radius) {
+            if (wentRight) {
+                radiusAux(center, radius, node * 2 + 1, depth + 1, lo, mid, restrictions, scratch, pointsWithin);
+            } else {
+                radiusAux(center, radius, node * 2 + 2, depth + 1, mid, hi, restrictions, scratch, pointsWithin);
+            }
+        }
+        restrictions[dim] = restriction;
+    }
+
+    /*
+     * Rearranges points[lo, hi) so that the point at target has its sorted
+     * rank on the given dimension, with no greater coordinates before it and
+     * no smaller ones after it. Three-way partitioning keeps runs of equal
+     * coordinates from degrading the selection.
+     */
+    private void select(long lo, long hi, long target, int dim) {
+        while (hi - lo > SELECT_CUTOFF) {
+            final long middle = lo + (hi - lo) / 2;
+            final double a = coord(lo, dim);
+            final double b = coord(middle, dim);
+            final double c = coord(hi - 1, dim);
+            final double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            long lt = lo;
+            long gt = hi;
+            long i = lo;
+            while (i < gt) {
+                final double value = coord(i, dim);
+                if (value < pivot) {
+                    swap(lt++, i++);
+                } else if (value > pivot) {
+                    swap(i, --gt);
+                } else {
+                    i++;
+                }
+            }
+            if (target < lt) {
+                hi = lt;
+            } else if (target >= gt) {
+                lo = gt;
+            } else {
+                return;
+            }
+        }
+        for (long i = lo + 1; i < hi; i++) {
+            for (long j = i; j > lo && coord(j - 1, dim) > coord(j, dim); j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    /* Writes a coordinate of the point at the given position */
+    private void setCoord(long point, int dim, double value) {
+        final long index = point * k + dim;
+        coords[(int) (index >>> CHUNK_SHIFT)].putDouble((int) (index & CHUNK_MASK) * Double.BYTES, value);
+    }
+
+    /* Writes the payload id of the point at the given position */
+    private void setId(long point, long id) {
+        ids[(int) (point >>> CHUNK_SHIFT)].putLong((int) (point & CHUNK_MASK) * Long.BYTES, id);
+    }
+
+    /* Reads the split of a node */
+    private double split(long node) {
+        return splits[(int) (node >>> CHUNK_SHIFT)].getDouble((int) (node & CHUNK_MASK) * Double.BYTES);
+    }
+
+    /* Swaps the coordinates and payload ids of two points */
+    private void swap(long i, long j) {
+        for (int d = 0; d < k; d++) {
+            final double temp = coord(i, d);
+            setCoord(i, d, coord(j, d));
+            setCoord(j, d, temp);
+        }
+        final long temp = id(i);
+        setId(i, id(j));
+        setId(j, temp);
+    }
+
+    /* Looks up the payload ids of the given candidates */
+    private long[] toIds(List<Candidate> candidates) {
+        long[] result = new long[candidates.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = id(candidates.get(i).point);
+        }
+        return result;
+    }
+}
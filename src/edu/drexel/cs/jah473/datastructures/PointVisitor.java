@@ -0,0 +1,24 @@
+package edu.drexel.cs.jah473.datastructures;
+
+/**
+ * Callback for the visiting searches of {@link KDTree}, which pass each point
+ * found to the visitor as soon as it is found instead of collecting the
+ * results in a list. The visitor may stop the search early.
+ * 
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the data points visited
+ */
+@FunctionalInterface
+public interface PointVisitor<E> {
+
+    /**
+     * Visits a point found by a search.
+     * 
+     * @param point
+     *            the point found
+     * @return {@code true} to continue the search, {@code false} to stop it
+     */
+    boolean visit(E point);
+}
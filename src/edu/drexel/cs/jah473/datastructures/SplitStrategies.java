@@ -0,0 +1,172 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * Contains static factory methods returning the built-in
+ * {@link SplitStrategy} implementations. Round robin splitting is the default
+ * of {@link KDTree}; the other strategies adapt the splitting dimension to the
+ * data, which pays off when the spread of the points differs between
+ * dimensions.
+ *
+ * @author Justin Horvitz
+ *
+ */
+public final class SplitStrategies {
+
+    /* Splits on the dimension in which the points are most spread out */
+    private static class MaxSpread implements SplitStrategy {
+
+        private static final long serialVersionUID = -2186610169440759568L;
+
+        @Override
+        public int chooseDimension(KDPoint[] points, int lo, int hi, int k, int preferred) {
+            int best = preferred;
+            double bestSpread = -1;
+            for (int i = 0; i < k; i++) {
+                final int dim = (preferred + i) % k;
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int j = lo; j < hi; j++) {
+                    final double coord = points[j].getCoord(dim);
+                    min = Math.min(min, coord);
+                    max = Math.max(max, coord);
+                }
+                if (max - min > bestSpread) {
+                    best = dim;
+                    bestSpread = max - min;
+                }
+            }
+            return best;
+        }
+    }
+
+    /* Splits on the dimension in which the coordinates vary the most */
+    private static class MaxVariance implements SplitStrategy {
+
+        private static final long serialVersionUID = -5433231631216846228L;
+
+        @Override
+        public int chooseDimension(KDPoint[] points, int lo, int hi, int k, int preferred) {
+            int best = preferred;
+            double bestVariance = -1;
+            for (int i = 0; i < k; i++) {
+                final int dim = (preferred + i) % k;
+                double mean = 0;
+                double sumSq = 0;
+                for (int j = lo; j < hi; j++) {
+                    final double delta = points[j].getCoord(dim) - mean;
+                    mean += delta / (j - lo + 1);
+                    sumSq += delta * (points[j].getCoord(dim) - mean);
+                }
+                if (sumSq > bestVariance) {
+                    best = dim;
+                    bestVariance = sumSq;
+                }
+            }
+            return best;
+        }
+    }
+
+    /* Splits on the preferred dimension, cycling through the dimensions */
+    private static class RoundRobin implements SplitStrategy {
+
+        private static final long serialVersionUID = 115465766907760697L;
+
+        @Override
+        public int chooseDimension(KDPoint[] points, int lo, int hi, int k, int preferred) {
+            return preferred;
+        }
+    }
+
+    /*
+     * Splits the dimension of greatest spread at the midpoint of the points'
+     * extent, falling back to the median when that would unbalance the tree
+     */
+    private static class SlidingMidpoint extends MaxSpread {
+
+        private static final long serialVersionUID = 5628615192134993782L;
+
+        @Override
+        public int partition(KDPoint[] points, int lo, int hi, int dim) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                final double coord = points[i].getCoord(dim);
+                min = Math.min(min, coord);
+                max = Math.max(max, coord);
+            }
+            if (min == max) {
+                return -1;
+            }
+            double mid = min + (max - min) / 2;
+            if (mid >= max) {
+                mid = min;
+            }
+            int left = lo;
+            for (int i = lo; i < hi; i++) {
+                if (points[i].getCoord(dim) <= mid) {
+                    final KDPoint temp = points[left];
+                    points[left++] = points[i];
+                    points[i] = temp;
+                }
+            }
+            final int leftSize = left - lo;
+            if (Math.max(leftSize, hi - left) > KDTree.BALANCE * (hi - lo)) {
+                return KDTree.splitRange(points, lo, hi, dim);
+            }
+            return leftSize;
+        }
+    }
+
+    /**
+     * Returns a strategy that splits each node on the dimension in which its
+     * points are most spread out, at the median.
+     *
+     * @return a new max-spread split strategy
+     */
+    public static SplitStrategy maxSpread() {
+        return new MaxSpread();
+    }
+
+    /**
+     * Returns a strategy that splits each node on the dimension in which the
+     * coordinates of its points have the greatest variance, at the median.
+     * It is less swayed by a few outliers than {@link #maxSpread()}.
+     *
+     * @return a new max-variance split strategy
+     */
+    public static SplitStrategy maxVariance() {
+        return new MaxVariance();
+    }
+
+    /**
+     * Returns a strategy that splits each node on the dimensions in turn, at
+     * the median. This is the default strategy of {@link KDTree}.
+     *
+     * @return a new round robin split strategy
+     */
+    public static SplitStrategy roundRobin() {
+        return new RoundRobin();
+    }
+
+    /**
+     * Returns a strategy that splits each node on the dimension in which its
+     * points are most spread out, at the midpoint between the smallest and
+     * largest coordinates. Since the cell is first shrunk to the extent of its
+     * points, the midpoint never leaves a child empty and never needs to slide.
+     * Cells stay close to cubical, which keeps approximate and radius searches
+     * tight on clustered data. A node whose midpoint would put more than the
+     * tree's balance fraction of the points on one side is split at the median
+     * instead, so that the tree stays balanced under insertion.
+     *
+     * @return a new sliding midpoint split strategy
+     */
+    public static SplitStrategy slidingMidpoint() {
+        return new SlidingMidpoint();
+    }
+
+    /* Private constructor to prevent instantiation */
+    private SplitStrategies() {
+    }
+}
@@ -0,0 +1,61 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.io.Serializable;
+
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * Decides how a {@link KDTree} divides the points of an overfull node between
+ * its two children: which dimension to split on, and where. Implementations
+ * are provided by {@link SplitStrategies}. <br>
+ * <br>
+ * Whatever the strategy, every coordinate on the splitting dimension in the
+ * left child must be less than every such coordinate in the right child, and
+ * neither child may be empty. A strategy is stored with the tree it builds, so
+ * it must be serializable.
+ *
+ * @author Justin Horvitz
+ *
+ */
+public interface SplitStrategy extends Serializable {
+
+    /**
+     * Chooses the dimension on which to split points[lo, hi). If the points
+     * cannot be split on the dimension chosen, because all of their
+     * coordinates on it are equal, the tree tries the following dimensions in
+     * turn.
+     *
+     * @param points
+     *            the array holding the points of the node
+     * @param lo
+     *            the index of the first point of the node
+     * @param hi
+     *            one past the index of the last point of the node
+     * @param k
+     *            the number of dimensions of the tree
+     * @param preferred
+     *            the dimension following the one the parent node was split on
+     * @return the dimension on which to split
+     */
+    int chooseDimension(KDPoint[] points, int lo, int hi, int k, int preferred);
+
+    /**
+     * Rearranges points[lo, hi) so that the points belonging to the left child
+     * come first. The default implementation splits at the median, which keeps
+     * the tree balanced.
+     *
+     * @param points
+     *            the array holding the points of the node
+     * @param lo
+     *            the index of the first point of the node
+     * @param hi
+     *            one past the index of the last point of the node
+     * @param dim
+     *            the dimension on which to split
+     * @return the number of points belonging to the left child, or -1 if the
+     *         points cannot be split on the dimension
+     */
+    default int partition(KDPoint[] points, int lo, int hi, int dim) {
+        return KDTree.splitRange(points, lo, hi, dim);
+    }
+}
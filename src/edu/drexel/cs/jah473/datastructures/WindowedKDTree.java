@@ -0,0 +1,525 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+/**
+ * A spatial index of timestamped points that keeps only the points added
+ * within a sliding window of time. Each point is added with a timestamp, in
+ * any unit, and is live until the time of the index passes its timestamp plus
+ * the length of the window. The time of the index is the latest timestamp
+ * added or the latest time it was advanced to, and never moves backwards.
+ * The time of a new index is 0. Searches see only live points. <br>
+ * <br>
+ * The window is divided into a fixed number of intervals, and the points of
+ * each interval are held in their own {@link KDTree}, in a ring of trees.
+ * When the time advances past the end of an interval, its whole tree is
+ * dropped at once, so expired points are never removed one at a time. Only
+ * the oldest interval can hold both live and expired points; searches of its
+ * tree skip the expired ones. More intervals drop expired points sooner at
+ * the cost of more trees to search. Points may arrive out of order, as long as
+ * they are still live. <br>
+ * <br>
+ * This class implements the {@link Collection} interface.
+ *
+ * @author Justin Horvitz
+ *
+ * @param <E>
+ *            the type of the data stored in this index, must be subclass of
+ *            {@link KDPoint}
+ */
+public class WindowedKDTree<E extends KDPoint> extends AbstractCollection<E> implements Serializable {
+
+    /* A data point with the time it was added */
+    private static final class Stamped<E extends KDPoint> extends KDPoint {
+
+        private static final long serialVersionUID = -2418297744581326357L;
+
+        final E data;
+        final long time;
+
+        Stamped(E data, long time) {
+            super(data.getCoords());
+            this.data = data;
+            this.time = time;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Stamped && data.equals(((Stamped<?>) obj).data) && time == ((Stamped<?>) obj).time;
+        }
+
+        @Override
+        public int hashCode() {
+            return data.hashCode();
+        }
+    }
+
+    /* The points added during one interval of time */
+    private static final class Interval<E extends KDPoint> implements Serializable {
+
+        private static final long serialVersionUID = 6090331829214735137L;
+
+        final long number;
+        final KDTree<Stamped<E>> tree;
+
+        Interval(long number, KDTree<Stamped<E>> tree) {
+            this.number = number;
+            this.tree = tree;
+        }
+    }
+
+    /*
+     * Spliterator over the live points of a run of intervals, in ring order.
+     * It splits off half of its intervals while it has more than one, and then
+     * splits the tree of the last one.
+     */
+    private final class RingSpliterator implements Spliterator<E> {
+
+        private final long cutoff;
+        /* Whether no interval holds expired points, so the size is exact */
+        private final boolean allLive;
+        /* Spliterators over the trees of the intervals left, first on top */
+        private final Deque<Spliterator<Stamped<E>>> trees;
+        private boolean advanced;
+
+        RingSpliterator(Deque<Spliterator<Stamped<E>>> trees, long cutoff, boolean allLive) {
+            this.trees = trees;
+            this.cutoff = cutoff;
+            this.allLive = allLive;
+        }
+
+        @Override
+        public int characteristics() {
+            return allLive ? ORDERED | SIZED | SUBSIZED | NONNULL : ORDERED | NONNULL;
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = 0;
+            for (Spliterator<Stamped<E>> tree : trees) {
+                size += tree.estimateSize();
+            }
+            return size;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            while (!trees.isEmpty()) {
+                trees.pop().forEachRemaining(p -> {
+                    if (p.time > cutoff) {
+                        action.accept(p.data);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            while (!trees.isEmpty()) {
+                advanced = false;
+                while (trees.peek().tryAdvance(p -> {
+                    if (p.time > cutoff) {
+                        action.accept(p.data);
+                        advanced = true;
+                    }
+                })) {
+                    if (advanced) {
+                        return true;
+                    }
+                }
+                trees.pop();
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            final Deque<Spliterator<Stamped<E>>> prefix = new ArrayDeque<>();
+            if (trees.size() > 1) {
+                for (int i = trees.size() / 2; i > 0; i--) {
+                    prefix.addLast(trees.pop());
+                }
+            } else if (!trees.isEmpty()) {
+                final Spliterator<Stamped<E>> split = trees.peek().trySplit();
+                if (split == null) {
+                    return null;
+                }
+                prefix.push(split);
+            } else {
+                return null;
+            }
+            return new RingSpliterator(prefix, cutoff, allLive);
+        }
+    }
+
+    private static final long serialVersionUID = -4528207617553211474L;
+
+    protected final DistanceFunction distFunc;
+    protected final int k;
+    /* Time of this index; points stamped at or before now - window are expired */
+    protected long now = 0;
+    /* Ring of intervals, indexed by interval number modulo its length */
+    protected final Interval<E>[] ring;
+    protected final long window;
+    /* Length of each interval, in the same unit as the window */
+    protected final long width;
+
+    /**
+     * Constructs a new, empty windowed index.
+     *
+     * @param k
+     *            the number of dimensions
+     * @param distanceFunction
+     *            the formula to use for calculating distance between points
+     * @param window
+     *            how long a point stays live after its timestamp
+     * @param intervals
+     *            how many intervals to divide the window into
+     * @throws IllegalArgumentException
+     *             if k, the window or the number of intervals is less than 1
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public WindowedKDTree(int k, DistanceFunction distanceFunction, long window, int intervals) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be greater than or equal to 1");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be greater than or equal to 1");
+        }
+        if (intervals < 1) {
+            throw new IllegalArgumentException("intervals must be greater than or equal to 1");
+        }
+        this.k = k;
+        this.distFunc = distanceFunction;
+        this.window = window;
+        this.width = (window + intervals - 1) / intervals;
+        this.ring = new Interval[(int) ((window + width - 1) / width) + 1];
+    }
+
+    /**
+     * Adds a data point to this index, stamped with the current time of this
+     * index.
+     *
+     * @param point
+     *            the point to add
+     * @return {@code true} (as specified by Collection.add(E))
+     */
+    @Override
+    public boolean add(E point) {
+        return add(point, now);
+    }
+
+    /**
+     * Adds a data point to this index with the given timestamp, first
+     * advancing the time of this index to the timestamp if it is later. The
+     * index supports storage of duplicate points.
+     *
+     * @param point
+     *            the point to add
+     * @param timestamp
+     *            the time of the point
+     * @return {@code true} if the point was added, or {@code false} if it has
+     *         already expired
+     */
+    public boolean add(E point, long timestamp) {
+        if (point.getK() < k) {
+            throw new IllegalArgumentException("KDPoint " + point + " has fewer than " + k + " dimensions");
+        }
+        advanceTo(timestamp);
+        if (timestamp <= cutoff()) {
+            return false;
+        }
+        final long number = Math.floorDiv(timestamp, width);
+        final int slot = (int) Math.floorMod(number, (long) ring.length);
+        if (ring[slot] == null) {
+            ring[slot] = new Interval<>(number, new KDTree<>(new ArrayList<>(), k, distFunc));
+        }
+        return ring[slot].tree.add(new Stamped<>(point, timestamp));
+    }
+
+    /**
+     * Advances the time of this index, dropping the trees of all intervals that
+     * have expired entirely. Each tree is dropped in constant time, however
+     * many points it holds. Times earlier than the current time are ignored.
+     *
+     * @param time
+     *            the new time of this index
+     */
+    public void advanceTo(long time) {
+        if (time <= now) {
+            return;
+        }
+        now = time;
+        final long cutoff = cutoff();
+        for (int slot = 0; slot < ring.length; slot++) {
+            if (ring[slot] != null && lastTime(ring[slot]) <= cutoff) {
+                ring[slot] = null;
+            }
+        }
+    }
+
+    /**
+     * Clears all data from this index. The time of this index is unchanged.
+     */
+    @Override
+    public void clear() {
+        for (int slot = 0; slot < ring.length; slot++) {
+            ring[slot] = null;
+        }
+    }
+
+    /**
+     * Returns true if this index contains the specified element as a live
+     * point.
+     *
+     * @param o
+     *            the element in question
+     * @return {@code true} if this index contains the specified element
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof KDPoint) || ((KDPoint) o).getK() < k) {
+            return false;
+        }
+        for (Interval<E> interval : ring) {
+            if (interval != null && findLive(interval, (KDPoint) o) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Latest timestamp that has expired */
+    private long cutoff() {
+        return now - window;
+    }
+
+    /* Finds a live point of an interval equal to the given point, or null */
+    private Stamped<E> findLive(Interval<E> interval, KDPoint point) {
+        final double[] box = new double[2 * k];
+        for (int i = 0; i < k; i++) {
+            box[2 * i] = point.getCoord(i);
+            box[2 * i + 1] = point.getCoord(i);
+        }
+        final long cutoff = cutoff();
+        final List<Stamped<E>> found = new ArrayList<>(1);
+        interval.tree.visitPointsInBox(p -> {
+            if (p.time > cutoff && p.data.equals(point)) {
+                found.add(p);
+                return false;
+            }
+            return true;
+        }, box);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Returns the number of dimensions of the data points in this index.
+     *
+     * @return k
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Returns the current time of this index.
+     *
+     * @return the latest timestamp added or time advanced to
+     */
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * Returns an iterator over the live points in this index, in no particular
+     * order. The iterator does not support removal.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    /**
+     * Finds the k nearest live neighbors to the given center point.
+     *
+     * @param center
+     *            the center point
+     * @param k
+     *            how many neighbors to find
+     * @return a list, sorted by distance, of the k live data points in this
+     *         index closest to the center point, or of all live data points
+     *         if there are fewer than k
+     * @throws IllegalArgumentException
+     *             if k is negative
+     */
+    public List<E> kNN(KDPoint center, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        final List<Stamped<E>> candidates = new ArrayList<>();
+        for (Interval<E> interval : ring) {
+            if (interval != null && k > 0) {
+                final int limit = Math.min(k, interval.tree.size());
+                final Predicate<Stamped<E>> filter = liveFilter(interval);
+                candidates.addAll(filter == null ? interval.tree.kNN(center, limit)
+                        : interval.tree.kNN(center, limit, filter));
+            }
+        }
+        return sortByDistance(center, candidates).limit(k).collect(Collectors.toList());
+    }
+
+    /* Last timestamp that falls in an interval */
+    private long lastTime(Interval<E> interval) {
+        return interval.number * width + width - 1;
+    }
+
+    /* Accepts the live points of an interval, or null if all of them are live */
+    private Predicate<Stamped<E>> liveFilter(Interval<E> interval) {
+        final long cutoff = cutoff();
+        return interval.number * width > cutoff ? null : p -> p.time > cutoff;
+    }
+
+    /**
+     * Finds all live points within the given bounding box. See
+     * {@link KDTree#pointsInBox(double...)}.
+     *
+     * @param box
+     *            the bounding box in the format minD0, maxD0, minD1, maxD1...
+     * @return a list of all live points in this index within the given
+     *         bounding box
+     */
+    public List<E> pointsInBox(double... box) {
+        final List<E> pointsWithin = new ArrayList<>();
+        final long cutoff = cutoff();
+        for (Interval<E> interval : ring) {
+            if (interval != null) {
+                interval.tree.visitPointsInBox(p -> {
+                    if (p.time > cutoff) {
+                        pointsWithin.add(p.data);
+                    }
+                    return true;
+                }, box);
+            }
+        }
+        return pointsWithin;
+    }
+
+    /**
+     * Finds all live points in this index within a certain distance of the
+     * given center point.
+     *
+     * @param center
+     *            the center point
+     * @param radius
+     *            the radius from the center point
+     * @return a list, sorted by distance, of all live data points in this
+     *         index within the specified distance from the center point
+     * @throws IllegalArgumentException
+     *             if the radius is negative
+     */
+    public List<E> radiusSearch(KDPoint center, double radius) {
+        KDTree.checkRadius(radius);
+        final List<Stamped<E>> pointsWithin = new ArrayList<>();
+        for (Interval<E> interval : ring) {
+            if (interval != null) {
+                final Predicate<Stamped<E>> filter = liveFilter(interval);
+                pointsWithin.addAll(filter == null ? interval.tree.radiusSearch(center, radius)
+                        : interval.tree.radiusSearch(center, radius, filter));
+            }
+        }
+        return sortByDistance(center, pointsWithin).collect(Collectors.toList());
+    }
+
+    /**
+     * Removes one live occurrence of the specified element from this index, if
+     * it is present.
+     *
+     * @param o
+     *            the element to remove
+     * @return {@code true} if this index was changed as a result of this call
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof KDPoint) || ((KDPoint) o).getK() < k) {
+            return false;
+        }
+        for (Interval<E> interval : ring) {
+            if (interval != null) {
+                final Stamped<E> stamped = findLive(interval, (KDPoint) o);
+                if (stamped != null) {
+                    return interval.tree.remove(stamped);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of live data points in this index. This counts the
+     * live points of the oldest interval one by one, so it takes time linear
+     * in the size of that interval.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Interval<E> interval : ring) {
+            if (interval != null) {
+                final Predicate<Stamped<E>> filter = liveFilter(interval);
+                size += filter == null ? interval.tree.size() : (int) interval.tree.stream().filter(filter).count();
+            }
+        }
+        return size;
+    }
+
+    /* Unwraps points, sorted by distance from the center */
+    private Stream<E> sortByDistance(KDPoint center, List<Stamped<E>> points) {
+        return points.stream().map(p -> new KDTree.Neighbor<>(p.data, distFunc.distanceBetween(center, p))).sorted()
+                .map(n -> n.data);
+    }
+
+    /**
+     * Returns a spliterator over the live points in this index. It splits
+     * between the trees of the intervals first, and then within a tree as
+     * described in {@link KDTree#spliterator()}. Its size is exact unless the
+     * oldest interval holds expired points, which it skips.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        final Deque<Spliterator<Stamped<E>>> trees = new ArrayDeque<>();
+        boolean allLive = true;
+        for (Interval<E> interval : ring) {
+            if (interval != null) {
+                trees.addLast(interval.tree.spliterator());
+                allLive &= liveFilter(interval) == null;
+            }
+        }
+        return new RingSpliterator(trees, cutoff(), allLive);
+    }
+
+    /**
+     * Gets the live data in this index. Changes to the list returned will not
+     * affect this index. The list returned is not in any particular order.
+     *
+     * @return a list of live points in this index
+     */
+    public List<E> toList() {
+        return stream().collect(Collectors.toList());
+    }
+}
@@ -44,4 +44,32 @@ public final class ChebyshevDistance implements DistanceFunction, Serializable {
                 .orElse(0);
     }
 
+    /**
+     * Calculates the Chebyshev's distance between a point and a location given
+     * by raw coordinates.
+     * 
+     * @param point
+     *            the point
+     * @param coords
+     *            the coordinates of the location
+     * @return the Chebyshev's distance between point and the location
+     */
+    @Override
+    public double distanceTo(KDPoint point, double[] coords) {
+        double max = 0;
+        for (int i = 0; i < k; i++) {
+            max = Math.max(max, Math.abs(point.getCoord(i) - coords[i]));
+        }
+        return max;
+    }
+
+    /**
+     * Returns {@code true}, since Chebyshev's distance is a metric.
+     * 
+     * @return {@code true}
+     */
+    @Override
+    public boolean isMetric() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -20,4 +20,40 @@ public interface DistanceFunction {
      * @return the distance between point1 and point2
      */
     public double distanceBetween(KDPoint point1, KDPoint point2);
+
+    /**
+     * Calculates the distance between a point and a location given by raw
+     * coordinates. {@link edu.drexel.cs.jah473.datastructures.KDTree KDTree}
+     * uses this to measure the distance from a search center to the nearest
+     * edge of a region it may prune, once per visited node. The default
+     * implementation wraps the coordinates in a new {@link KDPoint}; the
+     * built-in distance functions override it to avoid that allocation.
+     * 
+     * @param point
+     *            the point
+     * @param coords
+     *            the coordinates of the location
+     * @return the distance between point and the location
+     */
+    public default double distanceTo(KDPoint point, double[] coords) {
+        return distanceBetween(point, new KDPoint(coords));
+    }
+
+    /**
+     * Tells whether this distance function is a metric, obeying the triangle
+     * inequality. Searches over rounded coordinates, such as those of a
+     * {@link edu.drexel.cs.jah473.datastructures.FrozenKDTree FrozenKDTree}
+     * with a narrow coordinate format, use this to bound how far rounding can
+     * move a distance; for other functions they assume only that the square
+     * root of the distance obeys the triangle inequality, as it does for
+     * squared metrics, and widen their searches accordingly. The default
+     * implementation returns {@code false}. A function that violates both
+     * assumptions may miss points in such searches, and should only be used
+     * with full-precision coordinates.
+     * 
+     * @return {@code true} if this distance function is a metric
+     */
+    public default boolean isMetric() {
+        return false;
+    }
 }
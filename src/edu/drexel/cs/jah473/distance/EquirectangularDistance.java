@@ -26,4 +26,19 @@ public final class EquirectangularDistance extends SquaredEquirectangularDistanc
     public double distanceBetween(KDPoint point1, KDPoint point2) {
         return Math.sqrt(super.distanceBetween(point1, point2));
     }
+
+    /**
+     * Estimates the unitless distance between a latitude/longitude point and a
+     * location given by raw latitude/longitude coordinates.
+     * 
+     * @param point
+     *            the point
+     * @param coords
+     *            the coordinates of the location
+     * @return the equirectangular distance between point and the location
+     */
+    @Override
+    public double distanceTo(KDPoint point, double[] coords) {
+        return Math.sqrt(super.distanceTo(point, coords));
+    }
 }
\ No newline at end of file
@@ -37,4 +37,29 @@ public final class EuclideanDistance extends SquaredEuclideanDistance implements
     public double distanceBetween(KDPoint point1, KDPoint point2) {
         return Math.sqrt(super.distanceBetween(point1, point2));
     }
+
+    /**
+     * Calculates the Euclidean distance between a point and a location given
+     * by raw coordinates.
+     * 
+     * @param point
+     *            the point
+     * @param coords
+     *            the coordinates of the location
+     * @return the Euclidean distance between point and the location
+     */
+    @Override
+    public double distanceTo(KDPoint point, double[] coords) {
+        return Math.sqrt(super.distanceTo(point, coords));
+    }
+
+    /**
+     * Returns {@code true}, since Euclidean distance is a metric.
+     * 
+     * @return {@code true}
+     */
+    @Override
+    public boolean isMetric() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -24,14 +24,44 @@ public final class HaversineDistance extends LatLonDist implements DistanceFunct
      */
     @Override
     public double distanceBetween(KDPoint point1, KDPoint point2) {
-        double lat1 = LatLonDist.getLatRadians(point1);
-        double lat2 = LatLonDist.getLatRadians(point2);
+        return haversine(LatLonDist.getLat(point1), LatLonDist.getLon(point1), LatLonDist.getLat(point2),
+                LatLonDist.getLon(point2));
+    }
+
+    /**
+     * Calculates the Haversine distance between a latitude/longitude point and
+     * a location given by raw latitude/longitude coordinates.
+     * 
+     * @param point
+     *            the point
+     * @param coords
+     *            the coordinates of the location
+     * @return the Haversine distance between point and the location
+     */
+    @Override
+    public double distanceTo(KDPoint point, double[] coords) {
+        return haversine(LatLonDist.getLat(point), LatLonDist.getLon(point), coords[LAT_INDEX], coords[LON_INDEX]);
+    }
+
+    /* Haversine formula, with coordinates in degrees */
+    private static double haversine(double latDeg1, double lonDeg1, double latDeg2, double lonDeg2) {
+        double lat1 = Math.toRadians(latDeg1);
+        double lat2 = Math.toRadians(latDeg2);
         double dlat = lat2 - lat1;
-        double dlon = Math.toRadians(LatLonDist.getLon(point2) - LatLonDist.getLon(point1));
+        double dlon = Math.toRadians(lonDeg2 - lonDeg1);
         double sinlat = Math.sin(dlat / 2);
         double sinlon = Math.sin(dlon / 2);
         double a = sinlat * sinlat + Math.cos(lat1) * Math.cos(lat2) * sinlon * sinlon;
         return 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
     }
 
+    /**
+     * Returns {@code true}, since Haversine distance is a metric.
+     * 
+     * @return {@code true}
+     */
+    @Override
+    public boolean isMetric() {
+        return true;
+    }
 }
\ No newline at end of file
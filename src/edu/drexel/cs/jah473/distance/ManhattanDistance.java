@@ -46,4 +46,32 @@ public final class ManhattanDistance implements DistanceFunction, Serializable {
         return mdist;
     }
 
+    /**
+     * Calculates the Manhattan distance between a point and a location given by
+     * raw coordinates.
+     * 
+     * @param point
+     *            the point
+     * @param coords
+     *            the coordinates of the location
+     * @return the Manhattan distance between point and the location
+     */
+    @Override
+    public double distanceTo(KDPoint point, double[] coords) {
+        double mdist = 0;
+        for (int i = 0; i < k; i++) {
+            mdist += Math.abs(point.getCoord(i) - coords[i]);
+        }
+        return mdist;
+    }
+
+    /**
+     * Returns {@code true}, since Manhattan distance is a metric.
+     * 
+     * @return {@code true}
+     */
+    @Override
+    public boolean isMetric() {
+        return true;
+    }
 }
@@ -25,11 +25,32 @@ public class SquaredEquirectangularDistance extends LatLonDist implements Distan
      */
     @Override
     public double distanceBetween(KDPoint point1, KDPoint point2) {
-        double lat1 = LatLonDist.getLat(point1);
-        double lat2 = LatLonDist.getLat(point2);
+        return sqEquirectangular(LatLonDist.getLat(point1), LatLonDist.getLon(point1), LatLonDist.getLat(point2),
+                LatLonDist.getLon(point2));
+    }
+
+    /**
+     * Estimates the squared unitless distance between a latitude/longitude
+     * point and a location given by raw latitude/longitude coordinates.
+     * 
+     * @param point
+     *            the point
+     * @param coords
+     *            the coordinates of the location
+     * @return the squared equirectangular distance between point and the
+     *         location
+     */
+    @Override
+    public double distanceTo(KDPoint point, double[] coords) {
+        return sqEquirectangular(LatLonDist.getLat(point), LatLonDist.getLon(point), coords[LAT_INDEX],
+                coords[LON_INDEX]);
+    }
+
+    /* Squared equirectangular formula */
+    private static double sqEquirectangular(double lat1, double lon1, double lat2, double lon2) {
         double dLat = lat1 - lat2;
         double avgLatRad = lat1 + lat2 / 2;
-        double dLon = LatLonDist.getLon(point1) - LatLonDist.getLon(point2);
+        double dLon = lon1 - lon2;
         dLon *= Math.cos(avgLatRad);
         return dLat * dLat + dLon * dLon;
     }
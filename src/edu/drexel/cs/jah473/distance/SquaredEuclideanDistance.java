@@ -47,4 +47,24 @@ public class SquaredEuclideanDistance implements DistanceFunction, Serializable
         }
         return dist;
     }
+
+    /**
+     * Calculates the squared Euclidean distance between a point and a location
+     * given by raw coordinates.
+     * 
+     * @param point
+     *            the point
+     * @param coords
+     *            the coordinates of the location
+     * @return the squared Euclidean distance between point and the location
+     */
+    @Override
+    public double distanceTo(KDPoint point, double[] coords) {
+        double dist = 0;
+        for (int i = 0; i < k; i++) {
+            double dK = point.getCoord(i) - coords[i];
+            dist += dK * dK;
+        }
+        return dist;
+    }
 }
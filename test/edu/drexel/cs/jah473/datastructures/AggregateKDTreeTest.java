@@ -0,0 +1,148 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+public class AggregateKDTreeTest {
+
+    static final double DELTA = 1e-3;
+    static final int DIM = 2;
+    static final DistanceFunction DIST_FUNC = Distances.euclidean(DIM);
+    static final int NUM_POINTS = 20_000;
+    static final int NUM_TRIALS = 200;
+    static final Random RAND = new Random();
+
+    List<KDPoint> points;
+    AggregateKDTree<KDPoint, Double> akdt;
+
+    static double value(KDPoint point) {
+        return point.getCoord(0) * 2 + 1;
+    }
+
+    static int category(KDPoint point) {
+        return (int) Math.floor(point.getCoord(1) / 25) & 7;
+    }
+
+    double naiveSum(double[] box) {
+        return KDTreeTest.naivePointsInBox(points, box).stream().mapToDouble(AggregateKDTreeTest::value).sum();
+    }
+
+    double naiveSum(KDPoint center, double radius) {
+        return points.stream().filter(p -> DIST_FUNC.distanceBetween(center, p) <= radius)
+                .mapToDouble(AggregateKDTreeTest::value).sum();
+    }
+
+    double[] randBox() {
+        double[] box = new double[DIM * 2];
+        for (int d = 0; d < DIM; d++) {
+            double a = KDTreeTest.randCoord();
+            double b = KDTreeTest.randCoord();
+            box[d * 2] = Math.min(a, b);
+            box[d * 2 + 1] = Math.max(a, b);
+        }
+        return box;
+    }
+
+    @Before
+    public void setUp() {
+        points = new ArrayList<>(NUM_POINTS);
+        for (int i = 0; i < NUM_POINTS; i++) {
+            points.add(KDTreeTest.randKDPoint(DIM));
+        }
+        akdt = new AggregateKDTree<>(points, DIM, DIST_FUNC, Aggregator.summing(AggregateKDTreeTest::value));
+    }
+
+    @Test
+    public void aggregateInBoxTest() {
+        assertEquals(naiveSum(new double[] { -100, 100, -100, 100 }), akdt.aggregate(), DELTA);
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            double[] box = randBox();
+            assertEquals(naiveSum(box), akdt.aggregateInBox(box), DELTA);
+        }
+        boolean caught = false;
+        try {
+            akdt.aggregateInBox(1, 2, 3);
+        } catch (IllegalArgumentException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+
+    @Test
+    public void aggregateInRadiusTest() {
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            KDPoint center = KDTreeTest.randKDPoint(DIM);
+            double radius = RAND.nextDouble() * 50;
+            assertEquals(naiveSum(center, radius), akdt.aggregateInRadius(center, radius), DELTA);
+        }
+    }
+
+    @Test
+    public void subtreeFilterTest() {
+        AggregateKDTree<KDPoint, Integer> categories = new AggregateKDTree<>(points, DIM, DIST_FUNC,
+                Aggregator.of(0, p -> 1 << category(p), (a, b) -> a | b));
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            final int wanted = RAND.nextInt(8);
+            KDPoint center = KDTreeTest.randKDPoint(DIM);
+            int k = RAND.nextInt(10) + 1;
+            List<KDPoint> accepted = points.stream().filter(p -> category(p) == wanted).collect(Collectors.toList());
+            assertEquals(KDTreeTest.naiveKNN(accepted, center, k, DIST_FUNC),
+                    categories.kNN(center, k, p -> category(p) == wanted, mask -> (mask & 1 << wanted) != 0));
+            double radius = RAND.nextDouble() * 50;
+            assertEquals(KDTreeTest.naiveRadiusSearch(accepted, center, radius, DIST_FUNC), categories
+                    .radiusSearch(center, radius, p -> category(p) == wanted, mask -> (mask & 1 << wanted) != 0));
+        }
+    }
+
+    @Test
+    public void moveTest() {
+        for (int i = 0; i < NUM_POINTS; i++) {
+            int index = RAND.nextInt(points.size());
+            KDPoint point = KDTreeTest.randKDPoint(DIM);
+            assertTrue(akdt.update(points.get(index), point));
+            points.set(index, point);
+            if (i % 100 == 0) {
+                double[] box = randBox();
+                assertEquals(naiveSum(box), akdt.aggregateInBox(box), DELTA);
+                KDPoint center = KDTreeTest.randKDPoint(DIM);
+                assertEquals(naiveSum(center, 30), akdt.aggregateInRadius(center, 30), DELTA);
+            }
+        }
+        assertEquals(naiveSum(new double[] { -100, 100, -100, 100 }), akdt.aggregate(), DELTA);
+    }
+
+    @Test
+    public void updateTest() {
+        for (int i = 0; i < NUM_POINTS; i++) {
+            if (RAND.nextBoolean()) {
+                KDPoint point = KDTreeTest.randKDPoint(DIM);
+                akdt.add(point);
+                points.add(point);
+            } else {
+                KDPoint point = points.remove(RAND.nextInt(points.size()));
+                assertTrue(akdt.remove(point));
+            }
+            if (i % 100 == 0) {
+                double[] box = randBox();
+                assertEquals(naiveSum(box), akdt.aggregateInBox(box), DELTA);
+                KDPoint center = KDTreeTest.randKDPoint(DIM);
+                assertEquals(naiveSum(center, 30), akdt.aggregateInRadius(center, 30), DELTA);
+            }
+        }
+        assertEquals(naiveSum(new double[] { -100, 100, -100, 100 }), akdt.aggregate(), DELTA);
+        akdt.clear();
+        assertEquals(0.0, akdt.aggregate(), DELTA);
+        assertEquals(0.0, akdt.aggregateInBox(randBox()), DELTA);
+    }
+}
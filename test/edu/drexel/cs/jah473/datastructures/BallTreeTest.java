@@ -0,0 +1,151 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+public class BallTreeTest {
+
+    static final int DIM = 8;
+    static final Comparator<KDPoint> KD_COMPARATOR = Comparator.comparingDouble(p -> p.getCoord(0));
+    static final int NUM_POINTS = 10_000;
+    static final int NUM_TRIALS = 100;
+    static final Random RAND = new Random();
+    /* A metric that mixes coordinates, so it is not aligned with any axis */
+    static final DistanceFunction ROTATED = (p1, p2) -> {
+        double sum = 0;
+        for (int i = 0; i < DIM; i++) {
+            double diff = 0;
+            for (int j = 0; j <= i; j++) {
+                diff += p1.getCoord(j) - p2.getCoord(j);
+            }
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    };
+    static final List<DistanceFunction> DIST_FUNCS = List.of(Distances.euclidean(DIM), Distances.manhattan(DIM),
+            Distances.chebyshev(DIM), ROTATED);
+
+    List<KDPoint> points;
+
+    static List<Double> distances(List<KDPoint> points, KDPoint center, DistanceFunction distFunc) {
+        return points.stream().map(p -> distFunc.distanceBetween(center, p)).collect(Collectors.toList());
+    }
+
+    static KDPoint randKDPoint() {
+        double[] coords = new double[DIM];
+        for (int i = 0; i < DIM; i++) {
+            coords[i] = RAND.nextGaussian() * 10;
+        }
+        return new KDPoint(coords);
+    }
+
+    @Before
+    public void setUp() {
+        points = new ArrayList<>(NUM_POINTS);
+        for (int i = 0; i < NUM_POINTS; i++) {
+            points.add(randKDPoint());
+        }
+    }
+
+    @Test
+    public void kNNTest() {
+        for (DistanceFunction distFunc : DIST_FUNCS) {
+            BallTree<KDPoint> bt = new BallTree<>(points, distFunc);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = randKDPoint();
+                int k = RAND.nextInt(20);
+                List<KDPoint> expected = KDTreeTest.naiveKNN(points, center, k, distFunc);
+                assertEquals(distances(expected, center, distFunc), distances(bt.kNN(center, k), center, distFunc));
+            }
+            boolean caught = false;
+            try {
+                bt.kNN(randKDPoint(), NUM_POINTS + 1);
+            } catch (IllegalArgumentException e) {
+                caught = true;
+            }
+            assertTrue(caught);
+        }
+    }
+
+    @Test
+    public void radiusSearchTest() {
+        for (DistanceFunction distFunc : DIST_FUNCS) {
+            BallTree<KDPoint> bt = new BallTree<>(points, 3, distFunc);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = randKDPoint();
+                double radius = RAND.nextDouble() * 30;
+                List<KDPoint> expected = KDTreeTest.naiveRadiusSearch(points, center, radius, distFunc);
+                assertEquals(distances(expected, center, distFunc),
+                        distances(bt.radiusSearch(center, radius), center, distFunc));
+            }
+        }
+    }
+
+    @Test
+    public void addRemoveTest() {
+        BallTree<KDPoint> bt = new BallTree<>(new ArrayList<>(), ROTATED);
+        assertTrue(bt.isEmpty());
+        List<KDPoint> expected = new ArrayList<>();
+        for (int i = 0; i < NUM_POINTS; i++) {
+            if (expected.isEmpty() || RAND.nextInt(3) > 0) {
+                KDPoint point = points.get(i);
+                assertTrue(bt.add(point));
+                expected.add(point);
+            } else {
+                KDPoint point = expected.remove(RAND.nextInt(expected.size()));
+                assertTrue(bt.remove(point));
+                assertFalse(bt.contains(point));
+            }
+            assertEquals(expected.size(), bt.size());
+            if (i % 500 == 0) {
+                KDPoint center = randKDPoint();
+                int k = Math.min(10, expected.size());
+                assertEquals(distances(KDTreeTest.naiveKNN(expected, center, k, ROTATED), center, ROTATED),
+                        distances(bt.kNN(center, k), center, ROTATED));
+            }
+        }
+        for (KDPoint point : expected) {
+            assertTrue(bt.contains(point));
+        }
+        assertFalse(bt.contains(randKDPoint()));
+        assertFalse(bt.remove("I am not a KD point"));
+        List<KDPoint> actual = bt.toList();
+        Collections.sort(actual, KD_COMPARATOR);
+        Collections.sort(expected, KD_COMPARATOR);
+        assertEquals(expected, actual);
+        for (KDPoint point : expected) {
+            assertTrue(bt.remove(point));
+        }
+        assertTrue(bt.isEmpty());
+        bt.add(points.get(0));
+        assertEquals(List.of(points.get(0)), bt.kNN(points.get(1), 1));
+        bt.clear();
+        assertTrue(bt.isEmpty());
+    }
+
+    @Test
+    public void classifyRegressionTest() {
+        BallTree<KDPoint> bt = new BallTree<>(points, Distances.euclidean(DIM));
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            KDPoint center = randKDPoint();
+            assertEquals(KDTreeTest.naiveKNN(points, center, 7, Distances.euclidean(DIM)).stream()
+                    .mapToDouble(p -> p.getCoord(1)).average().getAsDouble(),
+                    bt.kNNRegression(center, 7, p -> p.getCoord(1)), 1e-9);
+            List<Boolean> votes = bt.kNNClassify(center, 7, p -> p.getCoord(0) > 0);
+            assertEquals(1, votes.size());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static edu.drexel.cs.jah473.datastructures.KDTreeTest.KD_COMPARATOR;
+import static edu.drexel.cs.jah473.datastructures.KDTreeTest.randKDPoint;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+public class ConcurrentKDTreeTest {
+
+    static final int DIM = 2;
+    static final DistanceFunction DIST_FUNC = Distances.sqEuclidean(DIM);
+    static final int NUM_POINTS = 20_000;
+    static final int NUM_TRIALS = 200;
+    static final Random RAND = new Random();
+
+    List<KDPoint> points;
+    ConcurrentKDTree<KDPoint> ckdt;
+
+    @Before
+    public void setUp() {
+        points = new ArrayList<>(NUM_POINTS);
+        for (int i = 0; i < NUM_POINTS; i++) {
+            points.add(randKDPoint(DIM));
+        }
+        ckdt = new ConcurrentKDTree<>(points, DIM, DIST_FUNC);
+    }
+
+    @Test
+    public void addRemoveTest() {
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            if (RAND.nextBoolean()) {
+                KDPoint point = randKDPoint(DIM);
+                assertTrue(ckdt.add(point));
+                points.add(point);
+                assertTrue(ckdt.contains(point));
+            } else {
+                KDPoint point = points.get(RAND.nextInt(points.size()));
+                assertTrue(ckdt.remove(point));
+                points.remove(point);
+            }
+            assertEquals(points.size(), ckdt.size());
+        }
+        assertFalse(ckdt.remove(randKDPoint(DIM)));
+        assertFalse(ckdt.remove("I am not a KD point"));
+        List<KDPoint> expected = new ArrayList<>(points);
+        List<KDPoint> actual = ckdt.toList();
+        Collections.sort(expected, KD_COMPARATOR);
+        Collections.sort(actual, KD_COMPARATOR);
+        assertEquals(expected, actual);
+        KDTree<KDPoint> kdt = new KDTree<>(points, DIM, DIST_FUNC);
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            KDPoint center = randKDPoint(DIM);
+            assertEquals(kdt.kNN(center, 10), ckdt.kNN(center, 10));
+            assertEquals(kdt.radiusSearch(center, 20), ckdt.radiusSearch(center, 20));
+        }
+        ckdt.clear();
+        assertTrue(ckdt.isEmpty());
+    }
+
+    @Test
+    public void updateTest() {
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            int index = RAND.nextInt(points.size());
+            KDPoint point = randKDPoint(DIM);
+            KDTree<KDPoint> before = ckdt.snapshot;
+            assertTrue(ckdt.update(points.get(index), point));
+            assertEquals(NUM_POINTS, before.size());
+            points.set(index, point);
+        }
+        assertFalse(ckdt.update(randKDPoint(DIM), randKDPoint(DIM)));
+        List<KDPoint> oldPoints = new ArrayList<>(points.subList(0, NUM_TRIALS));
+        List<KDPoint> newPoints = new ArrayList<>();
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            newPoints.add(randKDPoint(DIM));
+            points.set(i, newPoints.get(i));
+        }
+        assertEquals(NUM_TRIALS, ckdt.updateAll(oldPoints, newPoints));
+        assertEquals(NUM_POINTS, ckdt.size());
+        List<KDPoint> expected = new ArrayList<>(points);
+        List<KDPoint> actual = ckdt.toList();
+        Collections.sort(expected, KD_COMPARATOR);
+        Collections.sort(actual, KD_COMPARATOR);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void iteratorSnapshotTest() {
+        List<KDPoint> seen = new ArrayList<>();
+        for (KDPoint point : ckdt) {
+            seen.add(point);
+            if (seen.size() == 1) {
+                ckdt.add(randKDPoint(DIM));
+                ckdt.remove(point);
+            }
+        }
+        assertEquals(NUM_POINTS, seen.size());
+        assertEquals(NUM_POINTS, ckdt.size());
+    }
+
+    @Test
+    public void concurrentReadersTest() throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; i < NUM_TRIALS; i++) {
+                        KDPoint center = randKDPoint(DIM);
+                        List<KDPoint> neighbors = ckdt.kNN(center, 5);
+                        assertEquals(5, neighbors.size());
+                        ckdt.pointsInBox(-10, 10, -10, 10);
+                        ckdt.radiusSearch(center, 10);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (int i = 0; i < NUM_TRIALS * 10; i++) {
+            ckdt.add(randKDPoint(DIM));
+            ckdt.remove(points.get(i));
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertEquals(NUM_POINTS, ckdt.size());
+    }
+}
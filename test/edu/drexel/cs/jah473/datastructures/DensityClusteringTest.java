@@ -0,0 +1,143 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+public class DensityClusteringTest {
+
+    static final int DIM = 2;
+    static final DistanceFunction DIST_FUNC = Distances.euclidean(DIM);
+    static final int MIN_POINTS = 5;
+    static final int NUM_CLUSTERS = 8;
+    static final int NUM_NOISE = 500;
+    static final int POINTS_PER_CLUSTER = 300;
+    static final Random RAND = new Random();
+
+    List<KDPoint> points;
+
+    /* Finds which points are core points by brute force */
+    boolean[] naiveCore(double radius) {
+        boolean[] core = new boolean[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            int count = 0;
+            for (KDPoint other : points) {
+                if (DIST_FUNC.distanceBetween(points.get(i), other) <= radius) {
+                    count++;
+                }
+            }
+            core[i] = count >= MIN_POINTS;
+        }
+        return core;
+    }
+
+    /*
+     * Checks labels against the DBSCAN definition by brute force. Border
+     * points may be labeled noise only if allowed.
+     */
+    void checkLabels(int[] labels, double radius, boolean bordersAssigned) {
+        assertEquals(points.size(), labels.length);
+        boolean[] core = naiveCore(radius);
+        Map<Integer, Integer> roots = new HashMap<>();
+        int[] parent = new int[points.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < points.size(); i++) {
+            boolean nearCore = false;
+            boolean matchesCore = false;
+            for (int j = 0; j < points.size(); j++) {
+                if (DIST_FUNC.distanceBetween(points.get(i), points.get(j)) <= radius && core[j]) {
+                    nearCore = true;
+                    matchesCore |= labels[i] == labels[j];
+                    if (core[i]) {
+                        parent[root(parent, i)] = root(parent, j);
+                    }
+                }
+            }
+            if (labels[i] != DensityClustering.NOISE) {
+                assertTrue(matchesCore);
+            }
+            if (core[i] || bordersAssigned) {
+                assertEquals(nearCore, labels[i] != DensityClustering.NOISE);
+            }
+        }
+        for (int i = 0; i < points.size(); i++) {
+            if (core[i]) {
+                Integer label = roots.putIfAbsent(root(parent, i), labels[i]);
+                assertEquals(label == null ? labels[i] : label.intValue(), labels[i]);
+            }
+        }
+        assertEquals(roots.size(), roots.values().stream().distinct().count());
+    }
+
+    static int root(int[] parent, int x) {
+        while (parent[x] != x) {
+            x = parent[x];
+        }
+        return x;
+    }
+
+    @Before
+    public void setUp() {
+        points = new ArrayList<>();
+        for (int c = 0; c < NUM_CLUSTERS; c++) {
+            double x = RAND.nextDouble() * 100;
+            double y = RAND.nextDouble() * 100;
+            for (int i = 0; i < POINTS_PER_CLUSTER; i++) {
+                points.add(new KDPoint(x + RAND.nextGaussian() * 2, y + RAND.nextGaussian() * 2));
+            }
+        }
+        for (int i = 0; i < NUM_NOISE; i++) {
+            points.add(new KDPoint(RAND.nextDouble() * 100, RAND.nextDouble() * 100));
+        }
+    }
+
+    @Test
+    public void dbscanTest() {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            for (double radius : new double[] { 0.5, 1, 2 }) {
+                int[] labels = DensityClustering.dbscan(points, DIM, DIST_FUNC, radius, MIN_POINTS);
+                checkLabels(labels, radius, true);
+                assertArrayEquals(labels, DensityClustering.dbscan(points, DIM, DIST_FUNC, radius, MIN_POINTS, pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(0, DensityClustering.dbscan(new ArrayList<>(), DIM, DIST_FUNC, 1, MIN_POINTS).length);
+        boolean caught = false;
+        try {
+            DensityClustering.dbscan(points, DIM, DIST_FUNC, 1, 0);
+        } catch (IllegalArgumentException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+
+    @Test
+    public void opticsTest() {
+        ClusterOrdering ordering = DensityClustering.optics(points, DIM, DIST_FUNC, 2, MIN_POINTS);
+        int[] sorted = ordering.order.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            assertEquals(i, sorted[i]);
+        }
+        for (double radius : new double[] { 0.5, 1, 2 }) {
+            checkLabels(ordering.extractDBSCAN(radius), radius, false);
+        }
+    }
+}
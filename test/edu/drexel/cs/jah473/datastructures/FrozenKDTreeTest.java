@@ -0,0 +1,123 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static edu.drexel.cs.jah473.datastructures.KDTreeTest.sorted;
+import static edu.drexel.cs.jah473.datastructures.MappedKDTreeTest.randBox;
+import static edu.drexel.cs.jah473.datastructures.MappedKDTreeTest.randKDPoint;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+public class FrozenKDTreeTest {
+
+    static final int DIM = 3;
+    static final DistanceFunction DIST_FUNC = Distances.euclidean(DIM);
+    static final int NUM_POINTS = 50_000;
+    static final int NUM_TRIALS = 200;
+    static final Random RAND = new Random();
+
+    KDTree<KDPoint> kdt;
+    FrozenKDTree<KDPoint> fkdt;
+
+    /* Distances from the center, which are equal even when ties are ordered differently */
+    static List<Double> distances(List<KDPoint> points, KDPoint center, DistanceFunction distFunc) {
+        return points.stream().map(p -> distFunc.distanceBetween(center, p)).collect(Collectors.toList());
+    }
+
+    @Before
+    public void setUp() {
+        List<KDPoint> points = new ArrayList<>(NUM_POINTS);
+        for (int i = 0; i < NUM_POINTS; i++) {
+            points.add(randKDPoint());
+        }
+        kdt = new KDTree<>(points, DIM, DIST_FUNC);
+        for (int i = 0; i < 1000; i++) {
+            kdt.add(randKDPoint());
+            kdt.remove(points.get(i));
+        }
+        fkdt = kdt.freeze();
+    }
+
+    @Test
+    public void queryTest() {
+        assertEquals(kdt.size(), fkdt.size());
+        assertEquals(kdt.toList(), fkdt.toList());
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            KDPoint center = randKDPoint();
+            int k = RAND.nextInt(20);
+            assertEquals(kdt.kNN(center, k), fkdt.kNN(center, k));
+            double radius = RAND.nextDouble() * 20;
+            assertEquals(kdt.radiusSearch(center, radius), fkdt.radiusSearch(center, radius));
+            double[] box = randBox(center);
+            assertEquals(sorted(kdt.pointsInBox(box)), sorted(fkdt.pointsInBox(box)));
+            int dim = RAND.nextInt(DIM);
+            assertEquals(sorted(kdt.pointsInRange(dim, box[dim * 2], box[dim * 2 + 1])),
+                    sorted(fkdt.pointsInRange(dim, box[dim * 2], box[dim * 2 + 1])));
+        }
+    }
+
+    @Test
+    public void coordinateFormatTest() {
+        List<DistanceFunction> distFuncs = Arrays.asList(DIST_FUNC, Distances.sqEuclidean(DIM),
+                Distances.manhattan(DIM), Distances.chebyshev(DIM));
+        for (DistanceFunction distFunc : distFuncs) {
+            List<KDPoint> points = new ArrayList<>(kdt.toList());
+            for (int i = 0; i < 1000; i++) {
+                points.add(new KDPoint(Math.round(RAND.nextGaussian() * 10), RAND.nextGaussian() * 1e-3, 5));
+            }
+            KDTree<KDPoint> tree = new KDTree<>(points, DIM, distFunc);
+            for (CoordinateFormat format : CoordinateFormat.values()) {
+                FrozenKDTree<KDPoint> frozen = tree.freeze(format);
+                assertEquals(format, frozen.getCoordinateFormat());
+                assertEquals(tree.toList(), frozen.toList());
+                for (int i = 0; i < NUM_TRIALS / 10; i++) {
+                    KDPoint center = i % 2 == 0 ? randKDPoint() : new KDPoint(RAND.nextGaussian() * 10, 0, 5);
+                    int k = RAND.nextInt(20) + 1;
+                    assertEquals(distances(tree.kNN(center, k), center, distFunc),
+                            distances(frozen.kNN(center, k), center, distFunc));
+                    double radius = RAND.nextDouble() * 20;
+                    assertEquals(sorted(tree.radiusSearch(center, radius)),
+                            sorted(frozen.radiusSearch(center, radius)));
+                    double[] box = randBox(center);
+                    assertEquals(sorted(tree.pointsInBox(box)), sorted(frozen.pointsInBox(box)));
+                    int dim = RAND.nextInt(DIM);
+                    assertEquals(sorted(tree.pointsInRange(dim, box[dim * 2], box[dim * 2 + 1])),
+                            sorted(frozen.pointsInRange(dim, box[dim * 2], box[dim * 2 + 1])));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void immutableTest() {
+        for (KDPoint point : kdt) {
+            assertTrue(fkdt.contains(point));
+        }
+        assertFalse(fkdt.contains(randKDPoint()));
+        assertFalse(fkdt.contains("I am not a KD point"));
+        boolean caught = false;
+        try {
+            fkdt.add(randKDPoint());
+        } catch (UnsupportedOperationException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+        caught = false;
+        try {
+            fkdt.kNN(randKDPoint(), NUM_POINTS + 1);
+        } catch (IllegalArgumentException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+}
@@ -0,0 +1,141 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+import edu.drexel.cs.jah473.distance.LatLonDist;
+
+public class GeoKDTreeTest {
+
+    static final double DELTA = 1e-9;
+    static final LatLonDist HAVERSINE = Distances.haversine();
+    static final int NUM_POINTS = 20_000;
+    static final int NUM_TRIALS = 200;
+    static final Random RAND = new Random();
+
+    List<KDPoint> points;
+    GeoKDTree<KDPoint> gkdt;
+
+    static List<Double> distances(List<KDPoint> points, KDPoint center) {
+        return points.stream().map(p -> HAVERSINE.distanceBetween(center, p)).collect(Collectors.toList());
+    }
+
+    /* Uniformly distributed over the sphere */
+    static KDPoint randLatLon() {
+        double lat = Math.toDegrees(Math.asin(RAND.nextDouble() * 2 - 1));
+        double lon = RAND.nextDouble() * 360 - 180;
+        return new KDPoint(lat, lon);
+    }
+
+    /* Near a pole or the antimeridian */
+    static KDPoint randAwkwardLatLon() {
+        if (RAND.nextBoolean()) {
+            return new KDPoint((RAND.nextBoolean() ? 1 : -1) * (90 - RAND.nextDouble()), RAND.nextDouble() * 360 - 180);
+        }
+        return new KDPoint(RAND.nextDouble() * 180 - 90, (RAND.nextBoolean() ? 1 : -1) * (180 - RAND.nextDouble()));
+    }
+
+    @Before
+    public void setUp() {
+        points = new ArrayList<>(NUM_POINTS);
+        for (int i = 0; i < NUM_POINTS; i++) {
+            points.add(RAND.nextInt(10) == 0 ? randAwkwardLatLon() : randLatLon());
+        }
+        gkdt = new GeoKDTree<>(points);
+    }
+
+    @Test
+    public void kNNTest() {
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            KDPoint center = i % 2 == 0 ? randLatLon() : randAwkwardLatLon();
+            int k = RAND.nextInt(20);
+            List<Double> expected = distances(KDTreeTest.naiveKNN(points, center, k, HAVERSINE), center);
+            List<Double> actual = distances(gkdt.kNN(center, k), center);
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j), actual.get(j), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void radiusSearchTest() {
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            KDPoint center = i % 2 == 0 ? randLatLon() : randAwkwardLatLon();
+            double km = RAND.nextDouble() * 500;
+            List<KDPoint> expected = KDTreeTest.naiveRadiusSearch(points, center, km, HAVERSINE::distanceBetweenKM);
+            assertEquals(expected, gkdt.radiusSearchKM(center, km));
+            double mi = RAND.nextDouble() * 300;
+            expected = KDTreeTest.naiveRadiusSearch(points, center, mi, HAVERSINE::distanceBetweenMI);
+            assertEquals(expected, gkdt.radiusSearchMI(center, mi));
+        }
+        assertEquals(NUM_POINTS, gkdt.radiusSearch(randLatLon(), Math.PI).size());
+        boolean caught = false;
+        try {
+            gkdt.radiusSearchKM(randLatLon(), -1);
+        } catch (IllegalArgumentException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+
+    @Test
+    public void addRemoveTest() {
+        KDPoint point = new KDPoint(0, 179.999);
+        assertFalse(gkdt.contains(point));
+        assertTrue(gkdt.add(point));
+        assertTrue(gkdt.contains(point));
+        assertEquals(point, gkdt.kNN(new KDPoint(0, -179.999), 1).get(0));
+        assertEquals(NUM_POINTS + 1, gkdt.size());
+        assertTrue(gkdt.remove(point));
+        assertFalse(gkdt.remove(point));
+        assertFalse(gkdt.remove("I am not a KD point"));
+        assertFalse(gkdt.contains(new KDPoint(0)));
+        assertFalse(gkdt.remove(new KDPoint(0)));
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            assertTrue(gkdt.remove(points.get(i)));
+        }
+        assertEquals(NUM_POINTS - NUM_TRIALS, gkdt.size());
+        gkdt.clear();
+        assertTrue(gkdt.isEmpty());
+    }
+
+    @Test
+    public void updateTest() {
+        List<KDPoint> oldPoints = new ArrayList<>(points.subList(0, NUM_TRIALS));
+        List<KDPoint> newPoints = new ArrayList<>();
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            KDPoint point = randAwkwardLatLon();
+            if (i % 2 == 0) {
+                assertTrue(gkdt.update(oldPoints.get(i), point));
+            } else {
+                newPoints.add(point);
+            }
+            points.set(i, point);
+        }
+        List<KDPoint> batch = new ArrayList<>();
+        for (int i = 1; i < NUM_TRIALS; i += 2) {
+            batch.add(oldPoints.get(i));
+        }
+        assertEquals(batch.size(), gkdt.updateAll(batch, newPoints));
+        assertFalse(gkdt.update(oldPoints.get(0), randLatLon()));
+        assertEquals(NUM_POINTS, gkdt.size());
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            KDPoint center = randAwkwardLatLon();
+            List<Double> expected = distances(KDTreeTest.naiveKNN(points, center, 5, HAVERSINE), center);
+            List<Double> actual = distances(gkdt.kNN(center, 5), center);
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j), actual.get(j), DELTA);
+            }
+        }
+    }
+}
@@ -10,14 +10,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.*;
 
@@ -182,6 +188,25 @@ public class KDTreeTest {
                 .filter(n -> n.dist <= radius).sorted().map(n -> n.data).collect(Collectors.toList());
     }
 
+    static <E extends KDPoint> int depth(KDTree.Node<E> node) {
+        return node.isLeaf() ? 0 : 1 + Math.max(depth(node.left), depth(node.right));
+    }
+
+    static <E extends KDPoint> boolean hasEmptyLeaf(KDTree.Node<E> node, boolean isRoot) {
+        if (node.isLeaf()) {
+            return !isRoot && node.members.isEmpty();
+        }
+        return hasEmptyLeaf(node.left, false) || hasEmptyLeaf(node.right, false);
+    }
+
+    static KDPoint jitter(KDPoint point) {
+        double[] coords = point.getCoords();
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] += RAND.nextGaussian();
+        }
+        return new KDPoint(coords);
+    }
+
     static double randCoord() {
         double c = RAND.nextDouble() * SPACE_BOUND;
         return RAND.nextBoolean() ? c : c * -1;
@@ -195,6 +220,12 @@ public class KDTreeTest {
         return new KDPoint(coords);
     }
 
+    static List<KDPoint> sorted(List<KDPoint> points) {
+        List<KDPoint> copy = new ArrayList<>(points);
+        Collections.sort(copy, KD_COMPARATOR);
+        return copy;
+    }
+
     @BeforeClass
     public static void setUpClass() {
         kdts = new ArrayList<>(MAX_K);
@@ -297,6 +328,48 @@ public class KDTreeTest {
         }
     }
 
+    @Test
+    public void approximateKNNTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            KDTree<KDPoint> kdt = kdts.get(z);
+            KDTree<KDPoint> kdtSparse = kdtsSparse.get(z);
+            List<KDPoint> listOfPoints = listsOfPoints.get(z);
+            DistanceFunction distFunc = distFuncs.get(z);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = randKDPoint(dim);
+                int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                double epsilon = RAND.nextDouble();
+                List<KDPoint> expected = naiveKNN(listOfPoints, center, k, distFunc);
+                KNNResult<KDPoint> exact = kdt.approximateKNN(center, k, 0);
+                assertTrue(exact.exact);
+                assertEquals(expected, exact.neighbors);
+                KNNResult<KDPoint> approx = kdtSparse.approximateKNN(center, k, epsilon);
+                assertEquals(k, approx.neighbors.size());
+                for (int j = 0; j < k; j++) {
+                    double trueDist = distFunc.distanceBetween(center, expected.get(j));
+                    double approxDist = distFunc.distanceBetween(center, approx.neighbors.get(j));
+                    assertTrue(approxDist <= trueDist * (1 + epsilon));
+                }
+                if (approx.exact) {
+                    assertEquals(expected, approx.neighbors);
+                }
+                KNNResult<KDPoint> budgeted = kdtSparse.approximateKNN(center, k, 0, 1);
+                assertEquals(k, budgeted.neighbors.size());
+                if (budgeted.exact) {
+                    assertEquals(expected, budgeted.neighbors);
+                }
+            }
+            boolean caught = false;
+            try {
+                kdt.approximateKNN(randKDPoint(dim), 1, -1);
+            } catch (IllegalArgumentException e) {
+                caught = true;
+            }
+            assertTrue(caught);
+        }
+    }
+
     @Test
     public void clearTest() {
         for (int z = 0; z < MAX_K; z++) {
@@ -314,6 +387,43 @@ public class KDTreeTest {
         }
     }
 
+    @Test
+    public void closestPairTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            DistanceFunction distFunc = distFuncs.get(z);
+            List<KDPoint> first = new ArrayList<>();
+            List<KDPoint> second = new ArrayList<>();
+            for (int i = 0; i < NUM_TRIALS * 20; i++) {
+                first.add(randKDPoint(dim));
+                second.add(randKDPoint(dim));
+            }
+            double expectedWithin = Double.POSITIVE_INFINITY;
+            double expectedBetween = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < first.size(); i++) {
+                for (int j = 0; j < first.size(); j++) {
+                    if (i != j) {
+                        expectedWithin = Math.min(expectedWithin, distFunc.distanceBetween(first.get(i), first.get(j)));
+                    }
+                    expectedBetween = Math.min(expectedBetween, distFunc.distanceBetween(first.get(i), second.get(j)));
+                }
+            }
+            KDTree<KDPoint> kdtFirst = new KDTree<>(first, dim, distFunc);
+            KDTree<KDPoint> kdtSecond = new KDTree<>(second, dim, 1, distFunc);
+            NeighborPair<KDPoint, KDPoint> within = kdtFirst.closestPair();
+            assertEquals(expectedWithin, within.dist, 0);
+            assertNotSame(within.first, within.second);
+            assertEquals(within.dist, distFunc.distanceBetween(within.first, within.second), 0);
+            NeighborPair<KDPoint, KDPoint> between = kdtFirst.closestPair(kdtSecond);
+            assertEquals(expectedBetween, between.dist, 0);
+            assertTrue(first.contains(between.first));
+            assertTrue(second.contains(between.second));
+            KDTree<KDPoint> emptyKDT = new KDTree<>(EMPTY, dim, distFunc);
+            assertNull(emptyKDT.closestPair());
+            assertNull(kdtFirst.closestPair(emptyKDT));
+        }
+    }
+
     @Test
     public void containsTest() {
         String notKDPoint = "I am not a KD point";
@@ -344,6 +454,60 @@ public class KDTreeTest {
         }
     }
 
+    @Test
+    public void countInBoxTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            KDTree<KDPoint> kdt = kdts.get(z);
+            KDTree<KDPoint> kdtSparse = kdtsSparse.get(z);
+            List<KDPoint> listOfPoints = listsOfPoints.get(z);
+            boolean caught = false;
+            try {
+                kdt.countInBox(1, 2, 3);
+            } catch (IllegalArgumentException e) {
+                caught = true;
+            }
+            assertTrue(caught);
+            double[] box = new double[dim * 2];
+            for (int i = 0; i < dim; i++) {
+                box[i * 2] = Double.NEGATIVE_INFINITY;
+                box[i * 2 + 1] = Double.POSITIVE_INFINITY;
+            }
+            assertEquals(listOfPoints.size(), kdt.countInBox(box));
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                for (int j = 0; j < dim; j++) {
+                    double a = randCoord();
+                    double b = randCoord();
+                    box[j * 2] = Math.min(a, b);
+                    box[j * 2 + 1] = Math.max(a, b);
+                }
+                int expected = naivePointsInBox(listOfPoints, box).size();
+                assertEquals(expected, kdt.countInBox(box));
+                assertEquals(expected, kdtSparse.countInBox(box));
+            }
+        }
+    }
+
+    @Test
+    public void distanceToTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            List<DistanceFunction> funcs = new ArrayList<>(Arrays.asList(Distances.euclidean(dim),
+                    Distances.sqEuclidean(dim), Distances.manhattan(dim), Distances.chebyshev(dim)));
+            if (dim == 2) {
+                funcs.addAll(Arrays.asList(Distances.haversine(), Distances.equirectangular(),
+                        Distances.sqEquirectangular()));
+            }
+            for (DistanceFunction distFunc : funcs) {
+                for (int i = 0; i < NUM_TRIALS; i++) {
+                    KDPoint p = randKDPoint(dim);
+                    KDPoint q = randKDPoint(dim);
+                    assertEquals(distFunc.distanceBetween(p, q), distFunc.distanceTo(p, q.getCoords()), 1e-9);
+                }
+            }
+        }
+    }
+
     @Test
     public void emptyStartTest() {
         for (int z = 0; z < MAX_K; z++) {
@@ -438,6 +602,32 @@ public class KDTreeTest {
         assertTrue(caught);
     }
 
+    @Test
+    public void filteredSearchTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            KDTree<KDPoint> kdt = kdts.get(z);
+            KDTree<KDPoint> kdtSparse = kdtsSparse.get(z);
+            List<KDPoint> listOfPoints = listsOfPoints.get(z);
+            DistanceFunction distFunc = distFuncs.get(z);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                final double threshold = randCoord();
+                Predicate<KDPoint> filter = p -> p.getCoord(dim - 1) > threshold;
+                List<KDPoint> accepted = listOfPoints.stream().filter(filter).collect(Collectors.toList());
+                KDPoint center = randKDPoint(dim);
+                int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                List<KDPoint> expected = naiveKNN(accepted, center, k, distFunc);
+                assertEquals(expected, kdt.kNN(center, k, filter));
+                assertEquals(expected, kdtSparse.kNN(center, k, filter));
+                double radius = RAND.nextDouble() * Math.log(SPACE_BOUND);
+                expected = naiveRadiusSearch(accepted, center, radius, distFunc);
+                assertEquals(expected, kdt.radiusSearch(center, radius, filter));
+                assertEquals(expected, kdtSparse.radiusSearch(center, radius, filter));
+            }
+            assertTrue(kdt.kNN(randKDPoint(dim), 5, p -> false).isEmpty());
+        }
+    }
+
     @Test
     public void getKTest() {
         for (int z = 0; z < MAX_K; z++) {
@@ -462,6 +652,97 @@ public class KDTreeTest {
         assertTrue(emptyKDT.isEmpty());
     }
 
+    @Test
+    public void joinTest() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int z = 0; z < MAX_K; z++) {
+                final int dim = z + 1;
+                KDTree<KDPoint> kdt = kdts.get(z);
+                List<KDPoint> listOfPoints = listsOfPoints.get(z);
+                DistanceFunction distFunc = distFuncs.get(z);
+                List<KDPoint> others = new ArrayList<>(NUM_TRIALS);
+                for (int i = 0; i < NUM_TRIALS; i++) {
+                    others.add(randKDPoint(dim));
+                }
+                KDTree<KDPoint> kdtOthers = new KDTree<>(others, dim, distFunc);
+                List<NeighborPair<KDPoint, KDPoint>> nearest = kdtOthers.nearestNeighborJoin(kdt, pool);
+                assertEquals(kdtOthers.toList(), nearest.stream().map(n -> n.first).collect(Collectors.toList()));
+                for (NeighborPair<KDPoint, KDPoint> pair : nearest) {
+                    KDPoint expected = naiveKNN(listOfPoints, pair.first, 1, distFunc).get(0);
+                    assertEquals(distFunc.distanceBetween(pair.first, expected), pair.dist, 0);
+                    assertEquals(pair.dist, distFunc.distanceBetween(pair.first, pair.second), 0);
+                }
+                nearest = kdt.nearestNeighborJoin(kdtOthers, pool);
+                assertEquals(kdt.size(), nearest.size());
+                for (NeighborPair<KDPoint, KDPoint> pair : nearest) {
+                    double expected = Double.POSITIVE_INFINITY;
+                    for (KDPoint other : others) {
+                        expected = Math.min(expected, distFunc.distanceBetween(pair.first, other));
+                    }
+                    assertEquals(expected, pair.dist, 0);
+                }
+                final double radius = RAND.nextDouble() * Math.log(SPACE_BOUND);
+                List<NeighborPair<KDPoint, KDPoint>> within = kdt.radiusJoin(kdtOthers, radius, pool);
+                for (KDPoint other : others) {
+                    List<KDPoint> expected = naiveRadiusSearch(listOfPoints, other, radius, distFunc);
+                    List<KDPoint> actual = within.stream().filter(n -> n.second == other).map(n -> n.first)
+                            .collect(Collectors.toList());
+                    Collections.sort(expected, KD_COMPARATOR);
+                    Collections.sort(actual, KD_COMPARATOR);
+                    assertEquals(expected, actual);
+                }
+                assertTrue(kdtOthers.nearestNeighborJoin(new KDTree<>(EMPTY, dim, distFunc)).isEmpty());
+                boolean caught = false;
+                try {
+                    kdt.radiusJoin(new KDTree<>(EMPTY, dim + 1, Distances.euclidean(dim + 1)), 1);
+                } catch (IllegalArgumentException e) {
+                    caught = true;
+                }
+                assertTrue(caught);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void kNNAllTest() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            KDTree<KDPoint> kdt = kdts.get(z);
+            KDTree<KDPoint> kdtSparse = kdtsSparse.get(z);
+            List<KDPoint> centers = new ArrayList<>(NUM_TRIALS);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                centers.add(randKDPoint(dim));
+            }
+            int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+            double radius = RAND.nextDouble() * Math.log(SPACE_BOUND);
+            List<List<KDPoint>> kNNs = kdt.kNNAll(centers, k);
+            List<List<KDPoint>> kNNsSparse = kdtSparse.kNNAll(centers, k, pool);
+            List<List<KDPoint>> withinRadius = kdt.radiusSearchAll(centers, radius);
+            List<List<KDPoint>> withinRadiusSparse = kdtSparse.radiusSearchAll(centers, radius, pool);
+            assertEquals(centers.size(), kNNs.size());
+            assertEquals(centers.size(), withinRadius.size());
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = centers.get(i);
+                assertEquals(kdt.kNN(center, k), kNNs.get(i));
+                assertEquals(kdtSparse.kNN(center, k), kNNsSparse.get(i));
+                assertEquals(kdt.radiusSearch(center, radius), withinRadius.get(i));
+                assertEquals(kdtSparse.radiusSearch(center, radius), withinRadiusSparse.get(i));
+            }
+            boolean caught = false;
+            try {
+                kdt.kNNAll(centers, kdt.size() + 1);
+            } catch (IllegalArgumentException e) {
+                caught = true;
+            }
+            assertTrue(caught);
+        }
+        pool.shutdown();
+    }
+
     @Test
     public void kNNClassifyTest() {
         Function<KDPoint, Integer> mapper = new Function<KDPoint, Integer>() {
@@ -522,6 +803,69 @@ public class KDTreeTest {
         }
     }
 
+    @Test
+    public void kNNGraphTest() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int z = 0; z < MAX_K; z++) {
+                final int dim = z + 1;
+                KDTree<KDPoint> kdt = kdts.get(z);
+                List<KDPoint> listOfPoints = listsOfPoints.get(z);
+                DistanceFunction distFunc = distFuncs.get(z);
+                final int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                KNNGraph<KDPoint> graph = kdt.kNNGraph(k, pool);
+                assertEquals(k, graph.k);
+                assertEquals(kdt.toList(), graph.points);
+                for (int i = 0; i < NUM_TRIALS; i++) {
+                    final int id = RAND.nextInt(graph.points.size());
+                    KDPoint point = graph.points.get(id);
+                    List<KDPoint> expected = naiveKNN(listOfPoints, point, k + 1, distFunc);
+                    for (int j = 0; j < k; j++) {
+                        assertNotEquals(id, graph.neighbor(id, j));
+                        assertEquals(distFunc.distanceBetween(point, expected.get(j + 1)), graph.distance(id, j), 0);
+                        assertEquals(graph.distance(id, j),
+                                distFunc.distanceBetween(point, graph.points.get(graph.neighbor(id, j))), 0);
+                    }
+                }
+                List<KDPoint> few = listOfPoints.subList(0, k);
+                graph = new KDTree<>(few, dim, distFunc).kNNGraph(k);
+                assertEquals(k - 1, graph.k);
+                assertEquals((k - 1) * k, graph.neighbors.length);
+                assertEquals(0, new KDTree<>(EMPTY, dim, distFunc).kNNGraph(0).neighbors.length);
+                assertEquals(0, kdt.kNNGraph(0).k);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void kNNOtherDistancesTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            List<KDPoint> listOfPoints = listsOfPoints.get(z).subList(0, NUM_POINTS / 10);
+            List<DistanceFunction> others = Arrays.asList(Distances.euclidean(dim), Distances.manhattan(dim),
+                    Distances.chebyshev(dim), (p1, p2) -> Distances.manhattan(dim).distanceBetween(p1, p2));
+            for (DistanceFunction distFunc : others) {
+                KDTree<KDPoint> kdt = new KDTree<>(listOfPoints, dim, distFunc);
+                for (int i = 0; i < NUM_TRIALS / 5; i++) {
+                    KDPoint center = randKDPoint(dim);
+                    int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                    double radius = RAND.nextDouble() * Math.log(SPACE_BOUND);
+                    Function<KDPoint, Double> toDist = p -> distFunc.distanceBetween(center, p);
+                    List<Double> expected = naiveKNN(listOfPoints, center, k, distFunc).stream().map(toDist)
+                            .collect(Collectors.toList());
+                    List<Double> actual = kdt.kNN(center, k).stream().map(toDist).collect(Collectors.toList());
+                    assertEquals(expected, actual);
+                    expected = naiveRadiusSearch(listOfPoints, center, radius, distFunc).stream().map(toDist)
+                            .collect(Collectors.toList());
+                    actual = kdt.radiusSearch(center, radius).stream().map(toDist).collect(Collectors.toList());
+                    assertEquals(expected, actual);
+                }
+            }
+        }
+    }
+
     @Test
     public void kNNTest() {
         for (int z = 0; z < MAX_K; z++) {
@@ -558,6 +902,69 @@ public class KDTreeTest {
         }
     }
 
+    @Test
+    public void nearestIteratorTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            KDTree<KDPoint> kdt = kdts.get(z);
+            KDTree<KDPoint> kdtSparse = kdtsSparse.get(z);
+            List<KDPoint> listOfPoints = listsOfPoints.get(z);
+            DistanceFunction distFunc = distFuncs.get(z);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = randKDPoint(dim);
+                int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                List<KDPoint> expected = naiveKNN(listOfPoints, center, k, distFunc);
+                List<KDPoint> actual = new ArrayList<>(k);
+                Iterator<KDPoint> it = kdt.nearestIterator(center);
+                while (actual.size() < k) {
+                    assertTrue(it.hasNext());
+                    actual.add(it.next());
+                }
+                assertEquals(expected, actual);
+                assertEquals(expected, kdtSparse.nearestStream(center).limit(k).collect(Collectors.toList()));
+                List<KDPoint> positives = listOfPoints.stream().filter(p -> p.getCoord(0) > 0)
+                        .collect(Collectors.toList());
+                assertEquals(naiveKNN(positives, center, 1, distFunc),
+                        kdt.nearestStream(center).filter(p -> p.getCoord(0) > 0).limit(1).collect(Collectors.toList()));
+            }
+            Iterator<KDPoint> it = kdtSparse.nearestIterator(randKDPoint(dim));
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            assertEquals(listOfPoints.size(), count);
+        }
+    }
+
+    @Test
+    public void parallelBuildTest() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            List<KDPoint> listOfPoints = listsOfPoints.get(z);
+            DistanceFunction distFunc = distFuncs.get(z);
+            KDTree<KDPoint> kdt = new KDTree<>(listOfPoints, dim, distFunc, pool);
+            KDTree<KDPoint> kdtSparse = new KDTree<>(listOfPoints, dim, 1, distFunc, pool);
+            assertEquals(listOfPoints.size(), kdt.size());
+            assertEquals(listOfPoints.size(), kdtSparse.size());
+            List<KDPoint> kdtList = kdt.toList();
+            List<KDPoint> kdtSparseList = kdtSparse.toList();
+            Collections.sort(kdtList, KD_COMPARATOR);
+            Collections.sort(kdtSparseList, KD_COMPARATOR);
+            assertEquals(listOfPoints, kdtList);
+            assertEquals(listOfPoints, kdtSparseList);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = randKDPoint(dim);
+                int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                List<KDPoint> expected = naiveKNN(listOfPoints, center, k, distFunc);
+                assertEquals(expected, kdt.kNN(center, k));
+                assertEquals(expected, kdtSparse.kNN(center, k));
+            }
+        }
+        pool.shutdown();
+    }
+
     @Test
     public void pointsInBoxTest() {
         for (int z = 0; z < MAX_K; z++) {
@@ -718,6 +1125,53 @@ public class KDTreeTest {
         }
     }
 
+    @Test
+    public void rebalanceTest() {
+        final int numSkewed = NUM_POINTS / 10;
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            DistanceFunction distFunc = distFuncs.get(z);
+            KDTree<KDPoint> kdt = new KDTree<>(EMPTY, dim, distFunc);
+            KDTree<KDPoint> kdtSparse = new KDTree<>(EMPTY, dim, 1, distFunc);
+            List<KDPoint> listOfPoints = new ArrayList<>(numSkewed);
+            for (int i = 0; i < numSkewed; i++) {
+                double[] coords = new double[dim];
+                coords[0] = i;
+                for (int j = 1; j < dim; j++) {
+                    coords[j] = randCoord();
+                }
+                KDPoint point = new KDPoint(coords);
+                kdt.add(point);
+                kdtSparse.add(point);
+                listOfPoints.add(point);
+            }
+            final double maxDepth = 3 * Math.log(numSkewed) / Math.log(2);
+            assertTrue(depth(kdt.root) <= maxDepth);
+            assertTrue(depth(kdtSparse.root) <= maxDepth);
+            Collections.shuffle(listOfPoints, RAND);
+            for (KDPoint point : listOfPoints.subList(0, numSkewed * 9 / 10)) {
+                assertTrue(kdt.remove(point));
+                assertTrue(kdtSparse.remove(point));
+            }
+            listOfPoints = new ArrayList<>(listOfPoints.subList(numSkewed * 9 / 10, numSkewed));
+            assertFalse(hasEmptyLeaf(kdt.root, true));
+            assertFalse(hasEmptyLeaf(kdtSparse.root, true));
+            assertEquals(listOfPoints.size(), kdt.root.count);
+            assertEquals(listOfPoints.size(), kdtSparse.root.count);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = randKDPoint(dim);
+                int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                List<KDPoint> expected = naiveKNN(listOfPoints, center, k, distFunc);
+                assertEquals(expected, kdt.kNN(center, k));
+                assertEquals(expected, kdtSparse.kNN(center, k));
+            }
+            List<KDPoint> kdtList = kdt.toList();
+            Collections.sort(kdtList, KD_COMPARATOR);
+            Collections.sort(listOfPoints, KD_COMPARATOR);
+            assertEquals(listOfPoints, kdtList);
+        }
+    }
+
     @Test
     public void removeAllTest() {
         for (int z = 0; z < MAX_K; z++) {
@@ -756,6 +1210,35 @@ public class KDTreeTest {
         }
     }
 
+    @Test
+    public void removeIfTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            KDTree<KDPoint> kdt = kdts.get(z);
+            KDTree<KDPoint> kdtSparse = kdtsSparse.get(z);
+            List<KDPoint> listOfPoints = listsOfPoints.get(z);
+            Predicate<KDPoint> filter = p -> p.getCoord(0) > SPACE_BOUND / 2;
+            boolean changed = listOfPoints.removeIf(filter);
+            assertEquals(changed, kdt.removeIf(filter));
+            assertEquals(changed, kdtSparse.removeIf(filter));
+            assertFalse(kdt.removeIf(filter));
+            assertEquals(listOfPoints.size(), kdt.size());
+            assertEquals(listOfPoints.size(), kdtSparse.size());
+            assertEquals(listOfPoints.size(), kdt.root.count);
+            List<KDPoint> kdtList = kdt.toList();
+            List<KDPoint> kdtSparseList = kdtSparse.toList();
+            Collections.sort(kdtList, KD_COMPARATOR);
+            Collections.sort(kdtSparseList, KD_COMPARATOR);
+            assertEquals(listOfPoints, kdtList);
+            assertEquals(listOfPoints, kdtSparseList);
+            final int dim = z + 1;
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = randKDPoint(dim);
+                int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                assertEquals(naiveKNN(listOfPoints, center, k, distFuncs.get(z)), kdt.kNN(center, k));
+            }
+        }
+    }
+
     @Test
     public void removeTest() {
         String notKDPoint = "I am not a KD point";
@@ -880,6 +1363,105 @@ public class KDTreeTest {
         }
     }
 
+    @Test
+    public void spliteratorTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            KDTree<KDPoint> kdt = kdts.get(z);
+            KDTree<KDPoint> kdtSparse = kdtsSparse.get(z);
+            List<KDPoint> listOfPoints = listsOfPoints.get(z);
+            List<KDPoint> iterated = new ArrayList<>();
+            kdt.iterator().forEachRemaining(iterated::add);
+            assertEquals(kdt.toList(), iterated);
+            assertEquals(kdt.toList(), kdt.stream().collect(Collectors.toList()));
+            assertEquals(kdtSparse.toList(), kdtSparse.parallelStream().collect(Collectors.toList()));
+            double expectedSum = listOfPoints.stream().mapToDouble(p -> p.getCoord(0)).sum();
+            assertEquals(expectedSum, kdt.parallelStream().mapToDouble(p -> p.getCoord(0)).sum(), 1e-6);
+            Spliterator<KDPoint> spliterator = kdt.spliterator();
+            assertEquals(listOfPoints.size(), spliterator.getExactSizeIfKnown());
+            Spliterator<KDPoint> prefix = spliterator.trySplit();
+            assertNotNull(prefix);
+            assertEquals(listOfPoints.size(), prefix.estimateSize() + spliterator.estimateSize());
+            List<KDPoint> split = new ArrayList<>();
+            while (prefix.tryAdvance(split::add)) {
+            }
+            assertNull(prefix.trySplit());
+            spliterator.forEachRemaining(split::add);
+            assertEquals(0, prefix.estimateSize());
+            assertEquals(0, spliterator.estimateSize());
+            assertEquals(iterated, split);
+            Iterator<KDPoint> iterator = kdt.iterator();
+            iterator.next();
+            KDPoint point = randKDPoint(z + 1);
+            kdt.add(point);
+            boolean caught = false;
+            try {
+                iterator.next();
+            } catch (ConcurrentModificationException e) {
+                caught = true;
+            }
+            assertTrue(caught);
+            assertTrue(kdt.remove(point));
+        }
+    }
+
+    @Test
+    public void splitStrategyTest() {
+        final int dim = 3;
+        DistanceFunction distFunc = Distances.euclidean(dim);
+        List<KDPoint> points = new ArrayList<>();
+        for (int i = 0; i < NUM_POINTS / 10; i++) {
+            double cluster = RAND.nextInt(4) * SPACE_BOUND;
+            points.add(new KDPoint(cluster + randCoord() * 10, randCoord(), Math.round(randCoord() / 10)));
+        }
+        List<SplitStrategy> strategies = Arrays.asList(SplitStrategies.roundRobin(), SplitStrategies.maxSpread(),
+                SplitStrategies.maxVariance(), SplitStrategies.slidingMidpoint());
+        for (SplitStrategy strategy : strategies) {
+            List<KDPoint> listOfPoints = new ArrayList<>(points);
+            KDTree<KDPoint> kdt = new KDTree<>(listOfPoints, dim, 5, distFunc, strategy);
+            for (int i = 0; i < NUM_ADDED; i++) {
+                KDPoint point = listOfPoints.get(RAND.nextInt(listOfPoints.size()));
+                listOfPoints.add(point);
+                kdt.add(point);
+            }
+            for (int i = 0; i < NUM_REMOVED; i++) {
+                KDPoint point = listOfPoints.remove(RAND.nextInt(listOfPoints.size()));
+                assertTrue(kdt.remove(point));
+            }
+            assertEquals(listOfPoints.size(), kdt.size());
+            assertFalse(hasEmptyLeaf(kdt.root, true));
+            assertTrue(depth(kdt.root) <= Math.log(listOfPoints.size()) / Math.log(1 / KDTree.BALANCE) + 1);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = new KDPoint(RAND.nextDouble() * 4 * SPACE_BOUND, randCoord(), randCoord() / 10);
+                int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                assertEquals(naiveKNN(listOfPoints, center, k, distFunc), kdt.kNN(center, k));
+                double radius = RAND.nextDouble() * SPACE_BOUND / 2;
+                List<KDPoint> expected = naiveRadiusSearch(listOfPoints, center, radius, distFunc);
+                List<KDPoint> actual = kdt.radiusSearch(center, radius);
+                expected.sort(KD_COMPARATOR);
+                actual.sort(KD_COMPARATOR);
+                assertEquals(expected, actual);
+            }
+            ForkJoinPool pool = new ForkJoinPool(2);
+            KDTree<KDPoint> parallel = new KDTree<>(listOfPoints, dim, 5, distFunc, strategy, pool);
+            pool.shutdown();
+            KDPoint center = randKDPoint(dim);
+            assertEquals(kdt.kNN(center, 10), parallel.kNN(center, 10));
+        }
+        List<KDPoint> queries = points.subList(0, NUM_TRIALS);
+        int pointsPerLeaf = KDTree.tunePointsPerLeaf(points, dim, distFunc, SplitStrategies.slidingMidpoint(),
+                queries, 10);
+        assertTrue(pointsPerLeaf >= 1 && pointsPerLeaf <= 64 && Integer.bitCount(pointsPerLeaf) == 1);
+        assertEquals(5, KDTree.tunePointsPerLeaf(points, dim, distFunc, SplitStrategies.maxSpread(), EMPTY, 10));
+        assertEquals(5, KDTree.tunePointsPerLeaf(EMPTY, dim, distFunc, SplitStrategies.maxSpread(), queries, 10));
+        boolean caught = false;
+        try {
+            new KDTree<>(points, dim, 5, distFunc, (SplitStrategy) null);
+        } catch (IllegalArgumentException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+
     @Test
     public void toArrayTest() {
         for (int z = 0; z < MAX_K; z++) {
@@ -897,4 +1479,138 @@ public class KDTreeTest {
         }
     }
 
+    @Test
+    public void updateTest() {
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            DistanceFunction distFunc = distFuncs.get(z);
+            KDTree<KDPoint> kdt = kdts.get(z);
+            KDTree<KDPoint> kdtSparse = kdtsSparse.get(z);
+            List<KDPoint> listOfPoints = listsOfPoints.get(z);
+            final int origSize = listOfPoints.size();
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint missing = randKDPoint(dim);
+                if (!listOfPoints.contains(missing)) {
+                    assertFalse(kdt.update(missing, randKDPoint(dim)));
+                    assertFalse(kdtSparse.update(missing, randKDPoint(dim)));
+                }
+                int index = RAND.nextInt(listOfPoints.size());
+                KDPoint oldPoint = listOfPoints.get(index);
+                KDPoint newPoint = i % 2 == 0 ? randKDPoint(dim) : jitter(oldPoint);
+                assertTrue(kdt.update(oldPoint, newPoint));
+                assertTrue(kdtSparse.update(oldPoint, newPoint));
+                listOfPoints.set(index, newPoint);
+            }
+            List<Integer> indices = IntStream.range(0, origSize).boxed().collect(Collectors.toList());
+            Collections.shuffle(indices, RAND);
+            List<KDPoint> oldPoints = new ArrayList<>();
+            List<KDPoint> newPoints = new ArrayList<>();
+            for (int index : indices.subList(0, origSize / 10)) {
+                KDPoint oldPoint = listOfPoints.get(index);
+                KDPoint newPoint = RAND.nextBoolean() ? randKDPoint(dim) : jitter(oldPoint);
+                oldPoints.add(oldPoint);
+                newPoints.add(newPoint);
+                listOfPoints.set(index, newPoint);
+            }
+            assertEquals(oldPoints.size(), kdt.updateAll(oldPoints, newPoints));
+            assertEquals(oldPoints.size(), kdtSparse.updateAll(oldPoints, newPoints));
+            assertEquals(origSize, kdt.size());
+            assertEquals(origSize, kdtSparse.size());
+            assertEquals(origSize, kdt.root.count);
+            assertEquals(origSize, kdtSparse.root.count);
+            assertFalse(hasEmptyLeaf(kdt.root, true));
+            assertFalse(hasEmptyLeaf(kdtSparse.root, true));
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                KDPoint center = randKDPoint(dim);
+                int k = RAND.nextInt((int) Math.log(NUM_POINTS)) + 1;
+                List<KDPoint> expected = naiveKNN(listOfPoints, center, k, distFunc);
+                assertEquals(expected, kdt.kNN(center, k));
+                assertEquals(expected, kdtSparse.kNN(center, k));
+            }
+            List<KDPoint> kdtList = kdt.toList();
+            List<KDPoint> kdtSparseList = kdtSparse.toList();
+            Collections.sort(kdtList, KD_COMPARATOR);
+            Collections.sort(kdtSparseList, KD_COMPARATOR);
+            Collections.sort(listOfPoints, KD_COMPARATOR);
+            assertEquals(listOfPoints, kdtList);
+            assertEquals(listOfPoints, kdtSparseList);
+        }
+        final int numSkewed = NUM_POINTS / 10;
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            List<KDPoint> listOfPoints = new ArrayList<>(numSkewed);
+            for (int i = 0; i < numSkewed; i++) {
+                listOfPoints.add(randKDPoint(dim));
+            }
+            KDTree<KDPoint> kdt = new KDTree<>(listOfPoints, dim, 1, distFuncs.get(z));
+            for (int i = 0; i < numSkewed; i++) {
+                double[] coords = listOfPoints.get(i).getCoords();
+                coords[0] = SPACE_BOUND + i;
+                KDPoint newPoint = new KDPoint(coords);
+                assertTrue(kdt.update(listOfPoints.get(i), newPoint));
+                listOfPoints.set(i, newPoint);
+            }
+            assertTrue(depth(kdt.root) <= 3 * Math.log(numSkewed) / Math.log(2));
+            assertEquals(numSkewed, kdt.root.count);
+            boolean caught = false;
+            try {
+                kdt.updateAll(listOfPoints, EMPTY);
+            } catch (IllegalArgumentException e) {
+                caught = true;
+            }
+            assertTrue(caught);
+        }
+    }
+
+    @Test
+    public void visitTest() {
+        final int limit = 10;
+        for (int z = 0; z < MAX_K; z++) {
+            final int dim = z + 1;
+            KDTree<KDPoint> kdt = kdts.get(z);
+            List<KDPoint> listOfPoints = listsOfPoints.get(z);
+            DistanceFunction distFunc = distFuncs.get(z);
+            for (int i = 0; i < NUM_TRIALS; i++) {
+                double[] box = new double[dim * 2];
+                for (int j = 0; j < dim; j++) {
+                    double a = randCoord();
+                    double b = randCoord();
+                    box[j * 2] = Math.min(a, b);
+                    box[j * 2 + 1] = Math.max(a, b);
+                }
+                List<KDPoint> expected = naivePointsInBox(listOfPoints, box);
+                List<KDPoint> visited = new ArrayList<>();
+                assertTrue(kdt.visitPointsInBox(p -> visited.add(p), box));
+                Collections.sort(visited, KD_COMPARATOR);
+                assertEquals(expected, visited);
+                visited.clear();
+                boolean finished = kdt.visitPointsInBox(p -> visited.add(p) && visited.size() < limit, box);
+                assertEquals(expected.size() < limit, finished);
+                assertEquals(Math.min(expected.size(), limit), visited.size());
+                assertTrue(expected.containsAll(visited));
+
+                final int rangeDim = RAND.nextInt(dim);
+                expected = naivePointsInRange(listOfPoints, rangeDim, box[rangeDim * 2], box[rangeDim * 2 + 1]);
+                visited.clear();
+                finished = kdt.visitPointsInRange(rangeDim, box[rangeDim * 2], box[rangeDim * 2 + 1],
+                        p -> visited.add(p) && visited.size() < limit);
+                assertEquals(expected.size() < limit, finished);
+                assertEquals(Math.min(expected.size(), limit), visited.size());
+                assertTrue(expected.containsAll(visited));
+
+                KDPoint center = randKDPoint(dim);
+                double radius = RAND.nextDouble() * Math.log(SPACE_BOUND);
+                expected = naiveRadiusSearch(listOfPoints, center, radius, distFunc);
+                visited.clear();
+                assertTrue(kdt.visitPointsInRadius(center, radius, p -> visited.add(p)));
+                assertEquals(expected.size(), visited.size());
+                assertTrue(expected.containsAll(visited));
+                visited.clear();
+                finished = kdt.visitPointsInRadius(center, radius, p -> visited.add(p) && visited.size() < limit);
+                assertEquals(expected.size() < limit, finished);
+                assertEquals(Math.min(expected.size(), limit), visited.size());
+            }
+        }
+    }
+
 }
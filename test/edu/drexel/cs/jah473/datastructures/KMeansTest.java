@@ -0,0 +1,136 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+public class KMeansTest {
+
+    static final int DIM = 3;
+    static final int MAX_ITERATIONS = 100;
+    static final int NUM_CLUSTERS = 10;
+    static final int POINTS_PER_CLUSTER = 2_000;
+    static final Random RAND = new Random();
+
+    List<KDPoint> points;
+
+    /* Runs Lloyd's algorithm by brute force, moving the centroids in place and returning the labels */
+    int[] naiveLloyd(double[][] centroids) {
+        int[] labels = new int[points.size()];
+        for (int iteration = 0; iteration <= MAX_ITERATIONS; iteration++) {
+            double[][] sums = new double[centroids.length][DIM];
+            int[] counts = new int[centroids.length];
+            for (int i = 0; i < points.size(); i++) {
+                KDPoint p = points.get(i);
+                int nearest = 0;
+                double nearestDist = Double.POSITIVE_INFINITY;
+                for (int c = 0; c < centroids.length; c++) {
+                    double dist = 0;
+                    for (int d = 0; d < DIM; d++) {
+                        dist += (centroids[c][d] - p.getCoord(d)) * (centroids[c][d] - p.getCoord(d));
+                    }
+                    if (dist < nearestDist) {
+                        nearest = c;
+                        nearestDist = dist;
+                    }
+                }
+                labels[i] = nearest;
+                counts[nearest]++;
+                for (int d = 0; d < DIM; d++) {
+                    sums[nearest][d] += p.getCoord(d);
+                }
+            }
+            for (int c = 0; c < centroids.length; c++) {
+                if (counts[c] > 0) {
+                    for (int d = 0; d < DIM; d++) {
+                        centroids[c][d] = sums[c][d] / counts[c];
+                    }
+                }
+            }
+        }
+        return labels;
+    }
+
+    @Before
+    public void setUp() {
+        points = new ArrayList<>();
+        for (int c = 0; c < NUM_CLUSTERS; c++) {
+            double[] center = new double[DIM];
+            for (int d = 0; d < DIM; d++) {
+                center[d] = RAND.nextDouble() * 100;
+            }
+            for (int i = 0; i < POINTS_PER_CLUSTER; i++) {
+                double[] coords = new double[DIM];
+                for (int d = 0; d < DIM; d++) {
+                    coords[d] = center[d] + RAND.nextGaussian() * 5;
+                }
+                points.add(new KDPoint(coords));
+            }
+        }
+    }
+
+    @Test
+    public void clusterTest() {
+        double[][] seeds = KMeans.seed(points, NUM_CLUSTERS, RAND);
+        KMeansResult result = KMeans.cluster(points, DIM, seeds, MAX_ITERATIONS);
+        assertEquals(points.size(), result.labels.length);
+        assertTrue(result.iterations <= MAX_ITERATIONS);
+        int[] expected = naiveLloyd(seeds);
+        assertArrayEquals(expected, result.labels);
+        double cost = 0;
+        for (int i = 0; i < points.size(); i++) {
+            double[] centroid = result.centroids[result.labels[i]];
+            assertArrayEquals(seeds[result.labels[i]], centroid, 1e-9);
+            for (int d = 0; d < DIM; d++) {
+                cost += (centroid[d] - points.get(i).getCoord(d)) * (centroid[d] - points.get(i).getCoord(d));
+            }
+        }
+        assertEquals(cost, result.cost, cost * 1e-9);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        KMeansResult sequential;
+        try {
+            sequential = KMeans.cluster(points, DIM, KMeans.seed(points, NUM_CLUSTERS, new Random(1)), MAX_ITERATIONS,
+                    pool);
+        } finally {
+            pool.shutdown();
+        }
+        KMeansResult parallel = KMeans.cluster(points, DIM, NUM_CLUSTERS, MAX_ITERATIONS, new Random(1));
+        assertArrayEquals(sequential.labels, parallel.labels);
+        assertEquals(sequential.iterations, parallel.iterations);
+        boolean caught = false;
+        try {
+            KMeans.cluster(points, DIM, seeds, -1);
+        } catch (IllegalArgumentException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+
+    @Test
+    public void seedTest() {
+        double[][] seeds = KMeans.seed(points, NUM_CLUSTERS, RAND);
+        assertEquals(NUM_CLUSTERS, seeds.length);
+        Set<KDPoint> distinct = new HashSet<>();
+        for (double[] seed : seeds) {
+            distinct.add(new KDPoint(seed));
+        }
+        assertEquals(NUM_CLUSTERS, distinct.size());
+        boolean caught = false;
+        try {
+            KMeans.seed(points, points.size() + 1, RAND);
+        } catch (IllegalArgumentException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+}
@@ -0,0 +1,128 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+public class MappedKDTreeTest {
+
+    static final int DIM = 3;
+    static final DistanceFunction DIST_FUNC = Distances.euclidean(DIM);
+    static final int NUM_POINTS = 50_000;
+    static final int NUM_TRIALS = 200;
+    static final Random RAND = new Random();
+
+    Path file;
+    Map<KDPoint, Long> ids;
+    KDTree<KDPoint> kdt;
+
+    /*
+     * Checks the searches of a tree that returns payload ids against the same
+     * searches of a KDTree holding the same points
+     */
+    static void checkIdQueries(KDTree<KDPoint> kdt, Map<KDPoint, Long> ids, BiFunction<KDPoint, Integer, long[]> kNN,
+            BiFunction<KDPoint, Double, long[]> radiusSearch, Function<double[], long[]> pointsInBox) {
+        for (int i = 0; i < NUM_TRIALS; i++) {
+            KDPoint center = randKDPoint();
+            int k = RAND.nextInt(20);
+            assertArrayEquals(toIds(kdt.kNN(center, k), ids), kNN.apply(center, k));
+            double radius = RAND.nextDouble() * 20;
+            assertArrayEquals(toIds(kdt.radiusSearch(center, radius), ids), radiusSearch.apply(center, radius));
+            double[] box = randBox(center);
+            long[] expected = toIds(kdt.pointsInBox(box), ids);
+            long[] actual = pointsInBox.apply(box);
+            Arrays.sort(expected);
+            Arrays.sort(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    /* A box around the center, up to 30 wide on each side */
+    static double[] randBox(KDPoint center) {
+        double[] box = new double[DIM * 2];
+        for (int d = 0; d < DIM; d++) {
+            box[d * 2] = center.getCoord(d) - RAND.nextDouble() * 30;
+            box[d * 2 + 1] = center.getCoord(d) + RAND.nextDouble() * 30;
+        }
+        return box;
+    }
+
+    static KDPoint randKDPoint() {
+        return new KDPoint(RAND.nextDouble() * 200 - 100, RAND.nextDouble() * 200 - 100,
+                RAND.nextDouble() * 200 - 100);
+    }
+
+    /* Random points, each given a distinct payload id in ids */
+    static List<KDPoint> randPoints(Map<KDPoint, Long> ids) {
+        List<KDPoint> points = new ArrayList<>(NUM_POINTS);
+        for (int i = 0; i < NUM_POINTS; i++) {
+            KDPoint point = randKDPoint();
+            points.add(point);
+            ids.put(point, 1000L + i);
+        }
+        return points;
+    }
+
+    static long[] toIds(List<KDPoint> points, Map<KDPoint, Long> ids) {
+        return points.stream().mapToLong(ids::get).toArray();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        ids = new IdentityHashMap<>();
+        kdt = new KDTree<>(randPoints(ids), DIM, DIST_FUNC);
+        file = Files.createTempFile("kdtree", ".bin");
+        kdt.export(file, ids::get);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void queryTest() throws IOException {
+        try (MappedKDTree mkdt = MappedKDTree.open(file, DIST_FUNC)) {
+            assertEquals(NUM_POINTS, mkdt.size());
+            assertEquals(DIM, mkdt.getK());
+            checkIdQueries(kdt, ids, mkdt::kNN, mkdt::radiusSearch, mkdt::pointsInBox);
+            boolean caught = false;
+            try {
+                mkdt.kNN(randKDPoint(), NUM_POINTS + 1);
+            } catch (IllegalArgumentException e) {
+                caught = true;
+            }
+            assertTrue(caught);
+        }
+    }
+
+    @Test
+    public void badFileTest() throws IOException {
+        Files.write(file, new byte[] { 1, 2, 3 });
+        boolean caught = false;
+        try {
+            MappedKDTree.open(file, DIST_FUNC).close();
+        } catch (IOException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+}
@@ -0,0 +1,143 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static edu.drexel.cs.jah473.datastructures.MappedKDTreeTest.*;
+import static org.junit.Assert.*;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+public class OffHeapKDTreeTest {
+
+    Map<KDPoint, Long> ids;
+    KDTree<KDPoint> kdt;
+    OffHeapKDTree ohkdt;
+    List<KDPoint> points;
+
+    /* Checks every kind of search against the on-heap tree */
+    void checkQueries(OffHeapKDTree tree) {
+        assertEquals(kdt.size(), tree.size());
+        checkIdQueries(kdt, ids, tree::kNN, tree::radiusSearch, tree::pointsInBox);
+    }
+
+    @Before
+    public void setUp() {
+        ids = new IdentityHashMap<>();
+        points = randPoints(ids);
+        kdt = new KDTree<>(points, DIM, DIST_FUNC);
+        ohkdt = new OffHeapKDTree(DIM, DIST_FUNC);
+        ohkdt.addAll(points, ids::get);
+    }
+
+    @After
+    public void tearDown() {
+        ohkdt.close();
+    }
+
+    @Test
+    public void queryTest() {
+        assertEquals(DIM, ohkdt.getK());
+        checkQueries(ohkdt);
+        for (int i = 0; i < 100; i++) {
+            KDPoint point = randKDPoint();
+            ids.put(point, 2_000_000L + i);
+            kdt.add(point);
+            ohkdt.add(ids.get(point), point.getCoords());
+        }
+        checkQueries(ohkdt);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try (OffHeapKDTree parallel = new OffHeapKDTree(DIM, 1, DIST_FUNC)) {
+            parallel.addAll(kdt.toList(), ids::get);
+            parallel.build(pool);
+            checkQueries(parallel);
+        } finally {
+            pool.shutdown();
+        }
+        boolean caught = false;
+        try {
+            ohkdt.kNN(randKDPoint(), NUM_POINTS + 101);
+        } catch (IllegalArgumentException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+
+    @Test
+    public void duplicatesTest() {
+        try (OffHeapKDTree tree = new OffHeapKDTree(2, Distances.euclidean(2))) {
+            for (int i = 0; i < NUM_POINTS; i++) {
+                tree.add(i, RAND.nextInt(10), RAND.nextInt(3));
+            }
+            tree.add(-1, 100, 100);
+            assertEquals(NUM_POINTS + 1, tree.size());
+            assertArrayEquals(new long[] { -1 }, tree.pointsInBox(50, 150, 50, 150));
+            assertEquals(NUM_POINTS, tree.pointsInBox(0, 9, 0, 2).length);
+            assertEquals(NUM_POINTS, tree.radiusSearch(new KDPoint(4.5, 1), 5).length);
+            assertArrayEquals(new long[] { -1 }, tree.kNN(new KDPoint(90, 90), 1));
+            long[] nearest = tree.kNN(new KDPoint(3, 1), 100);
+            assertEquals(100, nearest.length);
+            for (long id : nearest) {
+                assertTrue(id >= 0);
+            }
+        }
+    }
+
+    @Test
+    public void closeTest() {
+        OffHeapKDTree tree = new OffHeapKDTree(DIM, DIST_FUNC);
+        tree.add(1, 1, 2, 3);
+        assertArrayEquals(new long[] { 1 }, tree.kNN(new KDPoint(0, 0, 0), 1));
+        tree.close();
+        tree.close();
+        boolean caught = false;
+        try {
+            tree.kNN(new KDPoint(0, 0, 0), 1);
+        } catch (IllegalStateException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+        caught = false;
+        try {
+            tree.add(2, 1, 2, 3);
+        } catch (IllegalStateException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+
+    @Test
+    public void concurrentCloseTest() throws InterruptedException {
+        ohkdt.build();
+        AtomicInteger wrongResults = new AtomicInteger();
+        Thread[] searchers = new Thread[4];
+        for (int t = 0; t < searchers.length; t++) {
+            searchers[t] = new Thread(() -> {
+                try {
+                    while (true) {
+                        if (ohkdt.kNN(randKDPoint(), 5).length != 5) {
+                            wrongResults.incrementAndGet();
+                        }
+                    }
+                } catch (IllegalStateException e) {
+                    // the tree was closed
+                }
+            });
+            searchers[t].start();
+        }
+        Thread.sleep(20);
+        ohkdt.close();
+        for (Thread searcher : searchers) {
+            searcher.join();
+        }
+        assertEquals(0, wrongResults.get());
+    }
+}
@@ -0,0 +1,147 @@
+package edu.drexel.cs.jah473.datastructures;
+
+import static edu.drexel.cs.jah473.datastructures.KDTreeTest.randKDPoint;
+import static edu.drexel.cs.jah473.datastructures.KDTreeTest.sorted;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.drexel.cs.jah473.distance.DistanceFunction;
+import edu.drexel.cs.jah473.distance.Distances;
+import edu.drexel.cs.jah473.distance.KDPoint;
+
+public class WindowedKDTreeTest {
+
+    static final int DIM = 2;
+    static final DistanceFunction DIST_FUNC = Distances.euclidean(DIM);
+    static final int INTERVALS = 8;
+    static final int NUM_STEPS = 50;
+    static final int POINTS_PER_STEP = 400;
+    static final Random RAND = new Random();
+    static final long WINDOW = 1_000;
+
+    List<KDPoint> points;
+    List<Long> times;
+    WindowedKDTree<KDPoint> wkdt;
+
+    /* The points still live at the given time */
+    List<KDPoint> live(long now) {
+        List<KDPoint> live = new ArrayList<>();
+        for (int i = 0; i < points.size(); i++) {
+            if (times.get(i) > now - WINDOW) {
+                live.add(points.get(i));
+            }
+        }
+        return live;
+    }
+
+    @Before
+    public void setUp() {
+        points = new ArrayList<>();
+        times = new ArrayList<>();
+        wkdt = new WindowedKDTree<>(DIM, DIST_FUNC, WINDOW, INTERVALS);
+    }
+
+    @Test
+    public void slidingWindowTest() {
+        long now = 0;
+        for (int step = 0; step < NUM_STEPS; step++) {
+            now += RAND.nextInt(300);
+            wkdt.advanceTo(now);
+            for (int i = 0; i < POINTS_PER_STEP; i++) {
+                KDPoint point = randKDPoint(DIM);
+                long time = now - RAND.nextInt((int) WINDOW + 200);
+                boolean live = time > now - WINDOW;
+                assertEquals(live, wkdt.add(point, time));
+                if (live) {
+                    points.add(point);
+                    times.add(time);
+                }
+            }
+            assertEquals(now, wkdt.getTime());
+            List<KDPoint> live = live(now);
+            assertEquals(live.size(), wkdt.size());
+            assertEquals(sorted(live), sorted(wkdt.toList()));
+            for (int i = 0; i < 10; i++) {
+                KDPoint center = randKDPoint(DIM);
+                int k = RAND.nextInt(20);
+                List<KDPoint> expected = KDTreeTest.naiveKNN(live, center, k, DIST_FUNC);
+                List<KDPoint> actual = wkdt.kNN(center, k);
+                assertEquals(expected.size(), actual.size());
+                for (int j = 0; j < expected.size(); j++) {
+                    assertEquals(DIST_FUNC.distanceBetween(center, expected.get(j)),
+                            DIST_FUNC.distanceBetween(center, actual.get(j)), 0);
+                }
+                double radius = RAND.nextDouble() * 20;
+                assertEquals(KDTreeTest.naiveRadiusSearch(live, center, radius, DIST_FUNC::distanceBetween),
+                        wkdt.radiusSearch(center, radius));
+                double[] box = { center.getCoord(0), center.getCoord(0) + 20, center.getCoord(1),
+                        center.getCoord(1) + 20 };
+                assertEquals(sorted(KDTreeTest.naivePointsInBox(live, box)), sorted(wkdt.pointsInBox(box)));
+            }
+        }
+        wkdt.advanceTo(now - 1);
+        assertEquals(now, wkdt.getTime());
+        wkdt.advanceTo(now + WINDOW);
+        assertTrue(wkdt.isEmpty());
+        wkdt.advanceTo(now + 2 * WINDOW);
+        for (Object interval : wkdt.ring) {
+            assertNull(interval);
+        }
+        assertEquals(0, wkdt.kNN(randKDPoint(DIM), 5).size());
+    }
+
+    @Test
+    public void addRemoveTest() {
+        KDPoint point = randKDPoint(DIM);
+        assertTrue(wkdt.add(point));
+        assertTrue(wkdt.contains(point));
+        assertTrue(wkdt.add(point, WINDOW / 2));
+        wkdt.advanceTo(WINDOW);
+        assertEquals(1, wkdt.size());
+        assertTrue(wkdt.contains(point));
+        assertTrue(wkdt.remove(point));
+        assertFalse(wkdt.contains(point));
+        assertFalse(wkdt.remove(point));
+        assertFalse(wkdt.remove("I am not a KD point"));
+        assertFalse(wkdt.add(point, 0));
+        assertTrue(wkdt.add(point));
+        wkdt.clear();
+        assertTrue(wkdt.isEmpty());
+        boolean caught = false;
+        try {
+            new WindowedKDTree<>(DIM, DIST_FUNC, 0, INTERVALS);
+        } catch (IllegalArgumentException e) {
+            caught = true;
+        }
+        assertTrue(caught);
+    }
+
+    @Test
+    public void spliteratorTest() {
+        for (int i = 0; i < POINTS_PER_STEP * INTERVALS; i++) {
+            KDPoint point = randKDPoint(DIM);
+            long time = RAND.nextInt((int) WINDOW);
+            assertTrue(wkdt.add(point, time));
+            points.add(point);
+            times.add(time);
+        }
+        Spliterator<KDPoint> spliterator = wkdt.spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+        assertEquals(points.size(), spliterator.estimateSize());
+        Spliterator<KDPoint> prefix = spliterator.trySplit();
+        assertNotNull(prefix);
+        assertEquals(points.size(), prefix.estimateSize() + spliterator.estimateSize());
+        assertEquals(sorted(points), sorted(wkdt.parallelStream().collect(Collectors.toList())));
+        wkdt.advanceTo(WINDOW + WINDOW / 2);
+        assertFalse(wkdt.spliterator().hasCharacteristics(Spliterator.SIZED));
+        assertEquals(sorted(live(wkdt.getTime())), sorted(wkdt.parallelStream().collect(Collectors.toList())));
+    }
+}